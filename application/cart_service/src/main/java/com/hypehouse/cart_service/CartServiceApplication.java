@@ -2,8 +2,10 @@ package com.hypehouse.cart_service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication(scanBasePackages = {"com.hypehouse"})
+@EnableScheduling
 public class CartServiceApplication {
 
 	private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(CartServiceApplication.class);
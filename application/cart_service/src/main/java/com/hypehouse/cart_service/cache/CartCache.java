@@ -0,0 +1,88 @@
+package com.hypehouse.cart_service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hypehouse.cart_service.model.Cart;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Optional in-process cache of recently read carts, keyed by user ID, so that repeated reads of a cart for
+ * display cost no round trip to Redis. Off unless {@code cart.cache.enabled} is set, which has to be the same
+ * on every node.
+ * <p>
+ * Every write of a cart drops it here and publishes the user ID on {@code cart.cache.channel}, where
+ * {@link CartChangeListener} of every node drops it as well. A load that overlaps a drop is discarded with it,
+ * so a cart read before a write is never cached after it. Cached carts are shared between requests and must
+ * not be changed; changes always start from Redis.
+ */
+@Component
+public class CartCache {
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final Cache<String, Cart> cache;
+    private final boolean enabled;
+    private final String channel;
+
+    public CartCache(RedisTemplate<String, Object> redisTemplate,
+                     @Value("${cart.cache.enabled:false}") boolean enabled,
+                     @Value("${cart.cache.max-size:10000}") long maxSize,
+                     @Value("${cart.cache.ttl:30s}") Duration ttl,
+                     @Value("${cart.cache.channel:cart:changed}") String channel) {
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.channel = channel;
+        // The TTL is only a safety net for a missed message
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * Get the cart of a user, loading it on a miss. Missing carts are not cached.
+     *
+     * @param userId The ID of the user.
+     * @param loader Loads the cart from Redis.
+     * @return The cart, or null if there is none.
+     */
+    public Cart get(String userId, Supplier<Cart> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        return cache.get(userId, key -> loader.get());
+    }
+
+    /**
+     * Drop the cart of a user on this node and tell the other nodes to drop it. Called after every write.
+     */
+    public void changed(String userId) {
+        if (!enabled) {
+            return;
+        }
+        cache.invalidate(userId);
+        redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(
+                channel.getBytes(StandardCharsets.UTF_8), userId.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Drop the cart of a user on this node.
+     */
+    public void invalidate(String userId) {
+        cache.invalidate(userId);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+}
@@ -0,0 +1,28 @@
+package com.hypehouse.cart_service.cache;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps {@link CartCache} coherent with writes made by other nodes by following the channel every node
+ * publishes changed carts on. Subscribed by the listener container of {@link com.hypehouse.cart_service.config.CartCacheConfig} when the cache
+ * is enabled.
+ */
+@Component
+public class CartChangeListener implements MessageListener {
+
+    private final CartCache cartCache;
+
+    public CartChangeListener(CartCache cartCache) {
+        this.cartCache = cartCache;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        // This node's own writes come back here too; dropping the cart again is harmless
+        cartCache.invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
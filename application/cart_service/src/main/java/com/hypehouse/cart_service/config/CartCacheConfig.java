@@ -0,0 +1,29 @@
+package com.hypehouse.cart_service.config;
+
+import com.hypehouse.cart_service.cache.CartCache;
+import com.hypehouse.cart_service.cache.CartChangeListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Subscribes {@link CartChangeListener} to the channel of {@link CartCache}, only when the cache is enabled.
+ * The context starts and stops the container.
+ */
+@Configuration
+public class CartCacheConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "cart.cache.enabled", havingValue = "true")
+    public RedisMessageListenerContainer cartChangeListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                     CartChangeListener cartChangeListener,
+                                                                     CartCache cartCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(cartChangeListener, new ChannelTopic(cartCache.getChannel()));
+        return container;
+    }
+}
@@ -9,13 +9,13 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class CartGrpcConfig {
     @GrpcClient("inventory_service")
-    private InventoryServiceGrpc.InventoryServiceBlockingStub inventoryStub;
+    private InventoryServiceGrpc.InventoryServiceStub inventoryAsyncStub;
 
     @Bean
-    public InventoryServiceGrpc.InventoryServiceBlockingStub inventoryServiceStub() {
-        if (inventoryStub == null) {
-            throw new IllegalStateException("Failed to initialize gRPC stub for InventoryService");
+    public InventoryServiceGrpc.InventoryServiceStub inventoryServiceAsyncStub() {
+        if (inventoryAsyncStub == null) {
+            throw new IllegalStateException("Failed to initialize async gRPC stub for InventoryService");
         }
-        return inventoryStub;
+        return inventoryAsyncStub;
     }
 }
\ No newline at end of file
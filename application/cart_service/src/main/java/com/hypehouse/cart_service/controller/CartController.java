@@ -2,16 +2,17 @@ package com.hypehouse.cart_service.controller;
 
 import com.hypehouse.cart_service.model.AddItemRequest;
 import com.hypehouse.cart_service.model.Cart;
+import com.hypehouse.cart_service.model.CartItem;
 import com.hypehouse.cart_service.model.UpdateQuantityRequest;
 import com.hypehouse.cart_service.service.CartService;
 import jakarta.validation.Valid;
-import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/v1/cart")
-@RequiredArgsConstructor
 public class CartController {
     private final CartService cartService;
 
@@ -35,6 +36,22 @@ public class CartController {
         return ResponseEntity.ok(cartService.updateItemQuantity(userId, productId, variantSku, size, request.getQuantity()));
     }
 
+    @PutMapping("/items/update-products")
+    public ResponseEntity<Cart> updateItemQuantities(@RequestHeader("X-User-ID") String userId, @RequestBody List<CartItem> items) {
+        return ResponseEntity.ok(cartService.updateItemQuantities(userId, items));
+    }
+
+    @PostMapping("/merge")
+    public ResponseEntity<Cart> mergeCart(@RequestHeader("X-User-ID") String userId, @RequestHeader("X-Guest-ID") String guestUserId) {
+        return ResponseEntity.ok(cartService.mergeCart(userId, guestUserId));
+    }
+
+    @DeleteMapping("/clear")
+    public ResponseEntity<Void> clearCart(@RequestHeader("X-User-ID") String userId) {
+        cartService.clearCart(userId);
+        return ResponseEntity.noContent().build();
+    }
+
     @DeleteMapping("/items/remove-product/{productId}/{variantSku}/{size}")
     public ResponseEntity<Void> removeItem(
             @RequestHeader("X-User-ID") String userId,
@@ -48,6 +65,6 @@ public class CartController {
 
     @GetMapping("/get-cart")
     public ResponseEntity<Cart> getCart(@RequestHeader("X-User-ID") String userId) {
-        return ResponseEntity.ok(cartService.getCart(userId));
+        return ResponseEntity.ok(cartService.viewCart(userId));
     }
 }
\ No newline at end of file
@@ -22,6 +22,10 @@ public class Cart implements Serializable {
     private LocalDateTime updatedAt;
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     private LocalDateTime expiresAt;
+    /**
+     * Incremented on every write, so a write based on an older read is rejected.
+     */
+    private Long version;
 
     public List<CartItem> getItems() {
         return items;
@@ -67,6 +71,14 @@ public class Cart implements Serializable {
         this.expiresAt = expiresAt;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public String getId() {
         return id;
     }
@@ -1,43 +1,511 @@
 package com.hypehouse.cart_service.repository;
 
+import com.hypehouse.cart_service.cache.CartCache;
 import com.hypehouse.cart_service.model.Cart;
+import com.hypehouse.cart_service.model.CartItem;
+import com.hypehouse.cart_service.serializer.CartRedisSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Repository;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
+/**
+ * Stores carts in Redis, in one of two modes set by {@code cart.storage.mode}:
+ * <ul>
+ *     <li>{@code value}: the whole cart as one value, rewritten on every change.</li>
+ *     <li>{@code hash}: one hash per cart, with a field per line keyed {@code productId:variantSku:size}, a
+ *     {@code meta} field holding the cart without its lines and a plain {@code version} field. Changing a line
+ *     writes only that line and the metadata, and a cart is read with a single HGETALL. Carts still stored as
+ *     one value are converted the first time they are read.</li>
+ * </ul>
+ * Carts written in hash mode cannot be read back in value mode, so switching back needs the carts deleted.
+ * <p>
+ * Writes are optimistic: every cart carries a version, and a write is rejected with an
+ * {@link OptimisticLockingFailureException} when the stored cart has moved on since it was read, so
+ * concurrent requests for the same cart cannot overwrite each other's lines. In hash mode the version check
+ * and the writes run as one script, in a single round trip. In value mode the version is inside the stored
+ * value, so the key is watched from the version check to the transaction holding the writes.
+ * <p>
+ * Every write also records when the cart expires in a sorted set, scanned by {@link
+ * com.hypehouse.cart_service.service.CartExpirySweeper} to release the stock held by expired carts. A node
+ * claims an expired cart by moving it forward on the set rather than taking it off, so the cart is handled
+ * again if that node stops halfway. The keys themselves live {@code cart.expiry.grace} longer than the carts,
+ * so the lines can still be read then.
+ * <p>
+ * Carts are written as JSON, or in the binary format of {@link CartRedisSerializer} when
+ * {@code cart.serializer} is {@code binary}; both are read either way.
+ */
 @Repository
 public class CartRepository {
+    private static final Logger log = LoggerFactory.getLogger(CartRepository.class);
+
     private final RedisTemplate<String, Object> redisTemplate; // Use RedisTemplate<String, Object>
 
     @Value("${redis.cart.key.prefix:cart:}")
     private String cartKeyPrefix;
 
+    @Value("${cart.storage.mode:value}")
+    private String storageMode;
+
+    @Value("${redis.cart.expiry.key:cart-expiry}")
+    private String expiryIndexKey;
+
+    @Value("${cart.expiry.grace:1h}")
+    private Duration expiryGrace;
+
     private static final Duration CART_TTL = Duration.ofDays(15);
+    private static final String META_FIELD = "meta";
+
+    private static final String VERSION_FIELD = "version";
+
+    // KEYS: the cart, the expiry index. ARGV: the expected version, the TTL in ms, the expiry score, the expiry
+    // member, 1 to replace every field, the number of fields to delete, those fields, then field and value pairs
+    private static final RedisScript<Long> WRITE_HASH_IF_UNCHANGED = RedisScript.of("""
+            local version = tonumber(redis.call('HGET', KEYS[1], 'version') or '0')
+            if version ~= tonumber(ARGV[1]) then
+                return 0
+            end
+            if ARGV[5] == '1' then
+                redis.call('DEL', KEYS[1])
+            end
+            local deletes = tonumber(ARGV[6])
+            for i = 7, 6 + deletes do
+                redis.call('HDEL', KEYS[1], ARGV[i])
+            end
+            for i = 7 + deletes, #ARGV, 2 do
+                redis.call('HSET', KEYS[1], ARGV[i], ARGV[i + 1])
+            end
+            redis.call('HSET', KEYS[1], 'version', version + 1)
+            redis.call('PEXPIRE', KEYS[1], ARGV[2])
+            redis.call('ZADD', KEYS[2], ARGV[3], ARGV[4])
+            return 1
+            """, Long.class);
+    // KEYS: the cart, the expiry index. ARGV: the expected version, the expiry member
+    private static final RedisScript<Long> DELETE_HASH_IF_UNCHANGED = RedisScript.of("""
+            local version = tonumber(redis.call('HGET', KEYS[1], 'version') or '0')
+            if version ~= tonumber(ARGV[1]) then
+                return 0
+            end
+            redis.call('DEL', KEYS[1])
+            redis.call('ZREM', KEYS[2], ARGV[2])
+            return 1
+            """, Long.class);
+    private static final RedisScript<Long> CLAIM_EXPIRED = RedisScript.of("""
+            local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+            if score and tonumber(score) <= tonumber(ARGV[2]) then
+                redis.call('ZADD', KEYS[1], ARGV[3], ARGV[1])
+                return 1
+            end
+            return 0
+            """, Long.class);
+    private static final RedisScript<Long> DROP_EXPIRED = RedisScript.of("""
+            local score = redis.call('ZSCORE', KEYS[1], ARGV[1])
+            if score and tonumber(score) == tonumber(ARGV[2]) then
+                return redis.call('ZREM', KEYS[1], ARGV[1])
+            end
+            return 0
+            """, Long.class);
+    private static final RedisSerializer<Long> LONG_RESULT = new GenericToStringSerializer<>(Long.class);
+
+    private final CartCache cartCache;
+
+    public CartRepository(RedisTemplate<String, Object> redisTemplate, CartCache cartCache,
+                          @Value("${cart.serializer:json}") String serializer) { // Use RedisTemplate<String, Object>
+        this.redisTemplate = withCartSerializer(redisTemplate, "binary".equalsIgnoreCase(serializer));
+        this.cartCache = cartCache;
+    }
 
-    public CartRepository(RedisTemplate<String, Object> redisTemplate) { // Use RedisTemplate<String, Object>
-        this.redisTemplate = redisTemplate;
+    /**
+     * A template like the shared one that reads carts in both formats of {@link CartRedisSerializer} and
+     * writes them in binary when {@code cart.serializer} is {@code binary}.
+     */
+    @SuppressWarnings("unchecked")
+    private static RedisTemplate<String, Object> withCartSerializer(RedisTemplate<String, Object> redisTemplate,
+                                                                    boolean writeBinary) {
+        CartRedisSerializer serializer = new CartRedisSerializer(
+                (RedisSerializer<Object>) redisTemplate.getValueSerializer(), writeBinary);
+        RedisTemplate<String, Object> template = new RedisTemplate<>();
+        template.setConnectionFactory(redisTemplate.getConnectionFactory());
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(serializer);
+        template.setHashKeySerializer(new StringRedisSerializer());
+        template.setHashValueSerializer(serializer);
+        template.afterPropertiesSet();
+        return template;
     }
 
+    /**
+     * Save a whole cart, replacing the lines stored for it.
+     *
+     * @throws OptimisticLockingFailureException if the cart was written since it was read
+     */
     public Cart save(Cart cart) {
         String key = generateKey(cart.getUserId());
-        cart.setUpdatedAt(LocalDateTime.now());
-        cart.setExpiresAt(LocalDateTime.now().plus(CART_TTL));
-        redisTemplate.opsForValue().set(key, cart, CART_TTL);
+        touch(cart);
+        if (isHashMode()) {
+            writeHashIfUnchanged(key, cart, true, List.of(), fieldsOf(cart, cart.getItems()));
+        } else {
+            writeIfUnchanged(key, cart, operations -> operations.opsForValue().set(key, cart, keyTtl()));
+        }
+        return cart;
+    }
+
+    /**
+     * Save a line that was added or changed. In hash mode only the line and the metadata are written.
+     *
+     * @throws OptimisticLockingFailureException if the cart was written since it was read
+     */
+    public Cart saveItem(Cart cart, CartItem item) {
+        return saveItems(cart, List.of(item));
+    }
+
+    public Cart saveItems(Cart cart, Collection<CartItem> items) {
+        if (!isHashMode()) {
+            return save(cart);
+        }
+        touch(cart);
+        writeHashIfUnchanged(generateKey(cart.getUserId()), cart, false, List.of(), fieldsOf(cart, items));
+        return cart;
+    }
+
+    /**
+     * Save a cart that a line was taken out of. In hash mode only the line is deleted and the metadata written.
+     *
+     * @throws OptimisticLockingFailureException if the cart was written since it was read
+     */
+    public Cart removeItem(Cart cart, CartItem item) {
+        if (!isHashMode()) {
+            return save(cart);
+        }
+        touch(cart);
+        writeHashIfUnchanged(generateKey(cart.getUserId()), cart, false, List.of(fieldOf(item)),
+                fieldsOf(cart, List.of()));
         return cart;
     }
 
     public Cart findByUserId(String userId) {
-        return (Cart) redisTemplate.opsForValue().get(generateKey(userId)); // Cast to Cart
+        String key = generateKey(userId);
+        if (!isHashMode()) {
+            return (Cart) redisTemplate.opsForValue().get(key); // Cast to Cart
+        }
+        Map<Object, Object> fields;
+        try {
+            fields = redisTemplate.opsForHash().entries(key);
+        } catch (RedisSystemException e) {
+            if (redisTemplate.type(key) != DataType.STRING) {
+                throw e;
+            }
+            return convertToHash(key);
+        }
+        return fields.isEmpty() ? null : fromFields(fields);
     }
 
     public void delete(String userId) {
         redisTemplate.delete(generateKey(userId));
+        redisTemplate.opsForZSet().remove(expiryIndexKey, userId);
+        cartCache.changed(userId);
+    }
+
+    /**
+     * Delete a cart unless it was written since it was read.
+     *
+     * @return Whether the cart was deleted.
+     */
+    public boolean deleteIfUnchanged(Cart cart) {
+        String key = generateKey(cart.getUserId());
+        boolean deleted;
+        if (isHashMode()) {
+            Long result = redisTemplate.execute(DELETE_HASH_IF_UNCHANGED, RedisSerializer.byteArray(), LONG_RESULT,
+                    List.of(key, expiryIndexKey), number(versionOf(cart)), expiryMember(cart.getUserId()));
+            deleted = result != null && result > 0;
+        } else {
+            deleted = executeIfUnchanged(key, versionOf(cart), operations -> {
+                operations.delete(key);
+                operations.opsForZSet().remove(expiryIndexKey, cart.getUserId());
+            });
+        }
+        if (deleted) {
+            cartCache.changed(cart.getUserId());
+        }
+        return deleted;
+    }
+
+    /**
+     * The users whose carts expired by {@code now}, oldest first.
+     */
+    public List<String> findExpired(LocalDateTime now, int limit) {
+        Set<Object> userIds = redisTemplate.opsForZSet().rangeByScore(expiryIndexKey, 0, toEpochMilli(now), 0, limit);
+        List<String> expired = new ArrayList<>();
+        if (userIds != null) {
+            for (Object userId : userIds) {
+                expired.add((String) userId);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Move a user whose cart expired by {@code now} forward on the expiry index to {@code leaseUntil}, so that
+     * only one node handles the expiry of their cart. A node that stops before it is done leaves the user on
+     * the index, to be handled again once the lease runs out.
+     *
+     * @return Whether this call moved it.
+     */
+    public boolean claimExpired(String userId, LocalDateTime now, LocalDateTime leaseUntil) {
+        Long claimed = redisTemplate.execute(CLAIM_EXPIRED, RedisSerializer.byteArray(), LONG_RESULT,
+                List.of(expiryIndexKey), expiryMember(userId), scoreOf(now), scoreOf(leaseUntil));
+        return claimed != null && claimed > 0;
+    }
+
+    /**
+     * Take a user claimed until {@code leaseUntil} off the expiry index, unless a write scheduled their cart
+     * again since.
+     */
+    public void dropExpired(String userId, LocalDateTime leaseUntil) {
+        redisTemplate.execute(DROP_EXPIRED, RedisSerializer.byteArray(), LONG_RESULT,
+                List.of(expiryIndexKey), expiryMember(userId), scoreOf(leaseUntil));
+    }
+
+    /**
+     * Put a user back on the expiry index, to be handled again at {@code at}.
+     */
+    public void scheduleExpiry(String userId, LocalDateTime at) {
+        redisTemplate.opsForZSet().add(expiryIndexKey, userId, toEpochMilli(at));
+    }
+
+    /**
+     * The hash field of a line.
+     */
+    public static String fieldOf(CartItem item) {
+        return item.getProductId() + ":" + item.getVariantSku() + ":" + item.getSize();
+    }
+
+    /**
+     * Members of the expiry index are written with the value serializer, so scripts are given them the same way.
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] expiryMember(String userId) {
+        return ((RedisSerializer<Object>) redisTemplate.getValueSerializer()).serialize(userId);
+    }
+
+    private static byte[] scoreOf(LocalDateTime time) {
+        return Long.toString(toEpochMilli(time)).getBytes(StandardCharsets.UTF_8);
     }
 
     private String generateKey(String userId) {
         return cartKeyPrefix + userId;
     }
-}
\ No newline at end of file
+
+    private boolean isHashMode() {
+        return "hash".equalsIgnoreCase(storageMode);
+    }
+
+    /**
+     * Apply {@code writes} to a cart stored as one value in one transaction, unless the stored cart has a
+     * different version than {@code cart}, and record when the cart expires. On success the cart gets the
+     * next version.
+     */
+    private void writeIfUnchanged(String key, Cart cart, Consumer<RedisOperations<String, Object>> writes) {
+        long expectedVersion = versionOf(cart);
+        // Set before the writes serialize the cart
+        cart.setVersion(expectedVersion + 1);
+        boolean written = executeIfUnchanged(key, expectedVersion, operations -> {
+            writes.accept(operations);
+            operations.opsForZSet().add(expiryIndexKey, cart.getUserId(), toEpochMilli(cart.getExpiresAt()));
+        });
+        if (!written) {
+            cart.setVersion(expectedVersion);
+            throw new OptimisticLockingFailureException("Cart " + cart.getId() + " was changed by another request");
+        }
+        cartCache.changed(cart.getUserId());
+    }
+
+    /**
+     * Write {@code fields} to the hash of a cart, after deleting {@code deletes} or, with {@code replace},
+     * every field, unless the stored cart has a different version than {@code cart}. The writes, the next
+     * version, the TTL and the expiry of the cart go in one script. On success the cart gets the next version.
+     */
+    private void writeHashIfUnchanged(String key, Cart cart, boolean replace, List<String> deletes,
+                                      Map<String, Object> fields) {
+        long expectedVersion = versionOf(cart);
+        List<byte[]> args = new ArrayList<>(6 + deletes.size() + 2 * fields.size());
+        args.add(number(expectedVersion));
+        args.add(number(keyTtl().toMillis()));
+        args.add(scoreOf(cart.getExpiresAt()));
+        args.add(expiryMember(cart.getUserId()));
+        args.add(number(replace ? 1 : 0));
+        args.add(number(deletes.size()));
+        for (String field : deletes) {
+            args.add(field.getBytes(StandardCharsets.UTF_8));
+        }
+        RedisSerializer<Object> valueSerializer = hashValueSerializer();
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            args.add(field.getKey().getBytes(StandardCharsets.UTF_8));
+            args.add(valueSerializer.serialize(field.getValue()));
+        }
+        Long written = redisTemplate.execute(WRITE_HASH_IF_UNCHANGED, RedisSerializer.byteArray(), LONG_RESULT,
+                List.of(key, expiryIndexKey), args.toArray());
+        if (written == null || written == 0) {
+            throw new OptimisticLockingFailureException("Cart " + cart.getId() + " was changed by another request");
+        }
+        cart.setVersion(expectedVersion + 1);
+        cartCache.changed(cart.getUserId());
+    }
+
+    /**
+     * Apply {@code writes} in one transaction if the cart stored as one value still has {@code expectedVersion}.
+     * The key is watched from the version check on, so a write by another request in between aborts the
+     * transaction as well.
+     *
+     * @return Whether the writes were applied.
+     */
+    private boolean executeIfUnchanged(String key, long expectedVersion, Consumer<RedisOperations<String, Object>> writes) {
+        List<Object> results = redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) throws DataAccessException {
+                operations.watch(key);
+                Object stored = operations.opsForValue().get(key);
+                if (versionOf((Cart) stored) != expectedVersion) {
+                    operations.unwatch();
+                    return null;
+                }
+                operations.multi();
+                writes.accept(operations);
+                return operations.exec();
+            }
+        });
+        return results != null && !results.isEmpty();
+    }
+
+    /**
+     * The metadata of a cart and {@code items}, as hash fields.
+     */
+    private static Map<String, Object> fieldsOf(Cart cart, Collection<CartItem> items) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put(META_FIELD, metadataOf(cart));
+        for (CartItem item : items) {
+            fields.put(fieldOf(item), item);
+        }
+        return fields;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<Object> hashValueSerializer() {
+        return (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+    }
+
+    private static byte[] number(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Carts written before versions were added, and carts that do not exist, count as version 0.
+     */
+    private static long versionOf(Cart cart) {
+        return cart == null || cart.getVersion() == null ? 0 : cart.getVersion();
+    }
+
+    private Duration keyTtl() {
+        return CART_TTL.plus(expiryGrace);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private void touch(Cart cart) {
+        cart.setUpdatedAt(LocalDateTime.now());
+        cart.setExpiresAt(LocalDateTime.now().plus(CART_TTL));
+    }
+
+    /**
+     * Rewrite a cart stored as one value by an earlier version as a hash, keeping its expiry.
+     */
+    private Cart convertToHash(String key) {
+        Cart cart = (Cart) redisTemplate.opsForValue().get(key);
+        if (cart == null) {
+            return null;
+        }
+        if (cart.getExpiresAt() == null) {
+            cart.setExpiresAt(LocalDateTime.now().plus(CART_TTL));
+        }
+        Duration ttl = Duration.between(LocalDateTime.now(), cart.getExpiresAt());
+        if (ttl.isNegative() || ttl.isZero()) {
+            return cart;
+        }
+        redisTemplate.execute(new SessionCallback<List<Object>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public List<Object> execute(RedisOperations operations) throws DataAccessException {
+                Map<String, Object> fields = fieldsOf(cart, cart.getItems());
+                fields.put(VERSION_FIELD, versionOf(cart));
+                operations.multi();
+                operations.delete(key);
+                operations.opsForHash().putAll(key, fields);
+                operations.expire(key, ttl.plus(expiryGrace));
+                operations.opsForZSet().add(expiryIndexKey, cart.getUserId(), toEpochMilli(cart.getExpiresAt()));
+                return operations.exec();
+            }
+        });
+        log.info("Converted cart {} to a hash", cart.getId());
+        return cart;
+    }
+
+    /**
+     * Lines come back in the order they were first added, which Redis keeps for hashes as small as a cart.
+     */
+    private Cart fromFields(Map<Object, Object> fields) {
+        Cart cart = (Cart) fields.get(META_FIELD);
+        if (cart == null) {
+            // Lines written after the cart was deleted, without a cart to go with them
+            return null;
+        }
+        Object version = fields.get(VERSION_FIELD);
+        cart.setVersion(version == null ? null : ((Number) version).longValue());
+        List<CartItem> items = new ArrayList<>();
+        for (Map.Entry<Object, Object> field : fields.entrySet()) {
+            if (!META_FIELD.equals(field.getKey()) && !VERSION_FIELD.equals(field.getKey())) {
+                items.add((CartItem) field.getValue());
+            }
+        }
+        cart.setItems(items);
+        return cart;
+    }
+
+    /**
+     * The cart without its lines. Its version is kept in its own field, where the write script reads it.
+     */
+    private static Cart metadataOf(Cart cart) {
+        Cart metadata = new Cart();
+        metadata.setId(cart.getId());
+        metadata.setUserId(cart.getUserId());
+        metadata.setCreatedAt(cart.getCreatedAt());
+        metadata.setUpdatedAt(cart.getUpdatedAt());
+        metadata.setExpiresAt(cart.getExpiresAt());
+        return metadata;
+    }
+}
@@ -0,0 +1,237 @@
+package com.hypehouse.cart_service.serializer;
+
+import com.hypehouse.cart_service.model.Cart;
+import com.hypehouse.cart_service.model.CartItem;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes carts and cart lines in a compact binary format, and everything else with {@code fallback}.
+ * With {@code writeBinary} off, carts are written with {@code fallback} too but binary ones are still read, so
+ * every node can read the format before any node writes it.
+ * <p>
+ * A value starts with a marker byte, the schema version and the type, followed by the fields in a fixed
+ * order: strings as a varint length and UTF-8 bytes, numbers as zigzag varints and times as epoch seconds,
+ * each shifted by one so that zero stands for null. Times keep the second precision of the JSON format.
+ * JSON never starts with the marker, so values written as JSON before, such as the carts of earlier
+ * versions, are still read with {@code fallback}. Fields added later go at the end under a new schema version,
+ * and readers keep reading the versions before it.
+ */
+public class CartRedisSerializer implements RedisSerializer<Object> {
+
+    static final byte MARKER = (byte) 0xCA;
+    static final byte SCHEMA_VERSION = 1;
+
+    private static final byte CART = 1;
+    private static final byte CART_ITEM = 2;
+    private static final int ITEM_FIELDS = 4;
+
+    private final RedisSerializer<Object> fallback;
+    private final boolean writeBinary;
+
+    public CartRedisSerializer(RedisSerializer<Object> fallback, boolean writeBinary) {
+        this.fallback = fallback;
+        this.writeBinary = writeBinary;
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (!writeBinary) {
+            return fallback.serialize(value);
+        }
+        if (value instanceof Cart cart) {
+            Writer writer = new Writer(64 + 48 * cart.getItems().size());
+            writer.header(CART);
+            writeCart(writer, cart);
+            return writer.toByteArray();
+        }
+        if (value instanceof CartItem item) {
+            Writer writer = new Writer(48);
+            writer.header(CART_ITEM);
+            writeItem(writer, item);
+            return writer.toByteArray();
+        }
+        return fallback.serialize(value);
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0 || bytes[0] != MARKER) {
+            return fallback.deserialize(bytes);
+        }
+        Reader reader = new Reader(bytes);
+        try {
+            int version = reader.readByte();
+            if (version > SCHEMA_VERSION) {
+                throw new SerializationException("Cart written with unknown schema version " + version);
+            }
+            byte type = reader.readByte();
+            return switch (type) {
+                case CART -> readCart(reader);
+                case CART_ITEM -> readItem(reader);
+                default -> throw new SerializationException("Unknown cart value type " + type);
+            };
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new SerializationException("Cart value cut short", e);
+        }
+    }
+
+    private void writeCart(Writer writer, Cart cart) {
+        writer.writeString(cart.getId());
+        writer.writeString(cart.getUserId());
+        writer.writeTime(cart.getCreatedAt());
+        writer.writeTime(cart.getUpdatedAt());
+        writer.writeTime(cart.getExpiresAt());
+        writer.writeNumber(cart.getVersion());
+        List<CartItem> items = cart.getItems();
+        writer.writeVarLong(items == null ? 0 : items.size());
+        if (items != null) {
+            for (CartItem item : items) {
+                writeItem(writer, item);
+            }
+        }
+    }
+
+    private Cart readCart(Reader reader) {
+        Cart cart = new Cart();
+        cart.setId(reader.readString());
+        cart.setUserId(reader.readString());
+        cart.setCreatedAt(reader.readTime());
+        cart.setUpdatedAt(reader.readTime());
+        cart.setExpiresAt(reader.readTime());
+        cart.setVersion(reader.readNumber());
+        long itemCount = reader.readVarLong();
+        // Every line takes at least one byte per field, so a count the rest of the value cannot hold is corrupt
+        if (itemCount < 0 || itemCount > reader.remaining() / ITEM_FIELDS) {
+            throw new SerializationException("Cart value holds a wrong line count " + itemCount);
+        }
+        List<CartItem> items = new ArrayList<>((int) itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            items.add(readItem(reader));
+        }
+        cart.setItems(items);
+        return cart;
+    }
+
+    private void writeItem(Writer writer, CartItem item) {
+        writer.writeString(item.getProductId());
+        writer.writeString(item.getVariantSku());
+        writer.writeString(item.getSize());
+        writer.writeNumber(item.getQuantity() == null ? null : item.getQuantity().longValue());
+    }
+
+    private CartItem readItem(Reader reader) {
+        CartItem item = new CartItem();
+        item.setProductId(reader.readString());
+        item.setVariantSku(reader.readString());
+        item.setSize(reader.readString());
+        Long quantity = reader.readNumber();
+        item.setQuantity(quantity == null ? null : quantity.intValue());
+        return item;
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+
+        Writer(int size) {
+            super(size);
+        }
+
+        void header(byte type) {
+            write(MARKER);
+            write(SCHEMA_VERSION);
+            write(type);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+
+        void writeNumber(Long value) {
+            // Zigzag, so small negative numbers stay short too
+            writeVarLong(value == null ? 0 : ((value << 1) ^ (value >> 63)) + 1);
+        }
+
+        void writeTime(LocalDateTime value) {
+            writeNumber(value == null ? null : value.toEpochSecond(ZoneOffset.UTC));
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position = 1;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            return bytes[position++];
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        int remaining() {
+            return bytes.length - position;
+        }
+
+        String readString() {
+            long encoded = readVarLong();
+            if (encoded == 0) {
+                return null;
+            }
+            long length = encoded - 1;
+            if (length < 0 || length > remaining()) {
+                throw new ArrayIndexOutOfBoundsException(position);
+            }
+            String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+            position += (int) length;
+            return value;
+        }
+
+        Long readNumber() {
+            long encoded = readVarLong();
+            if (encoded == 0) {
+                return null;
+            }
+            long zigzag = encoded - 1;
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        LocalDateTime readTime() {
+            Long epochSecond = readNumber();
+            return epochSecond == null ? null : LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.hypehouse.cart_service.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+
+/**
+ * Periodically releases the stock held by carts that expired, in batches of
+ * {@code cart.expiry.sweep.batch-size} carts.
+ */
+@Component
+public class CartExpirySweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(CartExpirySweeper.class);
+
+    private final CartService cartService;
+    private final int batchSize;
+
+    public CartExpirySweeper(CartService cartService,
+                             @Value("${cart.expiry.sweep.batch-size:100}") int batchSize) {
+        this.cartService = cartService;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${cart.expiry.sweep.interval.ms:60000}")
+    public void sweepExpiredCarts() {
+        int swept = 0;
+        int found;
+        do {
+            found = cartService.releaseExpiredCarts(LocalDateTime.now(), batchSize);
+            swept += found;
+        } while (found == batchSize);
+
+        if (swept > 0) {
+            log.info("Handled {} expired carts.", swept);
+        }
+    }
+}
@@ -1,37 +1,58 @@
 package com.hypehouse.cart_service.service;
 
+import com.hypehouse.cart_service.cache.CartCache;
 import com.hypehouse.cart_service.exception.CartException;
 import com.hypehouse.cart_service.model.AddItemRequest;
 import com.hypehouse.cart_service.model.Cart;
 import com.hypehouse.cart_service.model.CartItem;
 import com.hypehouse.cart_service.repository.CartRepository;
-import com.hypehouse.common.grpc.InventoryServiceGrpc;
-import com.hypehouse.common.grpc.ReserveStockRequest;
-import com.hypehouse.common.grpc.ReserveStockResponse;
-import com.hypehouse.common.grpc.ReleaseStockRequest;
+import com.hypehouse.common.grpc.BatchReleaseStockResponse;
+import com.hypehouse.common.grpc.ReservationResult;
 import io.grpc.StatusRuntimeException;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @Service
 public class CartService {
     private final CartRepository cartRepository;
-    private final InventoryServiceGrpc.InventoryServiceBlockingStub inventoryStub;
+    private final InventoryReservationChannel inventoryReservationChannel;
+    private final CartCache cartCache;
     private static final Logger log = LoggerFactory.getLogger(CartService.class);
 
     @Value("${cart.max.items.per.cart:10}")
     private int maxItemsPerCart;
 
-    public CartService(CartRepository cartRepository, InventoryServiceGrpc.InventoryServiceBlockingStub inventoryStub) {
+    @Value("${cart.inventory.attempts:3}")
+    private int inventoryAttempts;
+
+    @Value("${cart.update.attempts:3}")
+    private int updateAttempts;
+
+    @Value("${cart.expiry.retry.ms:60000}")
+    private long expiryRetryMs;
+
+    public CartService(CartRepository cartRepository, InventoryReservationChannel inventoryReservationChannel,
+                       CartCache cartCache) {
         this.cartRepository = cartRepository;
-        this.inventoryStub = inventoryStub;
-        log.info("InventoryServiceGrpc.InventoryServiceBlockingStub initialized: {}", inventoryStub);
+        this.inventoryReservationChannel = inventoryReservationChannel;
+        this.cartCache = cartCache;
     }
 
     public Cart addItem(String userId, @Valid AddItemRequest request) {
@@ -39,27 +60,30 @@ public class CartService {
             throw new CartException("Quantity must be greater than 0");
         }
 
-        Cart cart = cartRepository.findByUserId(userId);
-        if (cart == null) {
-            cart = createNewCart(userId);
-        }
+        return withConflictRetries(userId, List.of(mapToItem(request)), () -> {
+            Cart cart = cartRepository.findByUserId(userId);
+            if (cart == null) {
+                cart = createNewCart(userId);
+            }
 
-        if (cart.getItems().size() >= maxItemsPerCart) {
-            throw new CartException("Cart has reached maximum capacity");
-        }
+            if (cart.getItems().size() >= maxItemsPerCart) {
+                throw new CartException("Cart has reached maximum capacity");
+            }
 
-        CartItem existingItem = findExistingItem(cart, request);
-        int totalQuantity = calculateTotalQuantity(existingItem, request.getQuantity());
+            CartItem existingItem = findExistingItem(cart, request);
+            int totalQuantity = calculateTotalQuantity(existingItem, request.getQuantity());
 
-        reserveInventory(request, totalQuantity, cart.getId());
+            reserveInventory(request, totalQuantity, cart.getId());
 
-        if (existingItem != null) {
-            existingItem.setQuantity(totalQuantity);
-        } else {
-            addNewItem(cart, request);
-        }
+            CartItem item = existingItem;
+            if (item != null) {
+                item.setQuantity(totalQuantity);
+            } else {
+                item = addNewItem(cart, request);
+            }
 
-        return cartRepository.save(cart);
+            return cartRepository.saveItem(cart, item);
+        });
     }
 
     public Cart updateItemQuantity(String userId, String productId, String variantSku, String size, int newQuantity) {
@@ -67,32 +91,259 @@ public class CartService {
             throw new CartException("Quantity must be greater than 0");
         }
 
+        CartItem line = new CartItem(productId, variantSku, size, null, newQuantity, null, null, null, null, null);
+        return withConflictRetries(userId, List.of(line), () -> {
+            Cart cart = getCart(userId);
+            CartItem item = findCartItem(cart, productId, variantSku, size);
+            handleQuantityChange(cart.getId(), item, newQuantity);
+            item.setQuantity(newQuantity);
+
+            return cartRepository.saveItem(cart, item);
+        });
+    }
+
+    /**
+     * Change the quantities of several lines at once. The reservations are sent in parallel; if any of them
+     * fails, the others are set back to their previous quantities and the cart is left unchanged. Each line may
+     * appear once, since two target quantities for one reservation would race each other.
+     */
+    public Cart updateItemQuantities(String userId, List<CartItem> updates) {
+        Set<String> lines = new HashSet<>();
+        for (CartItem update : updates) {
+            if (update.getQuantity() == null || update.getQuantity() <= 0) {
+                throw new CartException("Quantity must be greater than 0");
+            }
+            if (!lines.add(update.getProductId() + ":" + update.getVariantSku() + ":" + update.getSize())) {
+                throw new CartException("Line " + update.getVariantSku() + " size " + update.getSize() + " is listed more than once");
+            }
+        }
+        return withConflictRetries(userId, updates, () -> applyItemQuantities(getCart(userId), updates));
+    }
+
+    /**
+     * Remove every line of a cart, releasing their reservations in parallel.
+     */
+    public void clearCart(String userId) {
+        withConflictRetries(userId, null, () -> {
+            Cart cart = cartRepository.findByUserId(userId);
+            if (cart == null || cart.getItems().isEmpty()) {
+                return cart;
+            }
+            releaseAll(cart);
+            cart.getItems().clear();
+            return cartRepository.save(cart);
+        });
+    }
+
+    /**
+     * Move the lines of a guest cart into the cart of a signed-in user, adding up the quantities of lines in
+     * both. The merged quantities are reserved for the user's cart first, in parallel, and only the lines that
+     * made it into the user's cart are then released and taken out of the guest cart. Lines that cannot be
+     * reserved or do not fit in the cart stay in the guest cart, with their reservations.
+     */
+    public Cart mergeCart(String userId, String guestUserId) {
         Cart cart = getCart(userId);
-        CartItem item = findCartItem(cart, productId, variantSku, size);
-        handleQuantityChange(cart.getId(), item, newQuantity);
-        item.setQuantity(newQuantity);
+        Cart guestCart = cartRepository.findByUserId(guestUserId);
+        if (guestCart == null || guestCart.getItems().isEmpty() || guestCart.getId().equals(cart.getId())) {
+            return cart;
+        }
 
-        return cartRepository.save(cart);
+        List<CartItem> moved = new ArrayList<>();
+        Cart merged = withConflictRetries(userId, guestCart.getItems(), () -> {
+            moved.clear();
+            return mergeItems(getCart(userId), guestCart.getItems(), moved);
+        });
+        removeMovedLines(guestCart, moved);
+        return merged;
     }
 
     public void removeItem(String userId, String productId, String variantSku, String size) {
-        Cart cart = getCart(userId);
-        CartItem item = findCartItem(cart, productId, variantSku, size);
-        releaseInventory(item, cart.getId());
-        cart.getItems().remove(item);
-        cartRepository.save(cart);
+        // Releases with a cart free all it holds for the line, so the quantity only has to be valid
+        CartItem line = new CartItem(productId, variantSku, size, null, 1, null, null, null, null, null);
+        withConflictRetries(userId, List.of(line), () -> {
+            Cart cart = getCart(userId);
+            CartItem item = findCartItem(cart, productId, variantSku, size);
+            releaseInventory(item, cart.getId());
+            cart.getItems().remove(item);
+            return cartRepository.removeItem(cart, item);
+        });
+    }
+
+    /**
+     * Get the cart of a user for display, from the near-cache when it is enabled. The cart returned may be
+     * shared with other requests and must not be changed.
+     */
+    public Cart viewCart(String userId) {
+        Cart cart = cartCache.get(userId, () -> cartRepository.findByUserId(userId));
+        if (cart == null || cart.getExpiresAt().isBefore(LocalDateTime.now())) {
+            return getCart(userId);
+        }
+        return cart;
     }
 
     public Cart getCart(String userId) {
         Cart cart = cartRepository.findByUserId(userId);
         if (cart != null && cart.getExpiresAt().isBefore(LocalDateTime.now())) {
             log.info("Cart for user {} has expired. Deleting cart.", userId);
+            // Stock the inventory service could not release now is freed when its own reservations expire
+            releaseCarts(List.of(cart));
             cartRepository.delete(userId);
             cart = null;
         }
         return cart != null ? cart : createNewCart(userId);
     }
 
+    /**
+     * Release the stock held by carts that expired by {@code now} and delete them, up to {@code limit} carts.
+     * Each cart is released with one batch call, all carts in parallel. A cart whose stock could not be
+     * released is kept and tried again after {@code cart.expiry.retry.ms}, as is a cart this node claimed but
+     * stopped before handling.
+     *
+     * @return The number of expired carts found, including those handled by other nodes.
+     */
+    public int releaseExpiredCarts(LocalDateTime now, int limit) {
+        List<String> userIds = cartRepository.findExpired(now, limit);
+        LocalDateTime leaseUntil = now.plus(Duration.ofMillis(expiryRetryMs));
+        List<Cart> expired = new ArrayList<>();
+        for (String userId : userIds) {
+            if (!cartRepository.claimExpired(userId, now, leaseUntil)) {
+                continue;
+            }
+            Cart cart = cartRepository.findByUserId(userId);
+            if (cart == null) {
+                cartRepository.dropExpired(userId, leaseUntil);
+                continue;
+            }
+            if (!cart.getExpiresAt().isBefore(now)) {
+                // Written after it was found
+                cartRepository.scheduleExpiry(userId, cart.getExpiresAt());
+                continue;
+            }
+            expired.add(cart);
+        }
+
+        List<Boolean> released = releaseCarts(expired);
+        for (int i = 0; i < expired.size(); i++) {
+            Cart cart = expired.get(i);
+            if (!released.get(i)) {
+                cartRepository.scheduleExpiry(cart.getUserId(), leaseUntil);
+            } else if (!cartRepository.deleteIfUnchanged(cart)) {
+                log.warn("Cart {} was written while it expired, keeping it", cart.getId());
+            }
+        }
+        return userIds.size();
+    }
+
+    private Cart applyItemQuantities(Cart cart, List<CartItem> updates) {
+        List<CartItem> changedItems = new ArrayList<>();
+        List<Integer> newQuantities = new ArrayList<>();
+        for (CartItem update : updates) {
+            CartItem item = findCartItem(cart, update.getProductId(), update.getVariantSku(), update.getSize());
+            if (!update.getQuantity().equals(item.getQuantity())) {
+                changedItems.add(item);
+                newQuantities.add(update.getQuantity());
+            }
+        }
+
+        List<CompletableFuture<ReservationResult>> reservations = new ArrayList<>();
+        for (int i = 0; i < changedItems.size(); i++) {
+            reservations.add(reserveAsync(changedItems.get(i), newQuantities.get(i), cart.getId()));
+        }
+        List<ReservationResult> results = awaitAll(reservations, "reserving");
+
+        String failure = results.stream()
+                .filter(result -> !result.getSuccess())
+                .map(ReservationResult::getMessage)
+                .findFirst()
+                .orElse(null);
+        if (failure != null) {
+            // Reservations are set to a target, so the previous quantity restores the previous hold. Every line
+            // is set back, since a command that timed out may still have been applied.
+            List<CompletableFuture<ReservationResult>> rollbacks = new ArrayList<>();
+            for (CartItem item : changedItems) {
+                rollbacks.add(reserveAsync(item, item.getQuantity(), cart.getId()));
+            }
+            awaitAll(rollbacks, "restoring").stream()
+                    .filter(result -> !result.getSuccess())
+                    .forEach(result -> log.warn("Inventory service did not restore a reservation: {}", result.getMessage()));
+            throw new CartException("Failed to reserve inventory: " + failure);
+        }
+
+        for (int i = 0; i < changedItems.size(); i++) {
+            changedItems.get(i).setQuantity(newQuantities.get(i));
+        }
+        return cartRepository.saveItems(cart, changedItems);
+    }
+
+    /**
+     * Merge {@code guestItems} into {@code cart}, adding the guest lines that made it to {@code moved}.
+     */
+    private Cart mergeItems(Cart cart, List<CartItem> guestItems, List<CartItem> moved) {
+        List<CartItem> mergedItems = new ArrayList<>();
+        List<CartItem> mergedGuestItems = new ArrayList<>();
+        List<Integer> mergedQuantities = new ArrayList<>();
+        List<CompletableFuture<ReservationResult>> reservations = new ArrayList<>();
+        int items = cart.getItems().size();
+        for (CartItem guestItem : guestItems) {
+            CartItem item = findExistingItem(cart, mapToRequest(guestItem));
+            if (item == null && items >= maxItemsPerCart) {
+                log.warn("Cart of user {} is full, leaving out {} from the guest cart", cart.getUserId(), guestItem.getVariantSku());
+                continue;
+            }
+            if (item == null) {
+                items++;
+            }
+            int quantity = calculateTotalQuantity(item, guestItem.getQuantity());
+            mergedItems.add(item != null ? item : guestItem);
+            mergedGuestItems.add(guestItem);
+            mergedQuantities.add(quantity);
+            reservations.add(reserveAsync(guestItem, quantity, cart.getId()));
+        }
+
+        List<ReservationResult> results = awaitAll(reservations, "reserving");
+        for (int i = 0; i < results.size(); i++) {
+            CartItem item = mergedItems.get(i);
+            if (!results.get(i).getSuccess()) {
+                log.warn("Leaving out {} from the guest cart: {}", item.getVariantSku(), results.get(i).getMessage());
+                continue;
+            }
+            if (!cart.getItems().contains(item)) {
+                cart.getItems().add(item);
+            }
+            item.setQuantity(mergedQuantities.get(i));
+            moved.add(mergedGuestItems.get(i));
+        }
+        return cartRepository.save(cart);
+    }
+
+    /**
+     * Release the guest reservations of the lines moved to the user's cart and take them out of the guest
+     * cart, which is deleted once it is empty.
+     */
+    private void removeMovedLines(Cart guestCart, List<CartItem> moved) {
+        if (moved.isEmpty()) {
+            return;
+        }
+        List<CompletableFuture<ReservationResult>> releases = new ArrayList<>();
+        for (CartItem item : moved) {
+            releases.add(releaseAsync(item, guestCart.getId()));
+        }
+        awaitAll(releases, "releasing").stream()
+                .filter(result -> !result.getSuccess())
+                .forEach(result -> log.warn("Inventory service did not release stock: {}", result.getMessage()));
+
+        guestCart.getItems().removeAll(moved);
+        if (guestCart.getItems().isEmpty()) {
+            cartRepository.delete(guestCart.getUserId());
+            return;
+        }
+        try {
+            cartRepository.save(guestCart);
+        } catch (OptimisticLockingFailureException e) {
+            log.warn("Guest cart {} changed while it was merged, keeping it as it is", guestCart.getId());
+        }
+    }
+
     private CartItem findExistingItem(Cart cart, AddItemRequest request) {
         return cart.getItems().stream()
                 .filter(item -> item.getProductId().equals(request.getProduct_id())
@@ -103,51 +354,186 @@ public class CartService {
     }
 
     private void reserveInventory(AddItemRequest request, int quantity, String cartId) {
-        try {
-            ReserveStockResponse response = inventoryStub.reserveStock(
-                    ReserveStockRequest.newBuilder()
-                            .setProductId(request.getProduct_id())
-                            .setVariantSku(request.getVariant_sku())
-                            .setSize(request.getSize())
-                            .setQuantity(quantity)
-                            .setCartId(cartId)
-                            .build()
-            );
+        ReservationResult result = awaitReservation(withRetries(() -> inventoryReservationChannel.reserve(
+                request.getProduct_id(), request.getVariant_sku(), request.getSize(), quantity, cartId), "reserving", 1), "reserving");
 
-            if (!response.getSuccess()) {
-                throw new CartException("Failed to reserve inventory: " + response.getMessage());
-            }
-        } catch (StatusRuntimeException e) {
-            log.error("gRPC error while reserving inventory: {}", e.getStatus().getDescription());
-            throw new CartException("gRPC error: " + e.getStatus().getDescription());
-        } catch (Exception e) {
-            log.error("Error reserving inventory: {}", e.getMessage());
-            throw new CartException("Error reserving inventory");
+        if (!result.getSuccess()) {
+            throw new CartException("Failed to reserve inventory: " + result.getMessage());
         }
     }
 
     private void releaseInventory(CartItem item, String cartId) {
+        ReservationResult result = awaitReservation(releaseAsync(item, cartId), "releasing");
+
+        if (!result.getSuccess()) {
+            log.warn("Inventory service did not release stock: {}", result.getMessage());
+        }
+    }
+
+    private void releaseAll(Cart cart) {
+        List<CompletableFuture<ReservationResult>> releases = new ArrayList<>();
+        for (CartItem item : cart.getItems()) {
+            releases.add(releaseAsync(item, cart.getId()));
+        }
+        awaitAll(releases, "releasing").stream()
+                .filter(result -> !result.getSuccess())
+                .forEach(result -> log.warn("Inventory service did not release stock: {}", result.getMessage()));
+    }
+
+    /**
+     * Release every line of each cart, one batch call per cart, all sent at once.
+     *
+     * @return Whether each cart was released, in the order of the carts.
+     */
+    private List<Boolean> releaseCarts(List<Cart> carts) {
+        List<CompletableFuture<BatchReleaseStockResponse>> releases = new ArrayList<>(carts.size());
+        for (Cart cart : carts) {
+            releases.add(cart.getItems().isEmpty()
+                    ? CompletableFuture.completedFuture(BatchReleaseStockResponse.newBuilder().setSuccess(true).build())
+                    : inventoryReservationChannel.releaseAll(cart.getId(), cart.getItems()));
+        }
+        List<Boolean> released = new ArrayList<>(carts.size());
+        for (int i = 0; i < carts.size(); i++) {
+            boolean success;
+            String message;
+            try {
+                BatchReleaseStockResponse response = releases.get(i).get();
+                success = response.getSuccess();
+                message = response.getMessage();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CartException("Interrupted while releasing inventory");
+            } catch (ExecutionException e) {
+                success = false;
+                message = e.getCause().getMessage();
+            }
+            if (!success) {
+                log.warn("Inventory service did not release the stock of cart {}: {}", carts.get(i).getId(), message);
+            }
+            released.add(success);
+        }
+        return released;
+    }
+
+    private CompletableFuture<ReservationResult> reserveAsync(CartItem item, int quantity, String cartId) {
+        return withRetries(() -> inventoryReservationChannel.reserve(
+                item.getProductId(), item.getVariantSku(), item.getSize(), quantity, cartId), "reserving", 1);
+    }
+
+    private CompletableFuture<ReservationResult> releaseAsync(CartItem item, String cartId) {
+        return withRetries(() -> inventoryReservationChannel.release(
+                item.getProductId(), item.getVariantSku(), item.getSize(), item.getQuantity(), cartId), "releasing", 1);
+    }
+
+    /**
+     * Send a command over the reservation stream, again each time it misses its deadline, up to
+     * {@code cart.inventory.attempts} times. Commands carry the cart ID and the total quantity of the line,
+     * so the inventory service applies them once however often they are sent.
+     */
+    private CompletableFuture<ReservationResult> withRetries(Supplier<CompletableFuture<ReservationResult>> command,
+                                                             String action, int attempt) {
+        return command.get().exceptionallyCompose(e -> {
+            Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof TimeoutException && attempt < inventoryAttempts) {
+                log.warn("Timed out {} inventory, sending the command again", action);
+                return withRetries(command, action, attempt + 1);
+            }
+            return CompletableFuture.failedFuture(cause);
+        });
+    }
+
+    /**
+     * Run a read-modify-write of a cart again, from a fresh read, each time another request wrote the cart in
+     * between, up to {@code cart.update.attempts} times. Reservations are set to the quantity of the line, so
+     * sending them again on a retry holds what the cart ends up with. If every attempt loses, the reservations
+     * of {@code lines}, or of every line when null, are set back to what the stored cart holds.
+     */
+    private Cart withConflictRetries(String userId, List<CartItem> lines, Supplier<Cart> update) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return update.get();
+            } catch (OptimisticLockingFailureException e) {
+                if (attempt >= updateAttempts) {
+                    log.warn("Cart of user {} kept changing, giving up after {} attempts", userId, attempt);
+                    restoreReservations(userId, lines);
+                    throw new CartException("Cart was changed by another request, please try again");
+                }
+                log.debug("Cart of user {} was changed by another request, trying again", userId);
+            }
+        }
+    }
+
+    private void restoreReservations(String userId, List<CartItem> lines) {
+        Cart cart = cartRepository.findByUserId(userId);
+        if (cart == null) {
+            return;
+        }
+        List<CompletableFuture<ReservationResult>> restores = new ArrayList<>();
+        for (CartItem line : lines != null ? lines : cart.getItems()) {
+            CartItem item = cart.getItems().stream()
+                    .filter(stored -> stored.getProductId().equals(line.getProductId())
+                            && stored.getVariantSku().equals(line.getVariantSku())
+                            && stored.getSize().equals(line.getSize()))
+                    .findFirst()
+                    .orElse(null);
+            restores.add(item != null
+                    ? reserveAsync(item, item.getQuantity(), cart.getId())
+                    : releaseAsync(line, cart.getId()));
+        }
+        awaitAll(restores, "restoring").stream()
+                .filter(result -> !result.getSuccess())
+                .forEach(result -> log.warn("Inventory service did not restore a reservation: {}", result.getMessage()));
+    }
+
+    /**
+     * Wait for the result of one command. Every attempt has a deadline, so the wait is bounded.
+     */
+    private ReservationResult awaitReservation(CompletableFuture<ReservationResult> reservation, String action) {
         try {
-            inventoryStub.releaseStock(
-                    ReleaseStockRequest.newBuilder()
-                            .setProductId(item.getProductId())
-                            .setVariantSku(item.getVariantSku())
-                            .setSize(item.getSize())
-                            .setQuantity(item.getQuantity())
-                            .setCartId(cartId)
-                            .build()
-            );
-        } catch (Exception e) {
-            log.error("Failed to release inventory: {}", e.getMessage());
-            throw new CartException("Error releasing inventory");
+            return reservation.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CartException("Interrupted while " + action + " inventory");
+        } catch (ExecutionException e) {
+            throw toCartException(e.getCause(), action);
         }
     }
 
+    /**
+     * Wait for commands sent in parallel, so the wait is as long as the slowest of them. A command that failed
+     * is returned as an unsuccessful result.
+     */
+    private List<ReservationResult> awaitAll(List<CompletableFuture<ReservationResult>> reservations, String action) {
+        List<ReservationResult> results = new ArrayList<>(reservations.size());
+        for (CompletableFuture<ReservationResult> reservation : reservations) {
+            try {
+                results.add(awaitReservation(reservation, action));
+            } catch (CartException e) {
+                results.add(ReservationResult.newBuilder().setSuccess(false).setMessage(e.getMessage()).build());
+            }
+        }
+        return results;
+    }
+
+    private CartException toCartException(Throwable cause, String action) {
+        if (cause instanceof TimeoutException) {
+            log.error("Timed out {} inventory after {} attempts", action, inventoryAttempts);
+            return new CartException("Timed out " + action + " inventory");
+        }
+        if (cause instanceof StatusRuntimeException statusException) {
+            log.error("gRPC error while {} inventory: {}", action, statusException.getStatus().getDescription());
+            return new CartException("gRPC error: " + statusException.getStatus().getDescription());
+        }
+        log.error("Error {} inventory: {}", action, cause.getMessage());
+        return new CartException("Error " + action + " inventory");
+    }
+
+    /**
+     * Reservations of a cart are set to the quantity of the line, so a decrease releases only the difference.
+     */
     private void handleQuantityChange(String cartId, CartItem item, int newQuantity) {
-        if (newQuantity > item.getQuantity()) {
-            reserveInventory(mapToRequest(item), newQuantity - item.getQuantity(), cartId);
-        } else if (newQuantity < item.getQuantity()) {
-            releaseInventory(item, cartId);
+        if (newQuantity != item.getQuantity()) {
+            reserveInventory(mapToRequest(item), newQuantity, cartId);
         }
     }
 
@@ -157,7 +543,16 @@ public class CartService {
         cart.setUserId(userId);
         cart.setCreatedAt(LocalDateTime.now());
         cart.setExpiresAt(LocalDateTime.now().plusDays(15));
-        return cartRepository.save(cart);
+        try {
+            return cartRepository.save(cart);
+        } catch (OptimisticLockingFailureException e) {
+            // Another request created the cart first
+            Cart existing = cartRepository.findByUserId(userId);
+            if (existing == null) {
+                throw e;
+            }
+            return existing;
+        }
     }
 
     private CartItem findCartItem(Cart cart, String productId, String variantSku, String size) {
@@ -178,16 +573,22 @@ public class CartService {
         return request;
     }
 
+    private CartItem mapToItem(AddItemRequest request) {
+        CartItem item = new CartItem();
+        item.setProductId(request.getProduct_id());
+        item.setVariantSku(request.getVariant_sku());
+        item.setSize(request.getSize());
+        item.setQuantity(request.getQuantity());
+        return item;
+    }
+
     private int calculateTotalQuantity(CartItem existingItem, int newQuantity) {
         return (existingItem != null) ? existingItem.getQuantity() + newQuantity : newQuantity;
     }
 
-    private void addNewItem(Cart cart, AddItemRequest request) {
-        CartItem newItem = new CartItem();
-        newItem.setProductId(request.getProduct_id());
-        newItem.setVariantSku(request.getVariant_sku());
-        newItem.setSize(request.getSize());
-        newItem.setQuantity(request.getQuantity());
+    private CartItem addNewItem(Cart cart, AddItemRequest request) {
+        CartItem newItem = mapToItem(request);
         cart.getItems().add(newItem);
+        return newItem;
     }
 }
\ No newline at end of file
@@ -0,0 +1,168 @@
+package com.hypehouse.cart_service.service;
+
+import com.hypehouse.cart_service.exception.CartException;
+import com.hypehouse.cart_service.model.CartItem;
+import com.hypehouse.common.grpc.BatchReleaseStockRequest;
+import com.hypehouse.common.grpc.BatchReleaseStockResponse;
+import com.hypehouse.common.grpc.InventoryServiceGrpc;
+import com.hypehouse.common.grpc.ReservationCommand;
+import com.hypehouse.common.grpc.ReservationResult;
+import com.hypehouse.common.grpc.StockLine;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side of the long-lived reservation stream to the inventory service.
+ * <p>
+ * Reserve and release commands are pipelined over one bidirectional stream and tagged with a
+ * correlation ID; each returned future completes when the matching result arrives. A stream has no
+ * deadline of its own, so every command gets one: its future fails with a TimeoutException after
+ * {@code cart.inventory.timeout.ms}. The stream is opened lazily and reopened on the next command after it fails.
+ * <p>
+ * Releasing whole carts goes through the batch call instead, one request per cart, with the same deadline.
+ */
+@Component
+public class InventoryReservationChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryReservationChannel.class);
+
+    private final InventoryServiceGrpc.InventoryServiceStub inventoryAsyncStub;
+    private final long commandTimeoutMs;
+
+    private ReservationStream currentStream; // guarded by this
+
+    public InventoryReservationChannel(InventoryServiceGrpc.InventoryServiceStub inventoryAsyncStub,
+                                       @Value("${cart.inventory.timeout.ms:3000}") long commandTimeoutMs) {
+        this.inventoryAsyncStub = inventoryAsyncStub;
+        this.commandTimeoutMs = commandTimeoutMs;
+    }
+
+    public CompletableFuture<ReservationResult> reserve(String productId, String variantSku, String size, int quantity, String cartId) {
+        return send(command(ReservationCommand.Type.RESERVE, productId, variantSku, size, quantity, cartId));
+    }
+
+    public CompletableFuture<ReservationResult> release(String productId, String variantSku, String size, int quantity, String cartId) {
+        return send(command(ReservationCommand.Type.RELEASE, productId, variantSku, size, quantity, cartId));
+    }
+
+    /**
+     * Release every line a cart holds in one call.
+     */
+    public CompletableFuture<BatchReleaseStockResponse> releaseAll(String cartId, List<CartItem> items) {
+        BatchReleaseStockRequest.Builder request = BatchReleaseStockRequest.newBuilder().setCartId(cartId);
+        for (CartItem item : items) {
+            request.addLines(StockLine.newBuilder()
+                    .setProductId(item.getProductId())
+                    .setVariantSku(item.getVariantSku())
+                    .setSize(item.getSize())
+                    .setQuantity(item.getQuantity()));
+        }
+        CompletableFuture<BatchReleaseStockResponse> future = new CompletableFuture<>();
+        inventoryAsyncStub.withDeadlineAfter(commandTimeoutMs, TimeUnit.MILLISECONDS)
+                .batchReleaseStock(request.build(), new StreamObserver<>() {
+                    @Override
+                    public void onNext(BatchReleaseStockResponse response) {
+                        future.complete(response);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                    }
+                });
+        return future;
+    }
+
+    private ReservationCommand.Builder command(ReservationCommand.Type type, String productId, String variantSku,
+                                               String size, int quantity, String cartId) {
+        return ReservationCommand.newBuilder()
+                .setType(type)
+                .setProductId(productId)
+                .setVariantSku(variantSku)
+                .setSize(size)
+                .setQuantity(quantity)
+                .setCartId(cartId);
+    }
+
+    private synchronized CompletableFuture<ReservationResult> send(ReservationCommand.Builder command) {
+        String correlationId = UUID.randomUUID().toString();
+        CompletableFuture<ReservationResult> future = new CompletableFuture<>();
+        if (currentStream == null) {
+            currentStream = new ReservationStream();
+        }
+        ReservationStream stream = currentStream;
+        stream.pending.put(correlationId, future);
+        try {
+            // The request StreamObserver is not thread-safe, so sends are serialized by this method
+            stream.requestObserver.onNext(command.setCorrelationId(correlationId).build());
+        } catch (RuntimeException e) {
+            stream.pending.remove(correlationId);
+            future.completeExceptionally(e);
+        }
+        // A result arriving after the deadline finds nothing to complete
+        future.orTimeout(commandTimeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((result, failure) -> stream.pending.remove(correlationId));
+        return future;
+    }
+
+    private synchronized void closed(ReservationStream stream) {
+        if (currentStream == stream) {
+            currentStream = null;
+        }
+    }
+
+    /**
+     * One open stream and the commands still waiting for a result on it.
+     */
+    private class ReservationStream implements StreamObserver<ReservationResult> {
+
+        private final Map<String, CompletableFuture<ReservationResult>> pending = new ConcurrentHashMap<>();
+        private final StreamObserver<ReservationCommand> requestObserver;
+
+        ReservationStream() {
+            log.info("Opening reservation stream to inventory service");
+            this.requestObserver = inventoryAsyncStub.streamReservations(this);
+        }
+
+        @Override
+        public void onNext(ReservationResult result) {
+            CompletableFuture<ReservationResult> future = pending.remove(result.getCorrelationId());
+            if (future != null) {
+                future.complete(result);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.error("Reservation stream failed: {}", t.getMessage());
+            closed(this);
+            failPending(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            log.info("Reservation stream closed by inventory service");
+            closed(this);
+            failPending(new CartException("Reservation stream closed by inventory service"));
+        }
+
+        private void failPending(Throwable cause) {
+            pending.forEach((correlationId, future) -> future.completeExceptionally(cause));
+            pending.clear();
+        }
+    }
+}
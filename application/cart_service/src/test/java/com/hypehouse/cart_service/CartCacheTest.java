@@ -0,0 +1,131 @@
+package com.hypehouse.cart_service;
+
+import com.hypehouse.cart_service.cache.CartCache;
+import com.hypehouse.cart_service.cache.CartChangeListener;
+import com.hypehouse.cart_service.model.Cart;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class CartCacheTest {
+
+    private RedisTemplate<String, Object> redisTemplate;
+    private CartCache cartCache;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(RedisTemplate.class);
+        cartCache = new CartCache(redisTemplate, true, 100, Duration.ofMinutes(5), "cart:changed");
+    }
+
+    @Test
+    void servesARepeatedReadFromMemory() {
+        AtomicInteger loads = new AtomicInteger();
+
+        Cart first = cartCache.get("user-1", () -> load(loads));
+        Cart second = cartCache.get("user-1", () -> load(loads));
+
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void dropsAChangedCartAndTellsTheOtherNodes() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        cartCache.get("user-1", () -> load(loads));
+
+        cartCache.changed("user-1");
+        cartCache.get("user-1", () -> load(loads));
+
+        assertEquals(2, loads.get());
+        ArgumentCaptor<RedisCallback<Long>> publish = ArgumentCaptor.forClass(RedisCallback.class);
+        verify(redisTemplate).execute(publish.capture());
+        RedisConnection connection = mock(RedisConnection.class);
+        publish.getValue().doInRedis(connection);
+        verify(connection).publish("cart:changed".getBytes(StandardCharsets.UTF_8), "user-1".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void discardsALoadThatOverlapsAChange() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch finishLoad = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Thread reader = new Thread(() -> cartCache.get("user-1", () -> {
+            loading.countDown();
+            await(finishLoad);
+            // Read before the write that is being dropped
+            return load(loads);
+        }));
+        reader.start();
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+        Thread writer = new Thread(() -> cartCache.changed("user-1"));
+        writer.start();
+        // Let the drop reach the entry being loaded before the load finishes
+        waitUntilBlocked(writer);
+        finishLoad.countDown();
+        reader.join(5000);
+        writer.join(5000);
+
+        cartCache.get("user-1", () -> load(loads));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void dropsACartChangedOnAnotherNode() {
+        AtomicInteger loads = new AtomicInteger();
+        cartCache.get("user-1", () -> load(loads));
+
+        new CartChangeListener(cartCache).onMessage(new DefaultMessage(
+                "cart:changed".getBytes(StandardCharsets.UTF_8), "user-1".getBytes(StandardCharsets.UTF_8)), null);
+        cartCache.get("user-1", () -> load(loads));
+
+        assertEquals(2, loads.get());
+        verify(redisTemplate, never()).execute(any(RedisCallback.class));
+    }
+
+    private static Cart load(AtomicInteger loads) {
+        loads.incrementAndGet();
+        Cart cart = new Cart();
+        cart.setUserId("user-1");
+        return cart;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() == Thread.State.RUNNABLE || thread.getState() == Thread.State.NEW) {
+            if (System.nanoTime() > deadline) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+    }
+}
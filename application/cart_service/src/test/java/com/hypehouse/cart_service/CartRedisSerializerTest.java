@@ -0,0 +1,119 @@
+package com.hypehouse.cart_service;
+
+import com.hypehouse.cart_service.model.Cart;
+import com.hypehouse.cart_service.model.CartItem;
+import com.hypehouse.cart_service.serializer.CartRedisSerializer;
+import com.hypehouse.common.cache.RedisConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CartRedisSerializerTest {
+
+    @SuppressWarnings("unchecked")
+    private final RedisSerializer<Object> json = (RedisSerializer<Object>) new RedisConfig()
+            .redisTemplate(new LettuceConnectionFactory()).getValueSerializer();
+    private final CartRedisSerializer binary = new CartRedisSerializer(json, true);
+
+    @Test
+    void readsBackABinaryCart() {
+        Cart cart = cart();
+
+        byte[] bytes = binary.serialize(cart);
+
+        assertEquals((byte) 0xCA, bytes[0]);
+        assertEquals(cart, binary.deserialize(bytes));
+    }
+
+    @Test
+    void keepsNullsNegativeNumbersAndEmptyLines() {
+        Cart cart = new Cart();
+        cart.setVersion(-3L);
+        cart.setItems(new ArrayList<>());
+        CartItem item = new CartItem("product-1", null, "", null, -2, null, null, null, null, null);
+
+        assertEquals(cart, binary.deserialize(binary.serialize(cart)));
+        assertEquals(item, binary.deserialize(binary.serialize(item)));
+    }
+
+    @Test
+    void readsCartsWrittenAsJson() {
+        Cart cart = cart();
+
+        assertEquals(cart, binary.deserialize(json.serialize(cart)));
+        assertEquals(cart.getItems().get(0), binary.deserialize(json.serialize(cart.getItems().get(0))));
+    }
+
+    @Test
+    void writesJsonUntilBinaryIsTurnedOn() {
+        CartRedisSerializer reader = new CartRedisSerializer(json, false);
+        Cart cart = cart();
+
+        byte[] bytes = reader.serialize(cart);
+
+        assertNotEquals((byte) 0xCA, bytes[0]);
+        assertEquals(cart, json.deserialize(bytes));
+        assertEquals(cart, reader.deserialize(binary.serialize(cart)));
+    }
+
+    @Test
+    void writesOtherValuesWithTheFallback() {
+        assertTrue(Arrays.equals(json.serialize("user-1"), binary.serialize("user-1")));
+        assertEquals("user-1", binary.deserialize(binary.serialize("user-1")));
+    }
+
+    @Test
+    void rejectsAValueCutShort() {
+        byte[] bytes = binary.serialize(cart());
+
+        SerializationException e = assertThrows(SerializationException.class,
+                () -> binary.deserialize(Arrays.copyOf(bytes, bytes.length - 3)));
+
+        assertEquals("Cart value cut short", e.getMessage());
+    }
+
+    @Test
+    void rejectsALineCountTheValueCannotHold() {
+        // An empty cart, then 2^31 lines
+        byte[] bytes = {(byte) 0xCA, 1, 1, 0, 0, 0, 0, 0, 0, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08};
+
+        SerializationException e = assertThrows(SerializationException.class, () -> binary.deserialize(bytes));
+
+        assertEquals("Cart value holds a wrong line count 2147483648", e.getMessage());
+    }
+
+    @Test
+    void rejectsAnUnknownSchemaVersion() {
+        byte[] bytes = binary.serialize(cart());
+        bytes[1] = 2;
+
+        SerializationException e = assertThrows(SerializationException.class, () -> binary.deserialize(bytes));
+
+        assertEquals("Cart written with unknown schema version 2", e.getMessage());
+    }
+
+    private static Cart cart() {
+        Cart cart = new Cart();
+        cart.setId("cart-user-1");
+        cart.setUserId("user-1");
+        cart.setCreatedAt(LocalDateTime.of(2026, 1, 1, 12, 0, 5));
+        cart.setUpdatedAt(LocalDateTime.of(2026, 1, 2, 8, 30));
+        cart.setExpiresAt(LocalDateTime.of(2026, 1, 17, 8, 30));
+        cart.setVersion(7L);
+        cart.setItems(new ArrayList<>(List.of(
+                new CartItem("product-1", "SKU-1", "M", "Black", 2, null, null, null, null, null),
+                new CartItem("product-2", "SKU-ü", "XL", "White", 300, null, null, null, null, null))));
+        return cart;
+    }
+}
@@ -0,0 +1,433 @@
+package com.hypehouse.cart_service;
+
+import com.hypehouse.cart_service.cache.CartCache;
+import com.hypehouse.cart_service.model.Cart;
+import com.hypehouse.cart_service.model.CartItem;
+import com.hypehouse.cart_service.repository.CartRepository;
+import com.hypehouse.common.cache.RedisConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CartRepositoryTest {
+
+    private FakeRedis redis;
+    private RedisConnectionFactory connectionFactory;
+
+    @BeforeEach
+    void setUp() {
+        redis = new FakeRedis();
+        connectionFactory = mock(RedisConnectionFactory.class);
+        when(connectionFactory.getConnection()).thenAnswer(invocation -> redis.connection());
+    }
+
+    @Test
+    void readsBackACartStoredAsAHash() {
+        CartRepository repository = repository("hash");
+        Cart cart = newCart(line("SKU-1", 1), line("SKU-2", 2));
+
+        repository.save(cart);
+        Cart stored = repository.findByUserId("user-1");
+
+        assertEquals(DataType.HASH, redis.type("cart:user-1"));
+        assertEquals(Set.of("version", "meta", "product-1:SKU-1:M", "product-1:SKU-2:M"), redis.fields("cart:user-1"));
+        assertEquals(1L, stored.getVersion());
+        assertEquals(List.of("SKU-1", "SKU-2"), stored.getItems().stream().map(CartItem::getVariantSku).toList());
+        assertEquals(2, stored.getItems().get(1).getQuantity());
+    }
+
+    @Test
+    void writesOnlyTheLinesThatChanged() {
+        CartRepository repository = repository("hash");
+        repository.save(newCart(line("SKU-1", 1), line("SKU-2", 2)));
+
+        Cart cart = repository.findByUserId("user-1");
+        cart.getItems().get(0).setQuantity(5);
+        repository.saveItem(cart, cart.getItems().get(0));
+        cart = repository.findByUserId("user-1");
+        CartItem removed = cart.getItems().remove(1);
+        repository.removeItem(cart, removed);
+
+        Cart stored = repository.findByUserId("user-1");
+        assertEquals(3L, stored.getVersion());
+        assertEquals(1, stored.getItems().size());
+        assertEquals(5, stored.getItems().get(0).getQuantity());
+    }
+
+    @Test
+    void convertsACartStoredAsOneValue() {
+        repository("value").save(newCart(line("SKU-1", 1), line("SKU-2", 2)));
+        assertEquals(DataType.STRING, redis.type("cart:user-1"));
+
+        Cart converted = repository("hash").findByUserId("user-1");
+
+        assertEquals(DataType.HASH, redis.type("cart:user-1"));
+        assertEquals(1L, converted.getVersion());
+        assertEquals(2, converted.getItems().size());
+        Cart stored = repository("hash").findByUserId("user-1");
+        assertEquals(List.of("SKU-1", "SKU-2"), stored.getItems().stream().map(CartItem::getVariantSku).toList());
+    }
+
+    @Test
+    void writesALineInOneRoundTrip() {
+        CartRepository repository = repository("hash");
+        repository.save(newCart(line("SKU-1", 1), line("SKU-2", 2)));
+        Cart cart = repository.findByUserId("user-1");
+        redis.takeCommands();
+
+        cart.getItems().get(1).setQuantity(4);
+        repository.saveItem(cart, cart.getItems().get(1));
+
+        assertEquals(List.of("evalSha"), redis.takeCommands());
+        assertEquals(Set.of("version", "meta", "product-1:SKU-1:M", "product-1:SKU-2:M"), redis.fields("cart:user-1"));
+    }
+
+    @Test
+    void rejectsAWriteBasedOnAnOlderRead() {
+        CartRepository repository = repository("hash");
+        repository.save(newCart(line("SKU-1", 1)));
+        Cart first = repository.findByUserId("user-1");
+        Cart second = repository.findByUserId("user-1");
+
+        first.getItems().get(0).setQuantity(2);
+        repository.saveItem(first, first.getItems().get(0));
+        second.getItems().get(0).setQuantity(3);
+
+        assertThrows(OptimisticLockingFailureException.class,
+                () -> repository.saveItem(second, second.getItems().get(0)));
+        assertThrows(OptimisticLockingFailureException.class, () -> repository.removeItem(second, second.getItems().get(0)));
+        assertEquals(1L, second.getVersion());
+        assertEquals(2, repository.findByUserId("user-1").getItems().get(0).getQuantity());
+    }
+
+    @Test
+    void rejectsAStaleWriteOfAWholeCart() {
+        CartRepository repository = repository("value");
+        repository.save(newCart(line("SKU-1", 1)));
+        Cart first = repository.findByUserId("user-1");
+        Cart second = repository.findByUserId("user-1");
+
+        repository.save(first);
+
+        assertThrows(OptimisticLockingFailureException.class, () -> repository.save(second));
+        assertEquals(2L, repository.findByUserId("user-1").getVersion());
+    }
+
+    @Test
+    void deletesACartOnlyIfUnchanged() {
+        CartRepository repository = repository("hash");
+        repository.save(newCart(line("SKU-1", 1)));
+        Cart stale = repository.findByUserId("user-1");
+        repository.save(repository.findByUserId("user-1"));
+        assertEquals(List.of("user-1"), repository.findExpired(LocalDateTime.now().plusDays(16), 10));
+
+        assertFalse(repository.deleteIfUnchanged(stale));
+        assertTrue(repository.deleteIfUnchanged(repository.findByUserId("user-1")));
+
+        assertNull(repository.findByUserId("user-1"));
+        assertTrue(repository.findExpired(LocalDateTime.now().plusDays(16), 10).isEmpty());
+    }
+
+    private CartRepository repository(String storageMode) {
+        CartRepository repository = new CartRepository(new RedisConfig().redisTemplate(connectionFactory),
+                mock(CartCache.class), "json");
+        ReflectionTestUtils.setField(repository, "cartKeyPrefix", "cart:");
+        ReflectionTestUtils.setField(repository, "storageMode", storageMode);
+        ReflectionTestUtils.setField(repository, "expiryIndexKey", "cart-expiry");
+        ReflectionTestUtils.setField(repository, "expiryGrace", Duration.ofHours(1));
+        return repository;
+    }
+
+    private static Cart newCart(CartItem... items) {
+        Cart cart = new Cart();
+        cart.setId("cart-user-1");
+        cart.setUserId("user-1");
+        cart.setCreatedAt(LocalDateTime.now().withNano(0));
+        cart.setItems(new ArrayList<>(List.of(items)));
+        return cart;
+    }
+
+    private static CartItem line(String variantSku, int quantity) {
+        return new CartItem("product-1", variantSku, "M", "Black", quantity, null, null, null, null, null);
+    }
+
+    /**
+     * Just enough of Redis, in memory, for the commands the repository sends. Commands queued in a transaction
+     * are applied at once, which is the same as long as only one connection writes. There is no Lua here, so
+     * the scripts of the repository run as Java equivalents, found by their SHA.
+     */
+    private static class FakeRedis {
+
+        private final Map<String, Object> data = new LinkedHashMap<>();
+        private final Map<String, Function<List<byte[]>, Long>> scripts = new HashMap<>();
+        private final List<String> commands = new ArrayList<>();
+
+        FakeRedis() {
+            scripts.put(shaOf("WRITE_HASH_IF_UNCHANGED"), this::writeHashIfUnchanged);
+            scripts.put(shaOf("DELETE_HASH_IF_UNCHANGED"), this::deleteHashIfUnchanged);
+        }
+
+        RedisConnection connection() {
+            List<Object> queued = new ArrayList<>();
+            boolean[] inTransaction = {false};
+            return (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{RedisConnection.class}, (proxy, method, args) -> {
+                        String name = method.getName();
+                        if (name.endsWith("Commands")) {
+                            return proxy;
+                        }
+                        if (!name.startsWith("is") && !name.equals("close")) {
+                            commands.add(name);
+                        }
+                        switch (name) {
+                            case "multi" -> {
+                                inTransaction[0] = true;
+                                return null;
+                            }
+                            case "exec" -> {
+                                inTransaction[0] = false;
+                                List<Object> results = new ArrayList<>(queued);
+                                queued.clear();
+                                return results;
+                            }
+                            case "watch", "unwatch", "discard", "close", "select" -> {
+                                return null;
+                            }
+                            case "isQueueing" -> {
+                                return inTransaction[0];
+                            }
+                            case "isPipelined", "isClosed" -> {
+                                return false;
+                            }
+                            case "hashCode" -> {
+                                return System.identityHashCode(proxy);
+                            }
+                            case "equals" -> {
+                                return proxy == args[0];
+                            }
+                            case "toString" -> {
+                                return "FakeRedisConnection";
+                            }
+                            default -> {
+                                Object result = apply(name, args);
+                                if (inTransaction[0]) {
+                                    queued.add(result);
+                                    return null;
+                                }
+                                return result;
+                            }
+                        }
+                    });
+        }
+
+        DataType type(String key) {
+            Object value = data.get(key);
+            if (value == null) {
+                return DataType.NONE;
+            }
+            return value instanceof byte[] ? DataType.STRING : value instanceof Hash ? DataType.HASH : DataType.ZSET;
+        }
+
+        Set<String> fields(String key) {
+            return ((Hash) data.get(key)).keySet();
+        }
+
+        /**
+         * The commands sent since the last call, including those of transactions.
+         */
+        List<String> takeCommands() {
+            List<String> sent = new ArrayList<>(commands);
+            commands.clear();
+            return sent;
+        }
+
+        private static String shaOf(String script) {
+            return ((RedisScript<?>) ReflectionTestUtils.getField(CartRepository.class, script)).getSha1();
+        }
+
+        // KEYS: the cart, the expiry index. ARGV: the expected version, the TTL, the expiry score and member,
+        // 1 to replace every field, the number of fields to delete, those fields, then field and value pairs
+        private long writeHashIfUnchanged(List<byte[]> keysAndArgs) {
+            String key = text(keysAndArgs.get(0));
+            long version = versionOf(key);
+            if (version != Long.parseLong(text(keysAndArgs.get(2)))) {
+                return 0;
+            }
+            if (text(keysAndArgs.get(6)).equals("1")) {
+                data.remove(key);
+            }
+            Hash hash = hash(key, true);
+            int deletes = Integer.parseInt(text(keysAndArgs.get(7)));
+            for (int i = 8; i < 8 + deletes; i++) {
+                hash.remove(text(keysAndArgs.get(i)));
+            }
+            for (int i = 8 + deletes; i < keysAndArgs.size(); i += 2) {
+                hash.put(text(keysAndArgs.get(i)), keysAndArgs.get(i + 1));
+            }
+            hash.put("version", bytes(Long.toString(version + 1)));
+            sortedSet(text(keysAndArgs.get(1))).put(text(keysAndArgs.get(5)), Double.parseDouble(text(keysAndArgs.get(4))));
+            return 1;
+        }
+
+        // KEYS: the cart, the expiry index. ARGV: the expected version, the expiry member
+        private long deleteHashIfUnchanged(List<byte[]> keysAndArgs) {
+            String key = text(keysAndArgs.get(0));
+            if (versionOf(key) != Long.parseLong(text(keysAndArgs.get(2)))) {
+                return 0;
+            }
+            data.remove(key);
+            sortedSet(text(keysAndArgs.get(1))).remove(text(keysAndArgs.get(3)));
+            return 1;
+        }
+
+        private long versionOf(String key) {
+            byte[] version = hash(key, false).get("version");
+            return version == null ? 0 : Long.parseLong(text(version));
+        }
+
+        private Object apply(String name, Object[] args) {
+            String key = args != null && args.length > 0 && args[0] instanceof byte[] bytes ? text(bytes) : null;
+            switch (name) {
+                case "get" -> {
+                    return data.get(key) instanceof byte[] value ? value : null;
+                }
+                case "set" -> {
+                    data.put(key, args[1]);
+                    return true;
+                }
+                case "setEx", "pSetEx" -> {
+                    data.put(key, args[2]);
+                    return true;
+                }
+                case "del" -> {
+                    long deleted = 0;
+                    for (Object each : (Object[]) args[0]) {
+                        deleted += data.remove(text((byte[]) each)) != null ? 1 : 0;
+                    }
+                    return deleted;
+                }
+                case "type" -> {
+                    return type(key);
+                }
+                case "expire", "pExpire" -> {
+                    return data.containsKey(key);
+                }
+                case "hGetAll" -> {
+                    Map<byte[], byte[]> entries = new LinkedHashMap<>();
+                    hash(key, false).forEach((field, value) -> entries.put(bytes(field), value));
+                    return entries;
+                }
+                case "hGet" -> {
+                    return hash(key, false).get(text((byte[]) args[1]));
+                }
+                case "hSet" -> {
+                    return hash(key).put(text((byte[]) args[1]), (byte[]) args[2]) == null;
+                }
+                case "hMSet" -> {
+                    Hash hash = hash(key);
+                    ((Map<?, ?>) args[1]).forEach((field, value) -> hash.put(text((byte[]) field), (byte[]) value));
+                    return null;
+                }
+                case "hDel" -> {
+                    Hash hash = hash(key);
+                    long deleted = 0;
+                    for (byte[] field : (byte[][]) args[1]) {
+                        deleted += hash.remove(text(field)) != null ? 1 : 0;
+                    }
+                    return deleted;
+                }
+                case "zAdd" -> {
+                    return sortedSet(key).put(text((byte[]) args[2]), (Double) args[1]) == null;
+                }
+                case "zRem" -> {
+                    SortedSet sortedSet = sortedSet(key);
+                    long removed = 0;
+                    for (byte[] member : (byte[][]) args[1]) {
+                        removed += sortedSet.remove(text(member)) != null ? 1 : 0;
+                    }
+                    return removed;
+                }
+                case "zRangeByScore" -> {
+                    double max = args[1] instanceof Range<?> range
+                            ? ((Number) range.getUpperBound().getValue().orElseThrow()).doubleValue()
+                            : (Double) args[2];
+                    Set<byte[]> members = new LinkedHashSet<>();
+                    sortedSet(key).entrySet().stream()
+                            .filter(entry -> entry.getValue() <= max)
+                            .sorted(Map.Entry.comparingByValue())
+                            .forEach(entry -> members.add(bytes(entry.getKey())));
+                    return members;
+                }
+                case "evalSha" -> {
+                    Function<List<byte[]>, Long> script = scripts.get((String) args[0]);
+                    if (script == null) {
+                        throw new UnsupportedOperationException("FakeRedis does not know script " + args[0]);
+                    }
+                    return script.apply(List.of((byte[][]) args[3]));
+                }
+                default -> throw new UnsupportedOperationException("FakeRedis does not support " + name);
+            }
+        }
+
+        private Hash hash(String key) {
+            return hash(key, true);
+        }
+
+        /**
+         * Hashes that are not written to are not kept, as in Redis, where an empty hash does not exist.
+         */
+        private Hash hash(String key, boolean write) {
+            Object value = write ? data.computeIfAbsent(key, missing -> new Hash()) : data.getOrDefault(key, new Hash());
+            if (!(value instanceof Hash hash)) {
+                throw new RedisSystemException("WRONGTYPE Operation against a key holding the wrong kind of value", null);
+            }
+            return hash;
+        }
+
+        private SortedSet sortedSet(String key) {
+            return (SortedSet) data.computeIfAbsent(key, missing -> new SortedSet());
+        }
+
+        private static String text(byte[] bytes) {
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+
+        private static byte[] bytes(String text) {
+            return text.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        private static class Hash extends LinkedHashMap<String, byte[]> {
+        }
+
+        private static class SortedSet extends LinkedHashMap<String, Double> {
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.hypehouse.cart_service;
+
+import com.hypehouse.cart_service.cache.CartCache;
+import com.hypehouse.cart_service.exception.CartException;
+import com.hypehouse.cart_service.model.Cart;
+import com.hypehouse.cart_service.model.CartItem;
+import com.hypehouse.cart_service.repository.CartRepository;
+import com.hypehouse.cart_service.service.CartService;
+import com.hypehouse.cart_service.service.InventoryReservationChannel;
+import com.hypehouse.common.grpc.BatchReleaseStockResponse;
+import com.hypehouse.common.grpc.ReservationResult;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CartServiceTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 1, 1, 12, 0);
+    private static final LocalDateTime LEASE_UNTIL = NOW.plusSeconds(60);
+
+    private CartRepository cartRepository;
+    private InventoryReservationChannel inventoryReservationChannel;
+    private CartService cartService;
+
+    @BeforeEach
+    void setUp() {
+        cartRepository = mock(CartRepository.class);
+        inventoryReservationChannel = mock(InventoryReservationChannel.class);
+        cartService = new CartService(cartRepository, inventoryReservationChannel, mock(CartCache.class));
+        ReflectionTestUtils.setField(cartService, "maxItemsPerCart", 10);
+        ReflectionTestUtils.setField(cartService, "inventoryAttempts", 3);
+        ReflectionTestUtils.setField(cartService, "updateAttempts", 3);
+        ReflectionTestUtils.setField(cartService, "expiryRetryMs", 60000L);
+
+        when(inventoryReservationChannel.reserve(anyString(), anyString(), anyString(), anyInt(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(ReservationResult.newBuilder().setSuccess(true).build()));
+    }
+
+    @Test
+    void reservesEveryChangedLineOfAMultiLineUpdate() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLines(LocalDateTime.now().plusDays(1), 1, 2));
+        when(cartRepository.saveItems(any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Cart cart = cartService.updateItemQuantities("user-1", List.of(update("SKU-1", 3), update("SKU-2", 2)));
+
+        assertEquals(List.of(3, 2), cart.getItems().stream().map(CartItem::getQuantity).toList());
+        verify(inventoryReservationChannel).reserve("product-1", "SKU-1", "M", 3, "cart-user-1");
+        // Unchanged, so not sent
+        verify(inventoryReservationChannel, never()).reserve("product-1", "SKU-2", "M", 2, "cart-user-1");
+        verify(cartRepository).saveItems(any(), eq(List.of(cart.getItems().get(0))));
+    }
+
+    @Test
+    void setsBackEveryLineWhenOneReservationFails() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLines(LocalDateTime.now().plusDays(1), 1, 2, 3));
+        when(inventoryReservationChannel.reserve("product-1", "SKU-2", "M", 5, "cart-user-1"))
+                .thenReturn(CompletableFuture.failedFuture(new TimeoutException()));
+        when(inventoryReservationChannel.reserve("product-1", "SKU-3", "M", 6, "cart-user-1"))
+                .thenReturn(CompletableFuture.completedFuture(ReservationResult.newBuilder().setSuccess(false).setMessage("Not enough stock").build()));
+
+        assertThrows(CartException.class, () -> cartService.updateItemQuantities("user-1",
+                List.of(update("SKU-1", 4), update("SKU-2", 5), update("SKU-3", 6))));
+
+        // The line that timed out may have been applied, so it is set back as well
+        verify(inventoryReservationChannel).reserve("product-1", "SKU-1", "M", 1, "cart-user-1");
+        verify(inventoryReservationChannel).reserve("product-1", "SKU-2", "M", 2, "cart-user-1");
+        verify(inventoryReservationChannel).reserve("product-1", "SKU-3", "M", 3, "cart-user-1");
+        verify(cartRepository, never()).saveItems(any(), any());
+    }
+
+    @Test
+    void rejectsALineListedTwice() {
+        CartException e = assertThrows(CartException.class, () -> cartService.updateItemQuantities("user-1",
+                List.of(update("SKU-1", 2), update("SKU-1", 3))));
+
+        assertEquals("Line SKU-1 size M is listed more than once", e.getMessage());
+        verify(inventoryReservationChannel, never()).reserve(anyString(), anyString(), anyString(), anyInt(), anyString());
+    }
+
+    @Test
+    void clearsACartAndReleasesEveryLine() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLines(LocalDateTime.now().plusDays(1), 1, 2));
+        when(inventoryReservationChannel.release(anyString(), anyString(), anyString(), anyInt(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(ReservationResult.newBuilder().setSuccess(true).build()));
+
+        cartService.clearCart("user-1");
+
+        verify(inventoryReservationChannel).release("product-1", "SKU-1", "M", 1, "cart-user-1");
+        verify(inventoryReservationChannel).release("product-1", "SKU-2", "M", 2, "cart-user-1");
+        verify(cartRepository).save(argThat(cart -> cart.getItems().isEmpty()));
+    }
+
+    @Test
+    void reservesGuestLinesForTheUserBeforeReleasingThem() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLines(LocalDateTime.now().plusDays(1), 1));
+        when(cartRepository.findByUserId("guest-1")).thenReturn(guestCart(2, 3));
+        when(cartRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(inventoryReservationChannel.release(anyString(), anyString(), anyString(), anyInt(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(ReservationResult.newBuilder().setSuccess(true).build()));
+
+        Cart cart = cartService.mergeCart("user-1", "guest-1");
+
+        assertEquals(List.of(3, 3), cart.getItems().stream().map(CartItem::getQuantity).toList());
+        InOrder order = inOrder(inventoryReservationChannel, cartRepository);
+        order.verify(inventoryReservationChannel).reserve("product-1", "SKU-1", "M", 3, "cart-user-1");
+        order.verify(cartRepository).save(cart);
+        order.verify(inventoryReservationChannel).release("product-1", "SKU-1", "M", 2, "cart-guest-1");
+        order.verify(cartRepository).delete("guest-1");
+    }
+
+    @Test
+    void keepsGuestLinesThatCouldNotBeReserved() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLines(LocalDateTime.now().plusDays(1), 1));
+        Cart guestCart = guestCart(2, 3);
+        when(cartRepository.findByUserId("guest-1")).thenReturn(guestCart);
+        when(cartRepository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(inventoryReservationChannel.reserve("product-1", "SKU-2", "M", 3, "cart-user-1"))
+                .thenReturn(CompletableFuture.completedFuture(ReservationResult.newBuilder().setSuccess(false).setMessage("Not enough stock").build()));
+        when(inventoryReservationChannel.release(anyString(), anyString(), anyString(), anyInt(), anyString()))
+                .thenReturn(CompletableFuture.completedFuture(ReservationResult.newBuilder().setSuccess(true).build()));
+
+        Cart cart = cartService.mergeCart("user-1", "guest-1");
+
+        assertEquals(List.of("SKU-1"), cart.getItems().stream().map(CartItem::getVariantSku).toList());
+        verify(inventoryReservationChannel, never()).release("product-1", "SKU-2", "M", 3, "cart-guest-1");
+        verify(cartRepository).save(guestCart);
+        assertEquals(List.of("SKU-2"), guestCart.getItems().stream().map(CartItem::getVariantSku).toList());
+        verify(cartRepository, never()).delete("guest-1");
+    }
+
+    @Test
+    void leavesTheGuestCartAloneWhenTheMergeKeepsLosing() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLines(LocalDateTime.now().plusDays(1), 1));
+        when(cartRepository.findByUserId("guest-1")).thenReturn(guestCart(2));
+        when(cartRepository.save(any())).thenThrow(new OptimisticLockingFailureException("changed"));
+
+        assertThrows(CartException.class, () -> cartService.mergeCart("user-1", "guest-1"));
+
+        verify(inventoryReservationChannel, never()).release(anyString(), anyString(), anyString(), anyInt(), eq("cart-guest-1"));
+        verify(cartRepository, never()).delete("guest-1");
+    }
+
+    @Test
+    void retriesAWriteThatLostToAnotherRequest() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLine(1, LocalDateTime.now().plusDays(1)));
+        when(cartRepository.saveItem(any(), any()))
+                .thenThrow(new OptimisticLockingFailureException("changed"))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+
+        Cart cart = cartService.updateItemQuantity("user-1", "product-1", "SKU-1", "M", 3);
+
+        assertEquals(3, cart.getItems().get(0).getQuantity());
+        verify(cartRepository, times(2)).saveItem(any(), any());
+        verify(inventoryReservationChannel, times(2)).reserve("product-1", "SKU-1", "M", 3, "cart-user-1");
+    }
+
+    @Test
+    void restoresTheReservationWhenEveryAttemptLoses() {
+        when(cartRepository.findByUserId("user-1")).thenAnswer(invocation -> cartWithLine(1, LocalDateTime.now().plusDays(1)));
+        when(cartRepository.saveItem(any(), any())).thenThrow(new OptimisticLockingFailureException("changed"));
+
+        CartException e = assertThrows(CartException.class,
+                () -> cartService.updateItemQuantity("user-1", "product-1", "SKU-1", "M", 3));
+
+        assertEquals("Cart was changed by another request, please try again", e.getMessage());
+        verify(cartRepository, times(3)).saveItem(any(), any());
+        // Set back to the quantity the stored cart holds
+        verify(inventoryReservationChannel).reserve("product-1", "SKU-1", "M", 1, "cart-user-1");
+    }
+
+    @Test
+    void releasesAndDeletesAClaimedExpiredCart() {
+        Cart cart = cartWithLine(2, NOW.minusMinutes(1));
+        when(cartRepository.findExpired(NOW, 10)).thenReturn(List.of("user-1"));
+        when(cartRepository.claimExpired("user-1", NOW, LEASE_UNTIL)).thenReturn(true);
+        when(cartRepository.findByUserId("user-1")).thenReturn(cart);
+        when(inventoryReservationChannel.releaseAll(eq("cart-user-1"), any())).thenReturn(released(true));
+        when(cartRepository.deleteIfUnchanged(cart)).thenReturn(true);
+
+        assertEquals(1, cartService.releaseExpiredCarts(NOW, 10));
+
+        verify(inventoryReservationChannel).releaseAll("cart-user-1", cart.getItems());
+        verify(cartRepository).deleteIfUnchanged(cart);
+        verify(cartRepository, never()).scheduleExpiry(anyString(), any());
+    }
+
+    @Test
+    void leavesACartClaimedByAnotherNode() {
+        when(cartRepository.findExpired(NOW, 10)).thenReturn(List.of("user-1"));
+        when(cartRepository.claimExpired("user-1", NOW, LEASE_UNTIL)).thenReturn(false);
+
+        assertEquals(1, cartService.releaseExpiredCarts(NOW, 10));
+
+        verify(cartRepository, never()).findByUserId(anyString());
+        verify(inventoryReservationChannel, never()).releaseAll(anyString(), any());
+    }
+
+    @Test
+    void triesAgainAfterTheLeaseWhenTheStockIsNotReleased() {
+        Cart cart = cartWithLine(2, NOW.minusMinutes(1));
+        when(cartRepository.findExpired(NOW, 10)).thenReturn(List.of("user-1"));
+        when(cartRepository.claimExpired("user-1", NOW, LEASE_UNTIL)).thenReturn(true);
+        when(cartRepository.findByUserId("user-1")).thenReturn(cart);
+        when(inventoryReservationChannel.releaseAll(eq("cart-user-1"), any())).thenReturn(released(false));
+
+        cartService.releaseExpiredCarts(NOW, 10);
+
+        verify(cartRepository).scheduleExpiry("user-1", LEASE_UNTIL);
+        verify(cartRepository, never()).deleteIfUnchanged(any());
+    }
+
+    @Test
+    void reschedulesACartWrittenAfterItWasFound() {
+        LocalDateTime expiresAt = NOW.plusDays(15);
+        when(cartRepository.findExpired(NOW, 10)).thenReturn(List.of("user-1"));
+        when(cartRepository.claimExpired("user-1", NOW, LEASE_UNTIL)).thenReturn(true);
+        when(cartRepository.findByUserId("user-1")).thenReturn(cartWithLine(2, expiresAt));
+
+        cartService.releaseExpiredCarts(NOW, 10);
+
+        verify(cartRepository).scheduleExpiry("user-1", expiresAt);
+        verify(inventoryReservationChannel, never()).releaseAll(anyString(), any());
+    }
+
+    @Test
+    void dropsTheEntryOfACartThatIsGone() {
+        when(cartRepository.findExpired(NOW, 10)).thenReturn(List.of("user-1"));
+        when(cartRepository.claimExpired("user-1", NOW, LEASE_UNTIL)).thenReturn(true);
+
+        cartService.releaseExpiredCarts(NOW, 10);
+
+        verify(cartRepository).dropExpired("user-1", LEASE_UNTIL);
+        verify(inventoryReservationChannel, never()).releaseAll(anyString(), any());
+    }
+
+    private static Cart cartWithLines(LocalDateTime expiresAt, int... quantities) {
+        Cart cart = cartWithLine(quantities[0], expiresAt);
+        for (int i = 1; i < quantities.length; i++) {
+            cart.getItems().add(new CartItem("product-1", "SKU-" + (i + 1), "M", "Black", quantities[i], null, null, null, null, null));
+        }
+        return cart;
+    }
+
+    private static Cart guestCart(int... quantities) {
+        Cart cart = cartWithLines(LocalDateTime.now().plusDays(1), quantities);
+        cart.setId("cart-guest-1");
+        cart.setUserId("guest-1");
+        return cart;
+    }
+
+    private static CartItem update(String variantSku, int quantity) {
+        return new CartItem("product-1", variantSku, "M", null, quantity, null, null, null, null, null);
+    }
+
+    private static Cart cartWithLine(int quantity, LocalDateTime expiresAt) {
+        Cart cart = new Cart();
+        cart.setId("cart-user-1");
+        cart.setUserId("user-1");
+        cart.setExpiresAt(expiresAt);
+        cart.setVersion(1L);
+        List<CartItem> items = new ArrayList<>();
+        items.add(new CartItem("product-1", "SKU-1", "M", "Black", quantity, null, null, null, null, null));
+        cart.setItems(items);
+        return cart;
+    }
+
+    private static CompletableFuture<BatchReleaseStockResponse> released(boolean success) {
+        return CompletableFuture.completedFuture(BatchReleaseStockResponse.newBuilder().setSuccess(success).build());
+    }
+}
@@ -0,0 +1,126 @@
+package com.hypehouse.cart_service.benchmark;
+
+import com.hypehouse.cart_service.model.Cart;
+import com.hypehouse.cart_service.model.CartItem;
+import com.hypehouse.cart_service.serializer.CartRedisSerializer;
+import com.hypehouse.common.cache.RedisConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU time of writing and reading a cart with the Jackson serializer of the shared {@link RedisConfig}
+ * template and with {@link CartRedisSerializer}, for carts of one line and of a full cart. The encoded size of
+ * each is printed at the start of a run, as JMH only measures time. Reading JSON with
+ * {@link CartRedisSerializer}, as for carts written before the binary format, costs the same as reading it
+ * with Jackson, plus one byte compare.
+ * <p>
+ * Run with {@code main}; results are written as JSON to {@code target/jmh}. Or run through JMH with
+ * {@code mvn -Pbenchmark test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class CartSerializerBenchmark {
+
+    private static final String[] SIZES = {"7", "7.5", "8", "8.5", "9", "9.5", "10", "10.5", "11", "12"};
+
+    @Param({"1", "10"})
+    private int lines;
+
+    private RedisSerializer<Object> jsonSerializer;
+    private RedisSerializer<Object> binarySerializer;
+    private Cart cart;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        // The template is only built for its serializer; nothing connects to Redis
+        jsonSerializer = (RedisSerializer<Object>) new RedisConfig()
+                .redisTemplate(new LettuceConnectionFactory())
+                .getValueSerializer();
+        binarySerializer = new CartRedisSerializer(jsonSerializer, true);
+
+        cart = new Cart();
+        cart.setId(UUID.randomUUID().toString());
+        cart.setUserId("user-" + UUID.randomUUID());
+        cart.setCreatedAt(LocalDateTime.now().minusHours(1));
+        cart.setUpdatedAt(LocalDateTime.now());
+        cart.setExpiresAt(LocalDateTime.now().plusDays(15));
+        cart.setVersion(7L);
+        List<CartItem> items = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            CartItem item = new CartItem();
+            item.setProductId("FV2305-" + (900 + i));
+            item.setVariantSku("FV2305-" + (900 + i) + "-100");
+            item.setSize(SIZES[i % SIZES.length]);
+            item.setQuantity(1 + i % 3);
+            items.add(item);
+        }
+        cart.setItems(items);
+
+        json = jsonSerializer.serialize(cart);
+        binary = binarySerializer.serialize(cart);
+        System.out.printf("Cart with %d lines: JSON %d bytes, binary %d bytes%n", lines, json.length, binary.length);
+    }
+
+    @Benchmark
+    public byte[] writeJson() {
+        return jsonSerializer.serialize(cart);
+    }
+
+    @Benchmark
+    public byte[] writeBinary() {
+        return binarySerializer.serialize(cart);
+    }
+
+    @Benchmark
+    public Object readJson() {
+        return jsonSerializer.deserialize(json);
+    }
+
+    @Benchmark
+    public Object readBinary() {
+        return binarySerializer.deserialize(binary);
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Path results = Files.createDirectories(Path.of("target", "jmh"));
+        Options options = new OptionsBuilder()
+                .include(CartSerializerBenchmark.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result(results.resolve("cart-serializer.json").toString())
+                .build();
+        new Runner(options).run();
+    }
+}
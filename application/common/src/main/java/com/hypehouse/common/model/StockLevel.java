@@ -0,0 +1,21 @@
+package com.hypehouse.common.model;
+
+/**
+ * Coarse availability of one size, as announced by {@link StockLevelEvent}s.
+ */
+public enum StockLevel {
+    SOLD_OUT,
+    LOW_STOCK,
+    IN_STOCK;
+
+    /**
+     * @param availableStock The units that can still be reserved.
+     * @param lowStockThreshold Sizes with fewer units available than this are low on stock.
+     */
+    public static StockLevel of(int availableStock, int lowStockThreshold) {
+        if (availableStock <= 0) {
+            return SOLD_OUT;
+        }
+        return availableStock < lowStockThreshold ? LOW_STOCK : IN_STOCK;
+    }
+}
@@ -0,0 +1,96 @@
+package com.hypehouse.common.model;
+
+import java.io.Serializable;
+
+/**
+ * Sent by the Inventory service when a size moves from one {@link StockLevel} to another, e.g. it sells
+ * out or comes back in stock. Unlike {@link InventoryUpdateMessage}, nothing is sent while the level stays
+ * the same.
+ */
+public class StockLevelEvent implements Serializable {
+    private String productId;
+    private String variantSku;
+    private String size;
+    private StockLevel previousLevel;
+    private StockLevel level;
+    private int availableStock;
+    private int lowStockThreshold;
+    private long occurredAt; // Epoch millis
+
+    // Getters and setters
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getVariantSku() {
+        return variantSku;
+    }
+
+    public void setVariantSku(String variantSku) {
+        this.variantSku = variantSku;
+    }
+
+    public String getSize() {
+        return size;
+    }
+
+    public void setSize(String size) {
+        this.size = size;
+    }
+
+    public StockLevel getPreviousLevel() {
+        return previousLevel;
+    }
+
+    public void setPreviousLevel(StockLevel previousLevel) {
+        this.previousLevel = previousLevel;
+    }
+
+    public StockLevel getLevel() {
+        return level;
+    }
+
+    public void setLevel(StockLevel level) {
+        this.level = level;
+    }
+
+    public int getAvailableStock() {
+        return availableStock;
+    }
+
+    public void setAvailableStock(int availableStock) {
+        this.availableStock = availableStock;
+    }
+
+    public int getLowStockThreshold() {
+        return lowStockThreshold;
+    }
+
+    public void setLowStockThreshold(int lowStockThreshold) {
+        this.lowStockThreshold = lowStockThreshold;
+    }
+
+    public long getOccurredAt() {
+        return occurredAt;
+    }
+
+    public void setOccurredAt(long occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+
+    @Override
+    public String toString() {
+        return "StockLevelEvent{" +
+                "productId='" + productId + '\'' +
+                ", variantSku='" + variantSku + '\'' +
+                ", size='" + size + '\'' +
+                ", previousLevel=" + previousLevel +
+                ", level=" + level +
+                ", availableStock=" + availableStock +
+                '}';
+    }
+}
@@ -2,10 +2,12 @@ package com.hypehouse.inventory_service;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 import java.util.logging.Logger;
 
 @SpringBootApplication(scanBasePackages = {"com.hypehouse"})
+@EnableScheduling
 public class InventoryServiceApplication {
 
 	private static final Logger logger = Logger.getLogger(InventoryServiceApplication.class.getName());
@@ -0,0 +1,154 @@
+package com.hypehouse.inventory_service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.VariantKey;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-process cache of inventory documents, keyed by productId and variantSku, so that the hottest
+ * SKUs are read from memory.
+ * <p>
+ * Writes on this node are written through with {@link #put}, writes on other nodes arrive through
+ * {@link InventoryChangeStreamListener}. An entry is only ever replaced by a document with an equal or higher
+ * {@code outboxVersion}, which every change increments, so a late update can never overwrite a newer one.
+ * Hits, misses and evictions are published as {@code cache.*} metrics with the tag {@code cache=inventory}.
+ * Entries that are only read are used for display and validation; writes always start from MongoDB.
+ * <p>
+ * Without the change stream the entries could be stale for up to the TTL, so {@link InventoryChangeStreamListener}
+ * turns the cache off while it does not follow the stream, e.g. against a standalone MongoDB server. Reads then go
+ * straight to their loaders.
+ */
+@Component
+public class InventoryCache {
+
+    private final Cache<String, Inventory> cache;
+    private volatile boolean enabled = true;
+
+    public InventoryCache(MeterRegistry meterRegistry,
+                          @Value("${inventory.cache.max-size:10000}") long maxSize,
+                          @Value("${inventory.cache.ttl:10m}") Duration ttl) {
+        // The TTL is only a safety net for a missed change event
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "inventory");
+    }
+
+    /**
+     * Get the inventory of a variant, loading it on a miss. Missing inventory is not cached.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param loader Loads the inventory from MongoDB.
+     * @return The inventory, or empty if it does not exist.
+     */
+    public Optional<Inventory> get(String productId, String variantSku, Supplier<Optional<Inventory>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        return Optional.ofNullable(cache.get(key(productId, variantSku), key -> loader.get().orElse(null)));
+    }
+
+    /**
+     * Get the inventories of several variants in one pass, loading all misses with a single call.
+     * Missing inventory is not cached.
+     *
+     * @param variants The variants to get.
+     * @param loader Loads the inventories of the variants that are not cached.
+     * @return The inventories that exist, in the order of the variants unless the cache is off.
+     */
+    public List<Inventory> getAll(List<VariantKey> variants, Function<List<VariantKey>, List<Inventory>> loader) {
+        if (!enabled) {
+            return loader.apply(variants);
+        }
+        Map<String, VariantKey> variantsByKey = new LinkedHashMap<>();
+        for (VariantKey variant : variants) {
+            variantsByKey.put(key(variant.getProductId(), variant.getVariantSku()), variant);
+        }
+        Map<String, Inventory> inventories = cache.getAll(variantsByKey.keySet(), missingKeys -> {
+            List<VariantKey> missing = new ArrayList<>(missingKeys.size());
+            for (String key : missingKeys) {
+                missing.add(variantsByKey.get(key));
+            }
+            Map<String, Inventory> loaded = new HashMap<>();
+            for (Inventory inventory : loader.apply(missing)) {
+                loaded.put(key(inventory.getProductId(), inventory.getVariantSku()), inventory);
+            }
+            return loaded;
+        });
+        return new ArrayList<>(inventories.values());
+    }
+
+    /**
+     * Write through the state of an inventory returned by a write on this node.
+     */
+    public void put(Inventory inventory) {
+        if (!enabled) {
+            return;
+        }
+        cache.asMap().merge(key(inventory.getProductId(), inventory.getVariantSku()), inventory, InventoryCache::newer);
+    }
+
+    /**
+     * Replace a cached inventory with a newer state written on any node. SKUs that are not cached stay
+     * uncached, so the cache keeps holding only what is read.
+     */
+    public void refresh(Inventory inventory) {
+        cache.asMap().computeIfPresent(key(inventory.getProductId(), inventory.getVariantSku()),
+                (key, cached) -> newer(cached, inventory));
+    }
+
+    /**
+     * Turn the cache on or off; turning it off drops every entry, so nothing stale is served once it is back on.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            cache.invalidateAll();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void evict(String productId, String variantSku) {
+        cache.invalidate(key(productId, variantSku));
+    }
+
+    /**
+     * Evict an inventory known only by its document id, e.g. after it was deleted.
+     */
+    public void evictById(String inventoryId) {
+        cache.asMap().values().removeIf(inventory -> inventoryId.equals(inventory.getId()));
+    }
+
+    public void evictProduct(String productId) {
+        cache.asMap().values().removeIf(inventory -> productId.equals(inventory.getProductId()));
+    }
+
+    private static Inventory newer(Inventory cached, Inventory candidate) {
+        return candidate.getOutboxVersion() >= cached.getOutboxVersion() ? candidate : cached;
+    }
+
+    private static String key(String productId, String variantSku) {
+        return productId + ":" + variantSku;
+    }
+}
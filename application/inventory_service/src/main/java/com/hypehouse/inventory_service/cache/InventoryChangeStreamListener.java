@@ -0,0 +1,193 @@
+package com.hypehouse.inventory_service.cache;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListener;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Subscription;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps {@link InventoryCache} coherent with writes made by other nodes by following the change stream
+ * of the inventory collection.
+ * <p>
+ * Change streams need a replica set or a sharded cluster. Against a standalone server, or with
+ * {@code inventory.cache.change-stream.enabled=false}, the cache is turned off instead. When the stream fails,
+ * the cache is turned off and cleared, and the stream is opened again after
+ * {@code inventory.cache.change-stream.restart-delay.ms}, resuming after the last change it delivered. The cache
+ * is turned back on once the new stream is open.
+ */
+@Component
+public class InventoryChangeStreamListener implements MessageListener<ChangeStreamDocument<Document>, Inventory> {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryChangeStreamListener.class);
+
+    // ChangeStreamFatalError and ChangeStreamHistoryLost: the resume token can no longer be used
+    private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+    private static final Duration OPEN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final MongoTemplate mongoTemplate;
+    private final InventoryCache inventoryCache;
+    private final boolean enabled;
+    private final long restartDelayMs;
+    private MessageListenerContainer container;
+    private ThreadPoolTaskScheduler restartScheduler;
+    private volatile BsonDocument resumeToken;
+    // Of the current subscription; whichever of its error or its open timeout comes first restarts it
+    private final AtomicLong generation = new AtomicLong();
+
+    public InventoryChangeStreamListener(MongoTemplate mongoTemplate,
+                                         InventoryCache inventoryCache,
+                                         @Value("${inventory.cache.change-stream.enabled:true}") boolean enabled,
+                                         @Value("${inventory.cache.change-stream.restart-delay.ms:1000}") long restartDelayMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.inventoryCache = inventoryCache;
+        this.enabled = enabled;
+        this.restartDelayMs = restartDelayMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || !supportsChangeStreams()) {
+            inventoryCache.setEnabled(false);
+            log.info("Not following inventory changes, the inventory cache is off.");
+            return;
+        }
+        restartScheduler = new ThreadPoolTaskScheduler();
+        restartScheduler.setPoolSize(1);
+        restartScheduler.setThreadNamePrefix("inventory-change-stream-");
+        restartScheduler.initialize();
+        container = new DefaultMessageListenerContainer(mongoTemplate);
+        container.start();
+        // Subscriptions are opened on the one restart thread only, so they never overlap
+        inventoryCache.setEnabled(false);
+        restartScheduler.execute(this::subscribe);
+        log.info("Following inventory changes to keep the inventory cache coherent.");
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (restartScheduler != null) {
+            restartScheduler.shutdown();
+        }
+        if (container != null) {
+            container.stop();
+        }
+    }
+
+    /**
+     * Only replica set members and mongos routers report a set name or the router message.
+     */
+    private boolean supportsChangeStreams() {
+        try {
+            Document hello = mongoTemplate.executeCommand(new Document("hello", 1));
+            return hello.containsKey("setName") || "isdbgrid".equals(hello.getString("msg"));
+        } catch (RuntimeException e) {
+            log.warn("Could not tell whether MongoDB supports change streams: {}", e.toString());
+            return false;
+        }
+    }
+
+    private void subscribe() {
+        ChangeStreamRequest.ChangeStreamRequestBuilder<Inventory> request = ChangeStreamRequest.builder(this)
+                .collection(mongoTemplate.getCollectionName(Inventory.class))
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+        BsonDocument token = resumeToken;
+        if (token != null) {
+            request.resumeToken(token);
+        }
+        long subscriptionGeneration = generation.incrementAndGet();
+        Subscription subscription = container.register(request.build(), Inventory.class,
+                error -> onError(error, subscriptionGeneration));
+        try {
+            if (subscription.await(OPEN_TIMEOUT)) {
+                // Loads from now on see every change the stream delivers, unless it already failed again
+                if (generation.get() == subscriptionGeneration) {
+                    inventoryCache.setEnabled(true);
+                }
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (generation.compareAndSet(subscriptionGeneration, subscriptionGeneration + 1)) {
+            log.warn("Inventory change stream did not open within {}, retrying with the inventory cache off.", OPEN_TIMEOUT);
+            container.remove(subscription);
+            scheduleRestart();
+        }
+    }
+
+    /**
+     * The stream is cancelled after an error, so stop serving cached entries and open it again.
+     */
+    private void onError(Throwable error, long subscriptionGeneration) {
+        if (!generation.compareAndSet(subscriptionGeneration, subscriptionGeneration + 1)) {
+            return;
+        }
+        log.warn("Inventory change stream failed, clearing the inventory cache and restarting the stream: {}", error.toString());
+        inventoryCache.setEnabled(false);
+        if (isResumeTokenLost(error)) {
+            resumeToken = null;
+        }
+        scheduleRestart();
+    }
+
+    private void scheduleRestart() {
+        if (container.isRunning() && !restartScheduler.getScheduledExecutor().isShutdown()) {
+            restartScheduler.schedule(this::subscribe, Instant.now().plusMillis(restartDelayMs));
+        }
+    }
+
+    private static boolean isResumeTokenLost(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException mongoException) {
+                int code = mongoException.getCode();
+                return code == CHANGE_STREAM_FATAL_ERROR || code == CHANGE_STREAM_HISTORY_LOST;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onMessage(Message<ChangeStreamDocument<Document>, Inventory> message) {
+        ChangeStreamDocument<Document> change = message.getRaw();
+        if (change == null) {
+            return;
+        }
+        resumeToken = change.getResumeToken();
+        OperationType operationType = change.getOperationType();
+        if (operationType == OperationType.DELETE) {
+            BsonValue id = change.getDocumentKey() == null ? null : change.getDocumentKey().get("_id");
+            if (id != null) {
+                inventoryCache.evictById(id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue());
+            }
+            return;
+        }
+        Inventory inventory = message.getBody();
+        if (inventory != null) {
+            inventoryCache.refresh(inventory);
+        }
+    }
+}
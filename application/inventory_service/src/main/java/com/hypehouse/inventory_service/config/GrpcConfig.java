@@ -0,0 +1,79 @@
+package com.hypehouse.inventory_service.config;
+
+import net.devh.boot.grpc.server.serverfactory.GrpcServerConfigurer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.Executor;
+
+@Configuration
+public class GrpcConfig {
+
+    @Value("${inventory.grpc.stream.threads:16}")
+    private int streamThreads;
+
+    @Value("${inventory.grpc.server.threads:64}")
+    private int serverThreads;
+
+    /**
+     * Executor that processes commands received on reservation streams, so that one stream can have
+     * many commands in flight instead of handling them one after another on the gRPC transport thread.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor reservationStreamExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(streamThreads);
+        executor.setMaxPoolSize(streamThreads);
+        executor.setThreadNamePrefix("reservation-stream-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor for gRPC calls with {@code inventory.grpc.server.executor=platform}: a fixed pool of
+     * {@code inventory.grpc.server.threads} threads, so the pool size is the number of calls in flight.
+     */
+    @Bean("grpcServerExecutor")
+    @ConditionalOnProperty(name = "inventory.grpc.server.executor", havingValue = "platform")
+    public ThreadPoolTaskExecutor platformGrpcServerExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(serverThreads);
+        executor.setMaxPoolSize(serverThreads);
+        executor.setThreadNamePrefix("grpc-server-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Executor for gRPC calls with {@code inventory.grpc.server.executor=virtual}: one virtual thread per
+     * task, so calls blocked on MongoDB or RabbitMQ do not hold a platform thread. The number of calls in
+     * flight is then limited by GrpcCallGuard only. Needs a Java 21 runtime, the service is built for 17,
+     * so an older runtime fails at startup.
+     */
+    @Bean("grpcServerExecutor")
+    @ConditionalOnProperty(name = "inventory.grpc.server.executor", havingValue = "virtual")
+    public SimpleAsyncTaskExecutor virtualGrpcServerExecutor() {
+        if (Runtime.version().feature() < 21) {
+            throw new IllegalStateException("inventory.grpc.server.executor=virtual needs a Java 21 runtime, this is Java "
+                    + Runtime.version().feature() + ". Use inventory.grpc.server.executor=platform instead.");
+        }
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("grpc-virtual-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+
+    /**
+     * Run gRPC calls on the configured executor. Without {@code inventory.grpc.server.executor}, the
+     * server keeps the default cached thread pool of grpc-java.
+     */
+    @Bean
+    public GrpcServerConfigurer grpcServerExecutorConfigurer(@Qualifier("grpcServerExecutor") ObjectProvider<Executor> grpcServerExecutor) {
+        return serverBuilder -> grpcServerExecutor.ifAvailable(serverBuilder::executor);
+    }
+}
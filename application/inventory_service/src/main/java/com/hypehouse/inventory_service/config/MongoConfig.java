@@ -0,0 +1,22 @@
+package com.hypehouse.inventory_service.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.MongoTransactionManager;
+
+@Configuration
+public class MongoConfig {
+
+    /**
+     * Transactions for the batch reservations of InventoryRepositoryImpl, which need MongoDB to run as a replica
+     * set. Set {@code inventory.batch.transactions=false} against a standalone server; batches then reverse
+     * their partial changes instead.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "inventory.batch.transactions", havingValue = "true", matchIfMissing = true)
+    public MongoTransactionManager transactionManager(MongoDatabaseFactory databaseFactory) {
+        return new MongoTransactionManager(databaseFactory);
+    }
+}
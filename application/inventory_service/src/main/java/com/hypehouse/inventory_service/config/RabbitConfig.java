@@ -26,6 +26,12 @@ public class RabbitConfig {
 
     public static final String INVENTORY_UPDATE_ROUTING_KEY = "inventory.update";
 
+    // Stock level transitions; consumers bind a queue to the ones they care about
+    public static final String STOCK_SOLD_OUT_ROUTING_KEY = "inventory.stock.sold-out";
+    public static final String STOCK_BACK_IN_STOCK_ROUTING_KEY = "inventory.stock.back-in-stock";
+    public static final String STOCK_LOW_ROUTING_KEY = "inventory.stock.low";
+    public static final String STOCK_REPLENISHED_ROUTING_KEY = "inventory.stock.replenished";
+
     @Bean
     public Queue inventoryQueue() {
         return new Queue(INVENTORY_QUEUE_NAME, true); // Make the queue durable
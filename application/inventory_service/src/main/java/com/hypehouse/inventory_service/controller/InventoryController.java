@@ -2,7 +2,12 @@ package com.hypehouse.inventory_service.controller;
 
 import com.hypehouse.common.rate_limit.RateLimit;
 import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.InventoryImportResult;
+import com.hypehouse.inventory_service.model.VariantAvailability;
+import com.hypehouse.inventory_service.model.VariantKey;
+import com.hypehouse.inventory_service.service.InventoryImportService;
 import com.hypehouse.inventory_service.service.InventoryService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Page;
@@ -11,6 +16,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -20,10 +26,12 @@ import java.util.Optional;
 public class InventoryController {
 
     private final InventoryService inventoryService;
+    private final InventoryImportService inventoryImportService;
     private static final Logger logger = LoggerFactory.getLogger(InventoryController.class);
 
-    public InventoryController(InventoryService inventoryService) {
+    public InventoryController(InventoryService inventoryService, InventoryImportService inventoryImportService) {
         this.inventoryService = inventoryService;
+        this.inventoryImportService = inventoryImportService;
     }
 
     /**
@@ -66,6 +74,24 @@ public class InventoryController {
         }
     }
 
+    /**
+     * Fetch the available stock per size of many product variants in one call, e.g. for a product listing page.
+     *
+     * @param variants The product variants, identified by productId and variantSku.
+     * @return The availability of the variants that have inventory.
+     */
+    @PostMapping("/availability")
+    @RateLimit(limitForPeriod = 60, limitRefreshPeriod = 60)
+    public ResponseEntity<List<VariantAvailability>> getAvailability(@RequestBody List<VariantKey> variants) {
+        logger.info("Fetching availability for {} variants", variants.size());
+        try {
+            return ResponseEntity.ok(inventoryService.getAvailability(variants));
+        } catch (RuntimeException e) {
+            logger.error("Error fetching availability: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
     /**
      * Fetch all inventory for a specific product.
      *
@@ -271,6 +297,66 @@ public class InventoryController {
         }
     }
 
+    /**
+     * Put a product variant in flash sale mode, serving reservations from in-memory counters.
+     *
+     * @param productId  The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @return The inventory of the variant.
+     */
+    @PostMapping("/{productId}/variant/{variantSku}/flash-sale")
+    @RateLimit(limitForPeriod = 5, limitRefreshPeriod = 60)
+    public ResponseEntity<Inventory> enableFlashSale(@PathVariable String productId, @PathVariable String variantSku) {
+        logger.info("Enabling flash sale mode for productId: {}, variantSku: {}", productId, variantSku);
+        try {
+            Inventory inventory = inventoryService.enableFlashSale(productId, variantSku);
+            return ResponseEntity.ok(inventory);
+        } catch (RuntimeException e) {
+            logger.error("Error enabling flash sale mode for productId: {}, variantSku: {}", productId, variantSku, e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
+    /**
+     * Return a product variant from flash sale mode to regular mode.
+     *
+     * @param productId  The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @return No content once the reservations made in flash sale mode are stored.
+     */
+    @DeleteMapping("/{productId}/variant/{variantSku}/flash-sale")
+    @RateLimit(limitForPeriod = 5, limitRefreshPeriod = 60)
+    public ResponseEntity<Void> disableFlashSale(@PathVariable String productId, @PathVariable String variantSku) {
+        logger.info("Disabling flash sale mode for productId: {}, variantSku: {}", productId, variantSku);
+        try {
+            inventoryService.disableFlashSale(productId, variantSku);
+            return ResponseEntity.noContent().build();
+        } catch (RuntimeException e) {
+            logger.error("Error disabling flash sale mode for productId: {}, variantSku: {}", productId, variantSku, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Import stock changes from a file streamed in the request body, one record per line. Negative quantities
+     * remove units.
+     *
+     * @param request The request, with an application/x-ndjson or text/csv body.
+     * @return The number of imported and rejected records, with the first errors.
+     */
+    @PostMapping(value = "/import", consumes = {InventoryImportService.NDJSON, InventoryImportService.CSV})
+    @RateLimit(limitForPeriod = 5, limitRefreshPeriod = 60)
+    public ResponseEntity<InventoryImportResult> importStock(HttpServletRequest request) {
+        logger.info("Importing inventory from {}", request.getContentType());
+        try {
+            InventoryImportResult result = inventoryImportService.importStock(request.getInputStream(), request.getContentType());
+            return ResponseEntity.ok(result);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error importing inventory", e);
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(null);
+        }
+    }
+
     public static class InventoryRequest {
         private String color;
         private Map<String, Integer> sizeStock;
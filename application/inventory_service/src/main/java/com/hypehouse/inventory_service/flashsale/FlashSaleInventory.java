@@ -0,0 +1,426 @@
+package com.hypehouse.inventory_service.flashsale;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.Inventory.SizeStock;
+import com.hypehouse.inventory_service.model.Inventory.Variant;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in flash sale mode for selected variants.
+ * <p>
+ * While a variant is in flash sale mode, the available and reserved stock of each of its sizes live in
+ * {@link StripedStockCounter}s, so that thousands of concurrent reservations of one size no longer queue
+ * up on one MongoDB document. Every reservation and release is written to the memory-mapped
+ * {@link ReservationJournal} and checkpointed to MongoDB asynchronously every
+ * {@code inventory.flash-sale.persist.interval.ms}, summed per document. The journal holds up to
+ * {@code inventory.flash-sale.journal.capacity} entries not checkpointed yet. On startup, journal entries
+ * that never reached MongoDB are applied before anything else.
+ * <p>
+ * Stock adjustments and batch reservations are rejected for variants in flash sale mode, since they would
+ * bypass the counters. Enable the mode before the sale opens and disable it to go back to MongoDB.
+ * <p>
+ * Only one node serves a variant in flash sale mode: enabling it takes a lease stored on the inventory
+ * document under {@code inventory.flash-sale.node-id}, the host name by default, which each checkpoint renews
+ * for {@code inventory.flash-sale.lease.ms}. Other nodes reject the variant while the lease lasts, and regular
+ * mode writes do not match the document. A node that could not renew its lease in time stops reserving, and
+ * loses the variant to the next node that enables it. The node ID also keys the journal sequences stored on
+ * each document, so it must stay the same across restarts of a node and its journal.
+ */
+@Component
+public class FlashSaleInventory {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleInventory.class);
+
+    private final InventoryRepository inventoryRepository;
+    private final Path journalPath;
+    private final int stripes;
+    private final int journalCapacity;
+    private final List<String> configuredVariants;
+    private final String nodeId;
+    private final long leaseMs;
+    private final Map<String, FlashSaleVariant> variants = new ConcurrentHashMap<>();
+    private final List<ReservationJournal.Entry> unappliedEntries = new ArrayList<>();
+    private ReservationJournal journal;
+
+    @Autowired
+    public FlashSaleInventory(InventoryRepository inventoryRepository,
+                              @Value("${inventory.flash-sale.journal.path:data/flash-sale.journal}") Path journalPath,
+                              @Value("${inventory.flash-sale.journal.capacity:65536}") int journalCapacity,
+                              @Value("${inventory.flash-sale.stripes:16}") int stripes,
+                              @Value("${inventory.flash-sale.variants:}") List<String> configuredVariants,
+                              @Value("${inventory.flash-sale.node-id:}") String nodeId,
+                              @Value("${inventory.flash-sale.lease.ms:10000}") long leaseMs) {
+        this.inventoryRepository = inventoryRepository;
+        this.journalPath = journalPath;
+        this.journalCapacity = journalCapacity;
+        this.stripes = stripes;
+        this.configuredVariants = configuredVariants;
+        this.nodeId = toNodeId(nodeId == null || nodeId.isBlank() ? hostName() : nodeId);
+        this.leaseMs = leaseMs;
+    }
+
+    public FlashSaleInventory(InventoryRepository inventoryRepository, Path journalPath, int stripes,
+                              List<String> configuredVariants) {
+        this(inventoryRepository, journalPath, 65536, stripes, configuredVariants, null, 10000);
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Apply what the journal holds from a previous run, then enable the variants configured as
+     * {@code productId:variantSku} in {@code inventory.flash-sale.variants}.
+     */
+    @PostConstruct
+    public void start() {
+        long lastSequence = recover();
+        journal = new ReservationJournal(journalPath, lastSequence, journalCapacity);
+        // Everything in the file is in MongoDB now, so all of it can be written over
+        journal.markApplied(lastSequence);
+        for (String configuredVariant : configuredVariants) {
+            String[] ids = configuredVariant.split(":", 2);
+            if (ids.length != 2) {
+                throw new IllegalArgumentException("Flash sale variants must be configured as productId:variantSku, got: " + configuredVariant);
+            }
+            enable(ids[0], ids[1]);
+        }
+    }
+
+    /**
+     * Store the pending changes and hand the variants back to regular mode, so that another node can serve
+     * them without waiting for the leases to run out.
+     */
+    @PreDestroy
+    public synchronized void stop() throws IOException {
+        if (journal != null) {
+            applyJournal();
+            LocalDateTime now = LocalDateTime.now();
+            for (FlashSaleVariant variant : variants.values()) {
+                inventoryRepository.releaseFlashSaleLease(variant.inventory.getProductId(),
+                        variant.inventory.getVariantSku(), nodeId, now);
+            }
+            variants.clear();
+            journal.close();
+        }
+    }
+
+    /**
+     * Put a variant in flash sale mode on this node, starting from the stock stored in MongoDB.
+     */
+    public synchronized void enable(String productId, String variantSku) {
+        if (journal == null) {
+            throw new IllegalStateException("Flash sale mode is not started.");
+        }
+        long leaseDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMs);
+        LocalDateTime now = LocalDateTime.now();
+        Inventory inventory = inventoryRepository.acquireFlashSaleLease(productId, variantSku, nodeId, now,
+                        now.plus(leaseMs, ChronoUnit.MILLIS))
+                .orElseThrow(() -> inventoryRepository.findByProductIdAndVariantSku(productId, variantSku).isPresent()
+                        ? new RuntimeException("Flash sale of SKU " + variantSku + " is served by another node.")
+                        : new RuntimeException("Inventory not found for SKU: " + variantSku));
+        variants.put(key(productId, variantSku), new FlashSaleVariant(inventory, stripes, leaseDeadline));
+        log.info("Flash sale mode enabled for productId: {}, variantSku: {}", productId, variantSku);
+    }
+
+    /**
+     * Return a variant to regular mode once its pending changes are stored in MongoDB.
+     */
+    public synchronized void disable(String productId, String variantSku) {
+        boolean served = variants.remove(key(productId, variantSku)) != null;
+        if (served) {
+            applyJournal();
+        }
+        if (inventoryRepository.releaseFlashSaleLease(productId, variantSku, nodeId, LocalDateTime.now())) {
+            log.info("Flash sale mode disabled for productId: {}, variantSku: {}", productId, variantSku);
+        } else if (!served && inventoryRepository.findByProductIdAndVariantSku(productId, variantSku)
+                .map(Inventory::getFlashSaleOwner).isPresent()) {
+            throw new RuntimeException("Flash sale of SKU " + variantSku + " is served by another node.");
+        }
+    }
+
+    public boolean isActive(String productId, String variantSku) {
+        return !variants.isEmpty() && variants.containsKey(key(productId, variantSku));
+    }
+
+    /**
+     * Reserve stock from the counters of a variant in flash sale mode.
+     *
+     * @return The current state of the variant, or empty if not enough stock is available.
+     */
+    public Optional<Inventory> reserve(String productId, String variantSku, String size, int quantity) {
+        return reserve(productId, variantSku, size, quantity, null);
+    }
+
+    /**
+     * Reserve stock for a cart, which the journal records along with the change.
+     */
+    public Optional<Inventory> reserve(String productId, String variantSku, String size, int quantity, String cartId) {
+        FlashSaleVariant variant = getVariant(productId, variantSku);
+        if (System.nanoTime() - variant.leaseDeadline >= 0) {
+            // Another node may serve the variant by now
+            throw new RuntimeException("Flash sale lease of SKU " + variantSku + " ran out, not reserving.");
+        }
+        SizeCounters counters = variant.getCounters(size);
+        if (!counters.available.tryAcquire(quantity)) {
+            return Optional.empty();
+        }
+        counters.reserved.release(quantity);
+        try {
+            journal.append(variant.inventory.getId(), size, quantity, cartId);
+        } catch (RuntimeException e) {
+            // Not journaled means not reserved
+            counters.reserved.tryAcquire(quantity);
+            counters.available.release(quantity);
+            throw e;
+        }
+        return Optional.of(variant.snapshot());
+    }
+
+    /**
+     * Release reserved stock to the counters of a variant in flash sale mode.
+     *
+     * @return The current state of the variant, or empty if not enough stock is reserved.
+     */
+    public Optional<Inventory> release(String productId, String variantSku, String size, int quantity) {
+        return release(productId, variantSku, size, quantity, null);
+    }
+
+    /**
+     * Release stock reserved for a cart, which the journal records along with the change.
+     */
+    public Optional<Inventory> release(String productId, String variantSku, String size, int quantity, String cartId) {
+        FlashSaleVariant variant = getVariant(productId, variantSku);
+        SizeCounters counters = variant.getCounters(size);
+        if (!counters.reserved.tryAcquire(quantity)) {
+            return Optional.empty();
+        }
+        counters.available.release(quantity);
+        try {
+            journal.append(variant.inventory.getId(), size, -quantity, cartId);
+        } catch (RuntimeException e) {
+            counters.available.tryAcquire(quantity);
+            counters.reserved.release(quantity);
+            throw e;
+        }
+        return Optional.of(variant.snapshot());
+    }
+
+    /**
+     * @return The current state of a variant in flash sale mode.
+     */
+    public Inventory snapshot(String productId, String variantSku) {
+        return getVariant(productId, variantSku).snapshot();
+    }
+
+    /**
+     * Checkpoint: apply the journal entries written since the previous run to MongoDB, one update per
+     * document. Entries of a failed run are kept and retried on the next one.
+     */
+    @Scheduled(fixedDelayString = "${inventory.flash-sale.persist.interval.ms:500}")
+    public synchronized void applyJournal() {
+        if (journal == null) {
+            return;
+        }
+        unappliedEntries.addAll(journal.drainUnapplied());
+        if (!unappliedEntries.isEmpty()) {
+            checkpoint();
+        }
+        renewLeases();
+    }
+
+    private void checkpoint() {
+        journal.force();
+
+        long lastSequence = unappliedEntries.get(unappliedEntries.size() - 1).getSequence();
+        Map<String, Map<String, Integer>> deltasByInventoryId = sumByInventory(unappliedEntries);
+        // Documents already updated by a failed run skip the update, since their sequence is already stamped
+        deltasByInventoryId.forEach((inventoryId, deltas) ->
+                inventoryRepository.applyFlashSaleChanges(inventoryId, nodeId, deltas, lastSequence));
+        unappliedEntries.clear();
+        journal.markApplied(lastSequence);
+    }
+
+    /**
+     * Extend the lease of every variant this node serves. A variant whose lease was taken over by another
+     * node, after this one failed to renew it in time, is no longer served here.
+     */
+    private void renewLeases() {
+        if (variants.isEmpty()) {
+            return;
+        }
+        // Counted from before the renewal, so this node never outlives the lease stored in MongoDB
+        long leaseDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMs);
+        LocalDateTime leaseUntil = LocalDateTime.now().plus(leaseMs, ChronoUnit.MILLIS);
+        variants.entrySet().removeIf(entry -> {
+            Inventory inventory = entry.getValue().inventory;
+            if (inventoryRepository.renewFlashSaleLease(inventory.getId(), nodeId, leaseUntil)) {
+                entry.getValue().leaseDeadline = leaseDeadline;
+                return false;
+            }
+            log.error("Lost the flash sale lease of productId: {}, variantSku: {}, no longer serving it.",
+                    inventory.getProductId(), inventory.getVariantSku());
+            return true;
+        });
+    }
+
+    /**
+     * Apply the entries of a journal left by a previous run that are newer than the sequence of their document.
+     *
+     * @return The highest sequence used so far, for the journal to continue from.
+     */
+    long recover() {
+        long lastSequence = inventoryRepository.findLastFlashSaleJournalSequence(nodeId);
+        List<ReservationJournal.Entry> entries = ReservationJournal.read(journalPath);
+        if (entries.isEmpty()) {
+            return lastSequence;
+        }
+
+        Map<String, Long> appliedSequences = new HashMap<>();
+        for (Inventory inventory : inventoryRepository.findAllById(sumByInventory(entries).keySet())) {
+            Map<String, Long> sequences = inventory.getFlashSaleJournalSequences();
+            appliedSequences.put(inventory.getId(), sequences == null ? 0L : sequences.getOrDefault(nodeId, 0L));
+        }
+        Map<String, List<ReservationJournal.Entry>> unapplied = new LinkedHashMap<>();
+        for (ReservationJournal.Entry entry : entries) {
+            lastSequence = Math.max(lastSequence, entry.getSequence());
+            if (entry.getSequence() > appliedSequences.getOrDefault(entry.getInventoryId(), Long.MAX_VALUE)) {
+                unapplied.computeIfAbsent(entry.getInventoryId(), id -> new ArrayList<>()).add(entry);
+            }
+        }
+        unapplied.forEach((inventoryId, inventoryEntries) -> inventoryRepository.applyFlashSaleChanges(inventoryId, nodeId,
+                sumByInventory(inventoryEntries).get(inventoryId), inventoryEntries.get(inventoryEntries.size() - 1).getSequence()));
+        log.info("Recovered {} flash sale journal entries for {} inventories.",
+                unapplied.values().stream().mapToInt(List::size).sum(), unapplied.size());
+        return lastSequence;
+    }
+
+    private Map<String, Map<String, Integer>> sumByInventory(List<ReservationJournal.Entry> entries) {
+        Map<String, Map<String, Integer>> deltasByInventoryId = new LinkedHashMap<>();
+        for (ReservationJournal.Entry entry : entries) {
+            deltasByInventoryId.computeIfAbsent(entry.getInventoryId(), id -> new LinkedHashMap<>())
+                    .merge(entry.getSize(), entry.getReservedDelta(), Integer::sum);
+        }
+        return deltasByInventoryId;
+    }
+
+    private FlashSaleVariant getVariant(String productId, String variantSku) {
+        FlashSaleVariant variant = variants.get(key(productId, variantSku));
+        if (variant == null) {
+            throw new RuntimeException("Flash sale mode is not enabled for SKU: " + variantSku);
+        }
+        return variant;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Could not resolve the host name, set inventory.flash-sale.node-id.", e);
+        }
+    }
+
+    /**
+     * The ID is part of a MongoDB field path, which cannot contain dots or start with a dollar sign.
+     */
+    private static String toNodeId(String name) {
+        return name.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    private static String key(String productId, String variantSku) {
+        return productId + ":" + variantSku;
+    }
+
+    private static class SizeCounters {
+        private final int stockQuantity;
+        private final StripedStockCounter available;
+        private final StripedStockCounter reserved;
+
+        private SizeCounters(SizeStock sizeStock, int stripes) {
+            this.stockQuantity = sizeStock.getStockQuantity();
+            this.available = new StripedStockCounter(sizeStock.getAvailableStock(), stripes);
+            this.reserved = new StripedStockCounter(sizeStock.getReservedStock(), stripes);
+        }
+    }
+
+    private static class FlashSaleVariant {
+        private final Inventory inventory;
+        private final Map<String, SizeCounters> countersBySize = new LinkedHashMap<>();
+        // System.nanoTime() at which the lease taken or last renewed by this node runs out
+        private volatile long leaseDeadline;
+
+        private FlashSaleVariant(Inventory inventory, int stripes, long leaseDeadline) {
+            this.inventory = inventory;
+            this.leaseDeadline = leaseDeadline;
+            for (SizeStock sizeStock : inventory.getVariant().getSizeStock()) {
+                countersBySize.put(sizeStock.getSize(), new SizeCounters(sizeStock, stripes));
+            }
+        }
+
+        private SizeCounters getCounters(String size) {
+            SizeCounters counters = countersBySize.get(size);
+            if (counters == null) {
+                throw new RuntimeException("Size " + size + " not found in inventory.");
+            }
+            return counters;
+        }
+
+        /**
+         * Build the inventory as callers know it from the counters.
+         */
+        private Inventory snapshot() {
+            List<SizeStock> sizeStockList = new ArrayList<>(countersBySize.size());
+            int stockQuantity = 0;
+            int reservedStock = 0;
+            int availableStock = 0;
+            for (Map.Entry<String, SizeCounters> entry : countersBySize.entrySet()) {
+                SizeStock sizeStock = new SizeStock(entry.getKey(), entry.getValue().stockQuantity);
+                sizeStock.setAvailableStock((int) entry.getValue().available.sum());
+                sizeStock.setReservedStock((int) entry.getValue().reserved.sum());
+                sizeStockList.add(sizeStock);
+                stockQuantity += sizeStock.getStockQuantity();
+                reservedStock += sizeStock.getReservedStock();
+                availableStock += sizeStock.getAvailableStock();
+            }
+
+            Variant variant = new Variant();
+            variant.setColor(inventory.getVariant().getColor());
+            variant.setSizeStock(sizeStockList);
+
+            Inventory snapshot = new Inventory();
+            snapshot.setId(inventory.getId());
+            snapshot.setProductId(inventory.getProductId());
+            snapshot.setVariantSku(inventory.getVariantSku());
+            snapshot.setVariant(variant);
+            snapshot.setStockQuantity(stockQuantity);
+            snapshot.setReservedStock(reservedStock);
+            snapshot.setAvailableStock(availableStock);
+            snapshot.setSchemaVersion(inventory.getSchemaVersion());
+            snapshot.setCreatedAt(inventory.getCreatedAt());
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.hypehouse.inventory_service.flashsale;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the reservations made in flash sale mode, kept in a memory-mapped file of
+ * fixed-size binary records, one per reservation or release.
+ * <p>
+ * Every entry gets a sequence number. The entries are also queued in memory until
+ * {@link FlashSaleInventory} has applied them to MongoDB, which stamps each inventory document with the
+ * last sequence applied to it. After a crash, the entries of the file with a higher sequence than their
+ * document are the ones that were never applied. Appends are plain memory writes that the operating system
+ * keeps when the process dies, and reach the disk on every {@link #force()}, so a process crash loses
+ * nothing and a power loss at most the entries since the last force.
+ * <p>
+ * The file is written as a ring: after the last record, writing wraps around to the first one, and only
+ * records already applied are written over. Checkpoints that keep up with the appends therefore keep room
+ * for new entries however long the traffic lasts, even though newer entries always follow the ones being
+ * applied. Reading returns every record that passes its checksum, applied ones included, which recovery
+ * skips by the sequence of their document. A record cut short by a crash fails its checksum.
+ */
+public class ReservationJournal implements Closeable {
+
+    /**
+     * Record layout: sequence (8), timestamp in epoch millis (8), reserved delta (4), inventory ID (1 + 43),
+     * size (1 + 15), cart ID (1 + 43), CRC32 of everything before it (4).
+     */
+    static final int RECORD_SIZE = 128;
+
+    private static final int TIMESTAMP_OFFSET = 8;
+    private static final int DELTA_OFFSET = 16;
+    private static final int INVENTORY_ID_OFFSET = 20;
+    private static final int SIZE_OFFSET = 64;
+    private static final int CART_ID_OFFSET = 80;
+    private static final int CHECKSUM_OFFSET = 124;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final byte[] record = new byte[RECORD_SIZE];
+    private final CRC32 checksum = new CRC32();
+    private final Queue<Entry> unapplied = new ConcurrentLinkedQueue<>();
+    private long lastSequence;
+    private int position;
+    private int used;
+
+    /**
+     * Open a journal, continuing after its newest complete record. The records already in the file count as
+     * unapplied until {@link #markApplied(long)} says otherwise.
+     *
+     * @param path The journal file, created and sized to {@code capacity} records if needed.
+     * @param lastSequence The highest sequence used so far.
+     * @param capacity The number of unapplied records the file holds.
+     */
+    public ReservationJournal(Path path, long lastSequence, int capacity) {
+        this.path = path;
+        this.lastSequence = lastSequence;
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.capacity = (int) Math.max(capacity, channel.size() / RECORD_SIZE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) this.capacity * RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open reservation journal: " + path, e);
+        }
+        List<Entry> entries = new ArrayList<>();
+        this.position = (readRecords(buffer, this.capacity, entries) + 1) % this.capacity;
+        this.used = entries.size();
+    }
+
+    /**
+     * Append an entry.
+     *
+     * @param inventoryId The ID of the inventory document.
+     * @param size The size of the product variant.
+     * @param reservedDelta The change of reserved stock, positive for a reservation and negative for a release.
+     * @param cartId The ID of the cart the change was made for, or null.
+     * @return The sequence number of the entry.
+     */
+    public synchronized long append(String inventoryId, String size, int reservedDelta, String cartId) {
+        if (used == capacity) {
+            throw new RuntimeException("Reservation journal is full until its entries are applied to MongoDB.");
+        }
+        Entry entry = new Entry(lastSequence + 1, System.currentTimeMillis(), inventoryId, size, reservedDelta, cartId);
+        ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+        recordBuffer.putLong(0, entry.getSequence())
+                .putLong(TIMESTAMP_OFFSET, entry.getTimestamp())
+                .putInt(DELTA_OFFSET, reservedDelta);
+        putString(inventoryId, INVENTORY_ID_OFFSET, SIZE_OFFSET);
+        putString(size, SIZE_OFFSET, CART_ID_OFFSET);
+        putString(cartId, CART_ID_OFFSET, CHECKSUM_OFFSET);
+        checksum.reset();
+        checksum.update(record, 0, CHECKSUM_OFFSET);
+        recordBuffer.putInt(CHECKSUM_OFFSET, (int) checksum.getValue());
+
+        buffer.put(position * RECORD_SIZE, record);
+        position = (position + 1) % capacity;
+        used++;
+        lastSequence++;
+        unapplied.add(entry);
+        return entry.getSequence();
+    }
+
+    /**
+     * Take the entries that were not handed out for applying yet, in sequence order.
+     */
+    public List<Entry> drainUnapplied() {
+        List<Entry> entries = new ArrayList<>();
+        Entry entry;
+        while ((entry = unapplied.poll()) != null) {
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Free the records of every entry up to {@code sequence}, which is applied, for writing over. Entries
+     * appended since keep their records.
+     */
+    public synchronized void markApplied(long sequence) {
+        // The entries of this run have consecutive sequences, so the newest lastSequence - sequence are unapplied
+        used = (int) Math.min(used, Math.max(0, lastSequence - sequence));
+    }
+
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Read every complete entry of a journal file, in sequence order.
+     */
+    public static List<Entry> read(Path path) {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return entries;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int records = (int) (channel.size() / RECORD_SIZE);
+            readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, (long) records * RECORD_SIZE), records, entries);
+            entries.sort(Comparator.comparingLong(Entry::getSequence));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read reservation journal: " + path, e);
+        }
+        return entries;
+    }
+
+    /**
+     * Read every record that is not empty and passes its checksum, in file order.
+     *
+     * @return The position of the record with the highest sequence, or -1 if there is none.
+     */
+    private static int readRecords(ByteBuffer buffer, int records, List<Entry> entries) {
+        byte[] record = new byte[RECORD_SIZE];
+        CRC32 checksum = new CRC32();
+        int newest = -1;
+        long newestSequence = 0;
+        for (int i = 0; i < records; i++) {
+            buffer.get(i * RECORD_SIZE, record);
+            ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+            long sequence = recordBuffer.getLong(0);
+            checksum.reset();
+            checksum.update(record, 0, CHECKSUM_OFFSET);
+            if (sequence <= 0 || recordBuffer.getInt(CHECKSUM_OFFSET) != (int) checksum.getValue()) {
+                continue;
+            }
+            entries.add(new Entry(sequence, recordBuffer.getLong(TIMESTAMP_OFFSET),
+                    getString(record, INVENTORY_ID_OFFSET), getString(record, SIZE_OFFSET),
+                    recordBuffer.getInt(DELTA_OFFSET), getString(record, CART_ID_OFFSET)));
+            if (sequence > newestSequence) {
+                newest = i;
+                newestSequence = sequence;
+            }
+        }
+        return newest;
+    }
+
+    private void putString(String value, int offset, int end) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > end - offset - 1) {
+            throw new RuntimeException("Value too long for the reservation journal: " + value);
+        }
+        record[offset] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, record, offset + 1, bytes.length);
+    }
+
+    private static String getString(byte[] record, int offset) {
+        int length = record[offset];
+        return length == 0 ? null : new String(record, offset + 1, length, StandardCharsets.UTF_8);
+    }
+
+    public static class Entry {
+        private final long sequence;
+        private final long timestamp;
+        private final String inventoryId;
+        private final String size;
+        private final int reservedDelta;
+        private final String cartId;
+
+        public Entry(long sequence, long timestamp, String inventoryId, String size, int reservedDelta, String cartId) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.inventoryId = inventoryId;
+            this.size = size;
+            this.reservedDelta = reservedDelta;
+            this.cartId = cartId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getInventoryId() {
+            return inventoryId;
+        }
+
+        public String getSize() {
+            return size;
+        }
+
+        public int getReservedDelta() {
+            return reservedDelta;
+        }
+
+        public String getCartId() {
+            return cartId;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.hypehouse.inventory_service.flashsale;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Available stock of one size split over several independently updated stripes.
+ * <p>
+ * Threads start at a random stripe and take units with a compare-and-set, so concurrent reservations
+ * rarely touch the same memory and never block each other. A stripe without enough units is skipped, and
+ * a quantity that no single stripe holds is gathered from several stripes and given back if the total
+ * falls short. A reservation can therefore fail while another one briefly holds part of the last units,
+ * which is acceptable when stock is about to sell out anyway, but the counter can never go below zero.
+ */
+public class StripedStockCounter {
+
+    // Stripes are 8 longs (64 bytes) apart, so that they do not share a cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells;
+    private final int stripes;
+
+    public StripedStockCounter(long available, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("Stripes must be a positive integer.");
+        }
+        this.stripes = stripes;
+        this.cells = new AtomicLongArray(stripes * PADDING);
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            cells.set(stripe * PADDING, available / stripes + (stripe < available % stripes ? 1 : 0));
+        }
+    }
+
+    /**
+     * Take {@code quantity} units if they are available.
+     *
+     * @return True if the units were taken.
+     */
+    public boolean tryAcquire(int quantity) {
+        int start = ThreadLocalRandom.current().nextInt(stripes);
+        for (int i = 0; i < stripes; i++) {
+            int cell = ((start + i) % stripes) * PADDING;
+            long current;
+            while ((current = cells.get(cell)) >= quantity) {
+                if (cells.compareAndSet(cell, current, current - quantity)) {
+                    return true;
+                }
+            }
+        }
+        return acquireAcrossStripes(start, quantity);
+    }
+
+    /**
+     * Give back {@code quantity} units.
+     */
+    public void release(int quantity) {
+        cells.addAndGet(ThreadLocalRandom.current().nextInt(stripes) * PADDING, quantity);
+    }
+
+    /**
+     * @return The units currently available. Only exact while no reservation is in progress.
+     */
+    public long sum() {
+        long sum = 0;
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            sum += cells.get(stripe * PADDING);
+        }
+        return sum;
+    }
+
+    private boolean acquireAcrossStripes(int start, int quantity) {
+        long[] taken = new long[stripes];
+        long remaining = quantity;
+        for (int i = 0; i < stripes && remaining > 0; i++) {
+            int stripe = (start + i) % stripes;
+            int cell = stripe * PADDING;
+            long current;
+            while ((current = cells.get(cell)) > 0) {
+                long take = Math.min(current, remaining);
+                if (cells.compareAndSet(cell, current, current - take)) {
+                    taken[stripe] = take;
+                    remaining -= take;
+                    break;
+                }
+            }
+        }
+        if (remaining == 0) {
+            return true;
+        }
+        for (int stripe = 0; stripe < stripes; stripe++) {
+            if (taken[stripe] > 0) {
+                cells.addAndGet(stripe * PADDING, taken[stripe]);
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,113 @@
+package com.hypehouse.inventory_service.grpc;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import net.devh.boot.grpc.server.interceptor.GrpcGlobalServerInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits how many unary calls run at once and records the latency of every call.
+ * <p>
+ * The server executor decides how many calls can wait on MongoDB and RabbitMQ at the same time; with
+ * virtual threads that is practically unbounded, so this guard keeps the load on MongoDB at
+ * {@code inventory.grpc.server.max-concurrent-calls}. The limit only applies once an
+ * {@code inventory.grpc.server.executor} is configured, so a server left on the default cached pool of
+ * grpc-java behaves as before. The default matches the platform pool of {@code inventory.grpc.server.threads},
+ * which already bounds the calls in flight by itself. A call
+ * that finds no free permit fails at once with RESOURCE_EXHAUSTED, which clients can retry; waiting for one
+ * would hold the executor thread that runs the interceptor. Streaming calls are not limited here, their
+ * commands are bounded by the reservation stream executor.
+ */
+@GrpcGlobalServerInterceptor
+public class GrpcCallGuard implements ServerInterceptor {
+
+    private final MeterRegistry meterRegistry;
+    private final Semaphore permits;
+    private final Counter rejectedCalls;
+
+    public GrpcCallGuard(MeterRegistry meterRegistry,
+                         @Value("${inventory.grpc.server.executor:}") String serverExecutor,
+                         @Value("${inventory.grpc.server.max-concurrent-calls:64}") int maxConcurrentCalls) {
+        this.meterRegistry = meterRegistry;
+        int limit = serverExecutor.isEmpty() ? Integer.MAX_VALUE : maxConcurrentCalls;
+        this.permits = new Semaphore(limit);
+        this.rejectedCalls = Counter.builder("inventory.grpc.server.calls.rejected")
+                .description("Unary calls rejected because the concurrent call limit was reached")
+                .register(meterRegistry);
+        meterRegistry.gauge("inventory.grpc.server.calls.in-flight", permits,
+                semaphore -> limit - semaphore.availablePermits());
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        long start = System.nanoTime();
+        String method = call.getMethodDescriptor().getBareMethodName();
+        boolean limited = call.getMethodDescriptor().getType() == MethodDescriptor.MethodType.UNARY;
+
+        if (limited && !permits.tryAcquire()) {
+            rejectedCalls.increment();
+            record(method, Status.Code.RESOURCE_EXHAUSTED, start);
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription("Inventory service is at its concurrent call limit."),
+                    new Metadata());
+            return new ServerCall.Listener<>() {};
+        }
+
+        // The call ends either with close or, if the client goes away first, with onCancel
+        AtomicBoolean finished = new AtomicBoolean();
+        ServerCall<ReqT, RespT> timedCall = new ForwardingServerCall.SimpleForwardingServerCall<>(call) {
+            @Override
+            public void close(Status status, Metadata trailers) {
+                finish(finished, limited, method, status.getCode(), start);
+                super.close(status, trailers);
+            }
+        };
+
+        ServerCall.Listener<ReqT> listener;
+        try {
+            listener = next.startCall(timedCall, headers);
+        } catch (RuntimeException e) {
+            finish(finished, limited, method, Status.Code.UNKNOWN, start);
+            throw e;
+        }
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<>(listener) {
+            @Override
+            public void onCancel() {
+                finish(finished, limited, method, Status.Code.CANCELLED, start);
+                super.onCancel();
+            }
+        };
+    }
+
+    private void finish(AtomicBoolean finished, boolean limited, String method, Status.Code status, long start) {
+        if (finished.compareAndSet(false, true)) {
+            if (limited) {
+                permits.release();
+            }
+            record(method, status, start);
+        }
+    }
+
+    private void record(String method, Status.Code status, long start) {
+        Timer.builder("inventory.grpc.server.latency")
+                .description("Latency of gRPC calls")
+                .tag("method", method)
+                .tag("status", status.name())
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
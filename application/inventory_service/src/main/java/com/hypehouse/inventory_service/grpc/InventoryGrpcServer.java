@@ -2,23 +2,37 @@ package com.hypehouse.inventory_service.grpc;
 
 import com.hypehouse.common.grpc.*;
 import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.StockLine;
+import com.hypehouse.inventory_service.model.VariantAvailability;
+import com.hypehouse.inventory_service.model.VariantKey;
 import com.hypehouse.inventory_service.service.InventoryService;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
-import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import net.devh.boot.grpc.server.service.GrpcService;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 @GrpcService
-@RequiredArgsConstructor
 public class InventoryGrpcServer extends InventoryServiceGrpc.InventoryServiceImplBase {
 
     private static final Logger logger = LoggerFactory.getLogger(InventoryGrpcServer.class);
 
     private final InventoryService inventoryService;
+    private final Executor reservationStreamExecutor;
+    private final int maxInFlightPerStream;
 
-    public InventoryGrpcServer(InventoryService inventoryService) {
+    public InventoryGrpcServer(InventoryService inventoryService,
+                               @Qualifier("reservationStreamExecutor") Executor reservationStreamExecutor,
+                               @Value("${inventory.grpc.stream.max-in-flight:1000}") int maxInFlightPerStream) {
         this.inventoryService = inventoryService;
+        this.reservationStreamExecutor = reservationStreamExecutor;
+        this.maxInFlightPerStream = maxInFlightPerStream;
     }
 
     @Override
@@ -33,7 +47,8 @@ public class InventoryGrpcServer extends InventoryServiceGrpc.InventoryServiceIm
                     request.getProductId(),
                     request.getVariantSku(),
                     request.getSize(),
-                    request.getQuantity()
+                    request.getQuantity(),
+                    request.getCartId()
             );
 
             logger.info("Successfully reserved stock for ProductId: {}. AvailableStock: {}, ReservedStock: {}",
@@ -70,7 +85,8 @@ public class InventoryGrpcServer extends InventoryServiceGrpc.InventoryServiceIm
                     request.getProductId(),
                     request.getVariantSku(),
                     request.getSize(),
-                    request.getQuantity()
+                    request.getQuantity(),
+                    request.getCartId()
             );
 
             logger.info("Successfully released stock for ProductId: {}. Quantity released: {}",
@@ -90,4 +106,129 @@ public class InventoryGrpcServer extends InventoryServiceGrpc.InventoryServiceIm
         }
         responseObserver.onCompleted();
     }
+
+    @Override
+    public void batchReserveStock(BatchReserveStockRequest request,
+                                  StreamObserver<BatchReserveStockResponse> responseObserver) {
+        logger.info("Received batchReserveStock request: CartId={}, Lines={}", request.getCartId(), request.getLinesCount());
+
+        try {
+            List<Inventory> inventories = inventoryService.reserveStockBatch(toStockLines(request.getLinesList()), request.getCartId());
+
+            logger.info("Successfully reserved stock for {} lines of CartId: {}", request.getLinesCount(), request.getCartId());
+
+            responseObserver.onNext(BatchReserveStockResponse.newBuilder()
+                    .setSuccess(true)
+                    .setMessage("Stock reserved successfully")
+                    .addAllResults(toStockLineResults(request.getLinesList(), inventories))
+                    .build());
+
+        } catch (RuntimeException e) {
+            logger.error("Error while reserving stock batch: {}", e.getMessage(), e);
+            responseObserver.onNext(BatchReserveStockResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage(e.getMessage())
+                    .build());
+        }
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void batchReleaseStock(BatchReleaseStockRequest request,
+                                  StreamObserver<BatchReleaseStockResponse> responseObserver) {
+        logger.info("Received batchReleaseStock request: CartId={}, Lines={}", request.getCartId(), request.getLinesCount());
+
+        try {
+            List<Inventory> inventories = inventoryService.releaseReservedStockBatch(toStockLines(request.getLinesList()), request.getCartId());
+
+            logger.info("Successfully released stock for {} lines of CartId: {}", request.getLinesCount(), request.getCartId());
+
+            responseObserver.onNext(BatchReleaseStockResponse.newBuilder()
+                    .setSuccess(true)
+                    .setMessage("Stock released successfully")
+                    .addAllResults(toStockLineResults(request.getLinesList(), inventories))
+                    .build());
+
+        } catch (RuntimeException e) {
+            logger.error("Error while releasing stock batch: {}", e.getMessage(), e);
+            responseObserver.onNext(BatchReleaseStockResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage(e.getMessage())
+                    .build());
+        }
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void getAvailability(AvailabilityRequest request, StreamObserver<AvailabilityResponse> responseObserver) {
+        logger.debug("Received getAvailability request: Variants={}", request.getVariantsCount());
+
+        try {
+            List<VariantKey> variants = new ArrayList<>(request.getVariantsCount());
+            for (com.hypehouse.common.grpc.VariantKey variant : request.getVariantsList()) {
+                variants.add(new VariantKey(variant.getProductId(), variant.getVariantSku()));
+            }
+
+            AvailabilityResponse.Builder response = AvailabilityResponse.newBuilder().setSuccess(true);
+            for (VariantAvailability availability : inventoryService.getAvailability(variants)) {
+                response.addVariants(com.hypehouse.common.grpc.VariantAvailability.newBuilder()
+                        .setProductId(availability.getProductId())
+                        .setVariantSku(availability.getVariantSku())
+                        .putAllAvailableBySize(availability.getAvailableBySize()));
+            }
+            responseObserver.onNext(response.build());
+
+        } catch (RuntimeException e) {
+            logger.error("Error while fetching availability: {}", e.getMessage());
+            responseObserver.onNext(AvailabilityResponse.newBuilder()
+                    .setSuccess(false)
+                    .setMessage(e.getMessage())
+                    .build());
+        }
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<ReservationCommand> streamReservations(StreamObserver<ReservationResult> responseObserver) {
+        logger.info("Opening reservation stream");
+
+        ServerCallStreamObserver<ReservationResult> serverCallObserver =
+                (ServerCallStreamObserver<ReservationResult>) responseObserver;
+        // Let the client pipeline up to maxInFlightPerStream commands; each result requests one more
+        serverCallObserver.disableAutoRequest();
+        serverCallObserver.request(maxInFlightPerStream);
+
+        return new ReservationStreamObserver(inventoryService, serverCallObserver, reservationStreamExecutor);
+    }
+
+    private List<StockLine> toStockLines(List<com.hypehouse.common.grpc.StockLine> lines) {
+        List<StockLine> stockLines = new ArrayList<>(lines.size());
+        for (com.hypehouse.common.grpc.StockLine line : lines) {
+            stockLines.add(new StockLine(line.getProductId(), line.getVariantSku(), line.getSize(), line.getQuantity()));
+        }
+        return stockLines;
+    }
+
+    private List<StockLineResult> toStockLineResults(List<com.hypehouse.common.grpc.StockLine> lines,
+                                                     List<Inventory> inventories) {
+        List<StockLineResult> results = new ArrayList<>(lines.size());
+        for (com.hypehouse.common.grpc.StockLine line : lines) {
+            StockLineResult.Builder result = StockLineResult.newBuilder()
+                    .setProductId(line.getProductId())
+                    .setVariantSku(line.getVariantSku())
+                    .setSize(line.getSize());
+            for (Inventory inventory : inventories) {
+                if (inventory.getProductId().equals(line.getProductId())
+                        && inventory.getVariantSku().equals(line.getVariantSku())) {
+                    Inventory.SizeStock sizeStock = inventory.getVariant().findSize(line.getSize());
+                    if (sizeStock != null) {
+                        result.setAvailableQuantity(sizeStock.getAvailableStock())
+                                .setReservedQuantity(sizeStock.getReservedStock());
+                    }
+                }
+            }
+            results.add(result.build());
+        }
+        return results;
+    }
 }
@@ -0,0 +1,160 @@
+package com.hypehouse.inventory_service.grpc;
+
+import com.hypehouse.common.grpc.ReservationCommand;
+import com.hypehouse.common.grpc.ReservationResult;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.service.InventoryService;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server side of one reservation stream. Every command is processed on the executor and its result is
+ * sent as soon as it completes, tagged with the command's correlation ID. Commands of different carts run
+ * concurrently, while the commands of one cart run one after another in the order they were received, so a
+ * release never overtakes the reservation it undoes. Flow control is manual: each completed command
+ * requests one more from the client, which bounds the commands in flight per stream.
+ */
+public class ReservationStreamObserver implements StreamObserver<ReservationCommand> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReservationStreamObserver.class);
+
+    private final InventoryService inventoryService;
+    private final ServerCallStreamObserver<ReservationResult> responseObserver;
+    private final Executor executor;
+
+    private final Map<String, Queue<Runnable>> pendingByCart = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private volatile boolean halfClosed;
+
+    public ReservationStreamObserver(InventoryService inventoryService,
+                                     ServerCallStreamObserver<ReservationResult> responseObserver,
+                                     Executor executor) {
+        this.inventoryService = inventoryService;
+        this.responseObserver = responseObserver;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onNext(ReservationCommand command) {
+        inFlight.incrementAndGet();
+        executeInOrder(command.getCartId(), () -> {
+            try {
+                ReservationResult result = process(command);
+                // StreamObserver is not thread-safe and results complete on different threads
+                synchronized (responseObserver) {
+                    if (!completed.get() && !responseObserver.isCancelled()) {
+                        responseObserver.onNext(result);
+                        responseObserver.request(1);
+                    }
+                }
+            } finally {
+                if (inFlight.decrementAndGet() == 0 && halfClosed) {
+                    complete();
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task on the executor once the tasks received before it for the same cart have finished.
+     */
+    private void executeInOrder(String cartId, Runnable task) {
+        if (cartId.isEmpty()) {
+            executor.execute(task);
+            return;
+        }
+        synchronized (pendingByCart) {
+            Queue<Runnable> pending = pendingByCart.get(cartId);
+            if (pending != null) {
+                pending.add(task);
+                return;
+            }
+            pendingByCart.put(cartId, new ArrayDeque<>());
+        }
+        executor.execute(() -> runInOrder(cartId, task));
+    }
+
+    private void runInOrder(String cartId, Runnable task) {
+        try {
+            task.run();
+        } finally {
+            Runnable next;
+            synchronized (pendingByCart) {
+                next = pendingByCart.get(cartId).poll();
+                if (next == null) {
+                    pendingByCart.remove(cartId);
+                }
+            }
+            if (next != null) {
+                executor.execute(() -> runInOrder(cartId, next));
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.warn("Reservation stream closed with error: {}", t.getMessage());
+        completed.set(true);
+    }
+
+    @Override
+    public void onCompleted() {
+        // The client has sent its last command; finish once every in-flight command has answered
+        halfClosed = true;
+        if (inFlight.get() == 0) {
+            complete();
+        }
+    }
+
+    private void complete() {
+        if (completed.compareAndSet(false, true)) {
+            synchronized (responseObserver) {
+                responseObserver.onCompleted();
+            }
+        }
+    }
+
+    private ReservationResult process(ReservationCommand command) {
+        ReservationResult.Builder result = ReservationResult.newBuilder()
+                .setCorrelationId(command.getCorrelationId());
+        try {
+            Inventory inventory;
+            switch (command.getType()) {
+                case RESERVE:
+                    inventory = inventoryService.reserveStock(command.getProductId(), command.getVariantSku(),
+                            command.getSize(), command.getQuantity(), command.getCartId());
+                    result.setMessage("Stock reserved successfully");
+                    break;
+                case RELEASE:
+                    inventory = inventoryService.releaseReservedStock(command.getProductId(), command.getVariantSku(),
+                            command.getSize(), command.getQuantity(), command.getCartId());
+                    result.setMessage("Stock released successfully");
+                    break;
+                default:
+                    throw new RuntimeException("Unknown reservation command type: " + command.getType());
+            }
+
+            Inventory.SizeStock sizeStock = inventory.getVariant().findSize(command.getSize());
+            if (sizeStock != null) {
+                result.setAvailableQuantity(sizeStock.getAvailableStock())
+                        .setReservedQuantity(sizeStock.getReservedStock());
+            }
+            return result.setSuccess(true).build();
+
+        } catch (RuntimeException e) {
+            logger.error("Error while processing reservation command {}: {}", command.getCorrelationId(), e.getMessage());
+            return result.setSuccess(false).setMessage(e.getMessage()).build();
+        }
+    }
+}
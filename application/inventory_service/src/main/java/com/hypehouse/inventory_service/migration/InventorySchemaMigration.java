@@ -0,0 +1,111 @@
+package com.hypehouse.inventory_service.migration;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.Inventory.SizeStock;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Upgrades inventory documents written before per-size reserved/available counters existed.
+ * <p>
+ * Before schema version 2 the size {@code stockQuantity} was already reduced by reservations and
+ * only the variant kept a reserved total. The upgrade turns the size {@code stockQuantity} back into
+ * units on hand, seeds the size {@code availableStock}, and recomputes the variant totals from the sizes.
+ * Variant level reservations that were never attributed to a size cannot be recovered.
+ */
+@Component
+public class InventorySchemaMigration {
+
+    private static final Logger log = LoggerFactory.getLogger(InventorySchemaMigration.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${inventory.schema.migration.enabled:true}")
+    private boolean migrationEnabled;
+
+    public InventorySchemaMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Runs while the context is starting, before the HTTP and gRPC servers accept reservations.
+     */
+    @PostConstruct
+    public void migrateOnStartup() {
+        if (!migrationEnabled) {
+            log.info("Inventory schema migration is disabled.");
+            return;
+        }
+        int migrated = migrateOutdatedDocuments();
+        log.info("Inventory schema migration finished. Migrated {} documents to version {}.",
+                migrated, Inventory.CURRENT_SCHEMA_VERSION);
+    }
+
+    /**
+     * Upgrade every inventory document that is below the current schema version.
+     *
+     * @return The number of documents that were upgraded.
+     */
+    public int migrateOutdatedDocuments() {
+        int migrated = 0;
+        try (Stream<Inventory> inventories = mongoTemplate.stream(Query.query(outdated()), Inventory.class)) {
+            Iterator<Inventory> iterator = inventories.iterator();
+            while (iterator.hasNext()) {
+                Inventory inventory = iterator.next();
+                upgrade(inventory);
+
+                // The version check in the filter makes the migration safe to run from several nodes at once
+                Query query = Query.query(Criteria.where("_id").is(inventory.getId()).andOperator(outdated()));
+                Update update = new Update()
+                        .set("variant.sizeStock", inventory.getVariant() != null ? inventory.getVariant().getSizeStock() : null)
+                        .set("stockQuantity", inventory.getStockQuantity())
+                        .set("reservedStock", inventory.getReservedStock())
+                        .set("availableStock", inventory.getAvailableStock())
+                        .set("schemaVersion", inventory.getSchemaVersion());
+                if (mongoTemplate.updateFirst(query, update, Inventory.class).getModifiedCount() > 0) {
+                    migrated++;
+                }
+            }
+        }
+        return migrated;
+    }
+
+    /**
+     * Convert a version 1 inventory to the current layout in place.
+     */
+    static void upgrade(Inventory inventory) {
+        int stockQuantity = 0;
+        int reservedStock = 0;
+        int availableStock = 0;
+        if (inventory.getVariant() != null && inventory.getVariant().getSizeStock() != null) {
+            for (SizeStock sizeStock : inventory.getVariant().getSizeStock()) {
+                sizeStock.setAvailableStock(sizeStock.getStockQuantity());
+                sizeStock.setStockQuantity(sizeStock.getStockQuantity() + sizeStock.getReservedStock());
+
+                stockQuantity += sizeStock.getStockQuantity();
+                reservedStock += sizeStock.getReservedStock();
+                availableStock += sizeStock.getAvailableStock();
+            }
+        }
+        inventory.setStockQuantity(stockQuantity);
+        inventory.setReservedStock(reservedStock);
+        inventory.setAvailableStock(availableStock);
+        inventory.setSchemaVersion(Inventory.CURRENT_SCHEMA_VERSION);
+    }
+
+    private static Criteria outdated() {
+        return new Criteria().orOperator(
+                Criteria.where("schemaVersion").exists(false),
+                Criteria.where("schemaVersion").lt(Inventory.CURRENT_SCHEMA_VERSION));
+    }
+}
@@ -1,15 +1,23 @@
 package com.hypehouse.inventory_service.model;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.hypehouse.common.model.StockLevel;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Document(collection = "inventory")
 public class Inventory {
 
+    // Version 2 tracks reserved and available stock per size instead of per variant
+    public static final int CURRENT_SCHEMA_VERSION = 2;
+
     @Id
     private String id;  // SKU of the product variant, e.g., FV2305-900-100
 
@@ -19,6 +27,13 @@ public class Inventory {
     private int stockQuantity; // Total stock across all sizes
     private int reservedStock; // Reserved stock for active carts/orders
     private int availableStock; // Stock available for sale (stockQuantity - reservedStock)
+    private int schemaVersion; // Document layout version, used by InventorySchemaMigration
+    private boolean outboxPending; // Set by every change until InventoryOutboxRelay has published the new state
+    private long outboxVersion;    // Incremented by every change, so the relay only clears what it published
+    private Map<String, Long> flashSaleJournalSequences; // Last flash sale journal entry applied, per node
+    private String flashSaleOwner; // Node serving the variant in flash sale mode, null in regular mode
+    private LocalDateTime flashSaleLeaseUntil; // Renewed by the owner, another node may take over after it
+    private List<String> sweptReservations; // Expired holds released by sweeps that have not completed yet
 
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     private LocalDateTime createdAt = LocalDateTime.now();
@@ -83,6 +98,62 @@ public class Inventory {
         this.availableStock = availableStock;
     }
 
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public void setSchemaVersion(int schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    public boolean isOutboxPending() {
+        return outboxPending;
+    }
+
+    public void setOutboxPending(boolean outboxPending) {
+        this.outboxPending = outboxPending;
+    }
+
+    public long getOutboxVersion() {
+        return outboxVersion;
+    }
+
+    public void setOutboxVersion(long outboxVersion) {
+        this.outboxVersion = outboxVersion;
+    }
+
+    public Map<String, Long> getFlashSaleJournalSequences() {
+        return flashSaleJournalSequences;
+    }
+
+    public void setFlashSaleJournalSequences(Map<String, Long> flashSaleJournalSequences) {
+        this.flashSaleJournalSequences = flashSaleJournalSequences;
+    }
+
+    public String getFlashSaleOwner() {
+        return flashSaleOwner;
+    }
+
+    public void setFlashSaleOwner(String flashSaleOwner) {
+        this.flashSaleOwner = flashSaleOwner;
+    }
+
+    public LocalDateTime getFlashSaleLeaseUntil() {
+        return flashSaleLeaseUntil;
+    }
+
+    public void setFlashSaleLeaseUntil(LocalDateTime flashSaleLeaseUntil) {
+        this.flashSaleLeaseUntil = flashSaleLeaseUntil;
+    }
+
+    public List<String> getSweptReservations() {
+        return sweptReservations;
+    }
+
+    public void setSweptReservations(List<String> sweptReservations) {
+        this.sweptReservations = sweptReservations;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -99,10 +170,62 @@ public class Inventory {
         this.updatedAt = updatedAt;
     }
 
+    /**
+     * Change the stock of one size and keep the variant totals in step, without summing all sizes again.
+     *
+     * @param sizeStock     A size of this inventory's variant.
+     * @param stockDelta    Units added to (or removed from) the stock on hand.
+     * @param reservedDelta Units reserved (or released); the available stock moves by stockDelta - reservedDelta.
+     */
+    public void adjustStock(SizeStock sizeStock, int stockDelta, int reservedDelta) {
+        int availableDelta = stockDelta - reservedDelta;
+        sizeStock.setStockQuantity(sizeStock.getStockQuantity() + stockDelta);
+        sizeStock.setReservedStock(sizeStock.getReservedStock() + reservedDelta);
+        sizeStock.setAvailableStock(sizeStock.getAvailableStock() + availableDelta);
+        stockQuantity += stockDelta;
+        reservedStock += reservedDelta;
+        availableStock += availableDelta;
+    }
+
     public static class Variant {
         private String color;  // The color of the product
         private List<SizeStock> sizeStock; // List of size-stock pairs
 
+        // Lookup by size, built from sizeStock on first use since MongoDB and Jackson only fill the list.
+        // Volatile because cached documents are read by several threads.
+        @Transient
+        @JsonIgnore
+        private volatile Map<String, SizeStock> sizeIndex;
+
+        /**
+         * @return The stock of the size, or null if the variant does not have the size.
+         */
+        public SizeStock findSize(String size) {
+            Map<String, SizeStock> index = sizeIndex;
+            // Sizes added to the list directly are picked up by rebuilding
+            if (index == null || index.size() != sizeStock.size()) {
+                index = new HashMap<>(sizeStock.size() * 2);
+                for (SizeStock item : sizeStock) {
+                    index.put(item.getSize(), item);
+                }
+                sizeIndex = index;
+            }
+            return index.get(size);
+        }
+
+        /**
+         * @return The stock of the size, added with no units if the variant does not have the size yet.
+         */
+        public SizeStock findOrAddSize(String size) {
+            SizeStock item = findSize(size);
+            if (item == null) {
+                item = new SizeStock(size, 0);
+                sizeStock.add(item);
+                sizeIndex.put(size, item);
+            }
+            return item;
+        }
+
         // Getters and Setters
         public String getColor() {
             return color;
@@ -118,13 +241,17 @@ public class Inventory {
 
         public void setSizeStock(List<SizeStock> sizeStock) {
             this.sizeStock = sizeStock;
+            this.sizeIndex = null;
         }
     }
 
     public static class SizeStock {
         private String size;
-        private int stockQuantity;
-        private int reservedStock;
+        private int stockQuantity;  // Units on hand for this size, including reserved units
+        private int reservedStock;  // Units held by active carts/orders
+        private int availableStock; // Units that can still be reserved (stockQuantity - reservedStock)
+        @JsonIgnore
+        private StockLevel notifiedLevel; // Last level InventoryOutboxRelay announced for this size
 
         // Constructors
         public SizeStock() {}
@@ -132,6 +259,7 @@ public class Inventory {
         public SizeStock(String size, int stockQuantity) {
             this.size = size;
             this.stockQuantity = stockQuantity;
+            this.availableStock = stockQuantity;
         }
 
         // Getters and Setters
@@ -158,5 +286,21 @@ public class Inventory {
         public void setReservedStock(int reservedStock) {
             this.reservedStock = reservedStock;
         }
+
+        public int getAvailableStock() {
+            return availableStock;
+        }
+
+        public void setAvailableStock(int availableStock) {
+            this.availableStock = availableStock;
+        }
+
+        public StockLevel getNotifiedLevel() {
+            return notifiedLevel;
+        }
+
+        public void setNotifiedLevel(StockLevel notifiedLevel) {
+            this.notifiedLevel = notifiedLevel;
+        }
     }
 }
\ No newline at end of file
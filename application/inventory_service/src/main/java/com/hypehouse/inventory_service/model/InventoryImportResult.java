@@ -0,0 +1,76 @@
+package com.hypehouse.inventory_service.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of a bulk inventory import.
+ */
+public class InventoryImportResult {
+
+    // Only the first errors are reported, the count covers all of them
+    public static final int MAX_REPORTED_ERRORS = 100;
+
+    private int importedRecords;
+    private int rejectedRecords;
+    private int chunks;
+    private List<String> errors = new ArrayList<>();
+
+    public void recordImported(int count) {
+        importedRecords += count;
+    }
+
+    public void recordRejected(long lineNumber, String message) {
+        rejectedRecords++;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add("Line " + lineNumber + ": " + message);
+        }
+    }
+
+    /**
+     * Reject records that were valid but could not be written, all reported under one message.
+     */
+    public void recordRejected(int count, String message) {
+        rejectedRecords += count;
+        if (errors.size() < MAX_REPORTED_ERRORS) {
+            errors.add(message);
+        }
+    }
+
+    public void recordChunk() {
+        chunks++;
+    }
+
+    // Getters and Setters
+    public int getImportedRecords() {
+        return importedRecords;
+    }
+
+    public void setImportedRecords(int importedRecords) {
+        this.importedRecords = importedRecords;
+    }
+
+    public int getRejectedRecords() {
+        return rejectedRecords;
+    }
+
+    public void setRejectedRecords(int rejectedRecords) {
+        this.rejectedRecords = rejectedRecords;
+    }
+
+    public int getChunks() {
+        return chunks;
+    }
+
+    public void setChunks(int chunks) {
+        this.chunks = chunks;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -0,0 +1,26 @@
+package com.hypehouse.inventory_service.model;
+
+/**
+ * One record of a bulk inventory import: stock to add to, or with a negative quantity remove from, one size
+ * of a product variant.
+ */
+public class StockImportLine extends StockLine {
+    private String color; // Only used when the import creates the variant
+
+    // Constructors
+    public StockImportLine() {}
+
+    public StockImportLine(String productId, String variantSku, String color, String size, int quantity) {
+        super(productId, variantSku, size, quantity);
+        this.color = color;
+    }
+
+    // Getters and Setters
+    public String getColor() {
+        return color;
+    }
+
+    public void setColor(String color) {
+        this.color = color;
+    }
+}
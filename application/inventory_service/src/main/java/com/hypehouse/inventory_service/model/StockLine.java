@@ -0,0 +1,54 @@
+package com.hypehouse.inventory_service.model;
+
+/**
+ * A quantity of one size of a product variant, as used by batch stock operations.
+ */
+public class StockLine {
+    private String productId;
+    private String variantSku;
+    private String size;
+    private int quantity;
+
+    // Constructors
+    public StockLine() {}
+
+    public StockLine(String productId, String variantSku, String size, int quantity) {
+        this.productId = productId;
+        this.variantSku = variantSku;
+        this.size = size;
+        this.quantity = quantity;
+    }
+
+    // Getters and Setters
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getVariantSku() {
+        return variantSku;
+    }
+
+    public void setVariantSku(String variantSku) {
+        this.variantSku = variantSku;
+    }
+
+    public String getSize() {
+        return size;
+    }
+
+    public void setSize(String size) {
+        this.size = size;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+}
@@ -0,0 +1,47 @@
+package com.hypehouse.inventory_service.model;
+
+import java.util.Map;
+
+/**
+ * The stock of a product variant that can still be sold, per size. A compact view of {@link Inventory}
+ * for pages that only show whether sizes are in stock.
+ */
+public class VariantAvailability {
+    private String productId;
+    private String variantSku;
+    private Map<String, Integer> availableBySize;
+
+    // Constructors
+    public VariantAvailability() {}
+
+    public VariantAvailability(String productId, String variantSku, Map<String, Integer> availableBySize) {
+        this.productId = productId;
+        this.variantSku = variantSku;
+        this.availableBySize = availableBySize;
+    }
+
+    // Getters and Setters
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getVariantSku() {
+        return variantSku;
+    }
+
+    public void setVariantSku(String variantSku) {
+        this.variantSku = variantSku;
+    }
+
+    public Map<String, Integer> getAvailableBySize() {
+        return availableBySize;
+    }
+
+    public void setAvailableBySize(Map<String, Integer> availableBySize) {
+        this.availableBySize = availableBySize;
+    }
+}
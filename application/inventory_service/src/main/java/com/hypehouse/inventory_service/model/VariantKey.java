@@ -0,0 +1,34 @@
+package com.hypehouse.inventory_service.model;
+
+/**
+ * Identifies one product variant, as used by bulk lookups.
+ */
+public class VariantKey {
+    private String productId;
+    private String variantSku;
+
+    // Constructors
+    public VariantKey() {}
+
+    public VariantKey(String productId, String variantSku) {
+        this.productId = productId;
+        this.variantSku = variantSku;
+    }
+
+    // Getters and Setters
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getVariantSku() {
+        return variantSku;
+    }
+
+    public void setVariantSku(String variantSku) {
+        this.variantSku = variantSku;
+    }
+}
@@ -0,0 +1,114 @@
+package com.hypehouse.inventory_service.repository;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the indexes behind the {@link InventoryRepository} lookups and checks that MongoDB uses them.
+ * <p>
+ * Every reservation and stock update finds its document by productId and variantSku, so the unique compound
+ * index both serves those lookups and guarantees one document per variant. At startup, the query plan of each
+ * repository lookup is explained, and startup fails if one of them would scan the whole collection.
+ */
+@Component
+public class InventoryIndexes {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryIndexes.class);
+
+    // The filters of the repository lookups, by the method that runs them
+    private static final Map<String, Document> LOOKUPS = Map.of(
+            "findByProductIdAndVariantSku", new Document("productId", "").append("variantSku", ""),
+            "findByProductId", new Document("productId", ""),
+            "findByVariantSkuIn", new Document("variantSku", new Document("$in", List.of(""))),
+            "findByProductIdInAndVariantSkuIn", new Document("productId", new Document("$in", List.of("")))
+                    .append("variantSku", new Document("$in", List.of(""))));
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean verifyQueryPlans;
+
+    public InventoryIndexes(MongoTemplate mongoTemplate,
+                            @Value("${inventory.indexes.verify-query-plans:true}") boolean verifyQueryPlans) {
+        this.mongoTemplate = mongoTemplate;
+        this.verifyQueryPlans = verifyQueryPlans;
+    }
+
+    @PostConstruct
+    public void start() {
+        ensureIndexes();
+        if (verifyQueryPlans) {
+            verifyQueryPlans();
+        }
+    }
+
+    public void ensureIndexes() {
+        IndexOperations indexOps = mongoTemplate.indexOps(Inventory.class);
+        try {
+            indexOps.ensureIndex(new Index().on("productId", Sort.Direction.ASC).on("variantSku", Sort.Direction.ASC)
+                    .unique().named("productId_variantSku"));
+        } catch (DuplicateKeyException e) {
+            throw new RuntimeException("Inventory contains several documents for the same productId and variantSku, "
+                    + "merge them before starting the service.", e);
+        }
+        indexOps.ensureIndex(new Index().on("productId", Sort.Direction.ASC).named("productId"));
+        indexOps.ensureIndex(new Index().on("variantSku", Sort.Direction.ASC).named("variantSku"));
+    }
+
+    /**
+     * Explain every repository lookup and fail if any of them is planned as a collection scan.
+     */
+    public void verifyQueryPlans() {
+        List<String> collectionScans = new ArrayList<>();
+        for (Map.Entry<String, Document> lookup : LOOKUPS.entrySet()) {
+            Document explain = mongoTemplate.getDb().runCommand(new Document("explain",
+                    new Document("find", mongoTemplate.getCollectionName(Inventory.class)).append("filter", lookup.getValue()))
+                    .append("verbosity", "queryPlanner"));
+            Document winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+            if (usesCollectionScan(winningPlan)) {
+                collectionScans.add(lookup.getKey());
+            }
+        }
+        if (!collectionScans.isEmpty()) {
+            throw new RuntimeException("Inventory lookups would scan the whole collection: " + collectionScans);
+        }
+        log.info("Verified query plans of {} inventory lookups.", LOOKUPS.size());
+    }
+
+    /**
+     * @return True if a stage of the plan, or of a plan nested in it, is a collection scan.
+     */
+    public static boolean usesCollectionScan(Document plan) {
+        if ("COLLSCAN".equals(plan.getString("stage"))) {
+            return true;
+        }
+        // Classic plans nest stages in inputStage(s), slot based plans wrap them in queryPlan
+        for (String child : List.of("inputStage", "queryPlan")) {
+            Document nested = plan.get(child, Document.class);
+            if (nested != null && usesCollectionScan(nested)) {
+                return true;
+            }
+        }
+        List<Document> inputStages = plan.getList("inputStages", Document.class);
+        if (inputStages != null) {
+            for (Document inputStage : inputStages) {
+                if (usesCollectionScan(inputStage)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
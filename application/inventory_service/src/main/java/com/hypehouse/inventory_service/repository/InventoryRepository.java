@@ -4,13 +4,18 @@ import com.hypehouse.inventory_service.model.Inventory;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface InventoryRepository extends MongoRepository<Inventory, String> {
+public interface InventoryRepository extends MongoRepository<Inventory, String>, InventoryRepositoryCustom {
 
     Optional<Inventory> findByProductIdAndVariantSku(String productId, String variantSku);
 
     List<Inventory> findByProductId(String productId);
+
+    List<Inventory> findByVariantSkuIn(Collection<String> variantSkus);
+
+    List<Inventory> findByProductIdInAndVariantSkuIn(Collection<String> productIds, Collection<String> variantSkus);
 }
\ No newline at end of file
@@ -0,0 +1,158 @@
+package com.hypehouse.inventory_service.repository;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.StockImportLine;
+import com.hypehouse.inventory_service.model.StockLine;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Atomic stock operations that are executed server-side by MongoDB in a single round trip.
+ */
+public interface InventoryRepositoryCustom {
+
+    /**
+     * Reserve stock for one size of a variant, only if that size still has enough stock.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param size The size of the product variant.
+     * @param quantity The quantity to reserve.
+     * @return The updated inventory, or empty if the inventory, the size or enough stock was not found.
+     */
+    Optional<Inventory> reserveStock(String productId, String variantSku, String size, int quantity);
+
+    /**
+     * Release reserved stock for one size of a variant, only if that size has enough reserved stock.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param size The size of the product variant.
+     * @param quantity The quantity to release.
+     * @return The updated inventory, or empty if the inventory, the size or enough reserved stock was not found.
+     */
+    Optional<Inventory> releaseReservedStock(String productId, String variantSku, String size, int quantity);
+
+    /**
+     * Reserve stock in several inventory documents with one bulk write, all or nothing. The bulk write runs in
+     * a transaction when a MongoTransactionManager is configured.
+     *
+     * @param quantitiesByInventoryId For each inventory id, the quantity to reserve per size.
+     * @return Empty if every document was updated, otherwise the id of the first document without enough
+     *         available stock. Documents updated before it are rolled back or reversed.
+     */
+    Optional<String> reserveStockBatch(Map<String, Map<String, Integer>> quantitiesByInventoryId);
+
+    /**
+     * Release reserved stock in several inventory documents with one bulk write, all or nothing. The bulk write
+     * runs in a transaction when a MongoTransactionManager is configured.
+     *
+     * @param quantitiesByInventoryId For each inventory id, the quantity to release per size.
+     * @return Empty if every document was updated, otherwise the id of the first document without enough
+     *         reserved stock. Documents updated before it are rolled back or reversed.
+     */
+    Optional<String> releaseReservedStockBatch(Map<String, Map<String, Integer>> quantitiesByInventoryId);
+
+    /**
+     * Release the stock of expired holds, each line independently, with one unordered bulk write.
+     * Lines without enough reserved stock are skipped instead of failing the others. The document remembers
+     * the key of every line it released, so a line released before by a sweep that did not complete is
+     * skipped as well.
+     *
+     * @param linesBySweepKey The product variant sizes and quantities to release, by their sweep key.
+     * @return The number of lines that were released.
+     */
+    int releaseSweptStockLines(Map<String, StockLine> linesBySweepKey);
+
+    /**
+     * Forget the sweep keys of lines whose sweep completed.
+     *
+     * @param sweepKeys The keys given to {@link #releaseSweptStockLines}.
+     */
+    void forgetSweptReservations(Collection<String> sweepKeys);
+
+    /**
+     * Add stock to sizes of a variant, creating the variant and the sizes that do not exist yet.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param color The color of the variant, only used when the variant is created.
+     * @param quantityBySize The units to add per size.
+     * @return The updated inventory, or empty if the variant was deleted in between.
+     */
+    Optional<Inventory> addStock(String productId, String variantSku, String color, Map<String, Integer> quantityBySize);
+
+    /**
+     * Change the stock on hand of existing sizes of a variant, only if every size exists and every size
+     * that loses units has at least that many available (unreserved) units.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param deltaBySize The units to add (positive) or remove (negative) per size.
+     * @return The updated inventory, or empty if the inventory, a size or enough available stock was not found.
+     */
+    Optional<Inventory> adjustStock(String productId, String variantSku, Map<String, Integer> deltaBySize);
+
+    /**
+     * Apply reserved stock changes recorded by the flash sale journal of a node to one inventory document,
+     * unless entries of that journal up to {@code journalSequence} were already applied to it. Each node
+     * numbers its own journal, so the applied sequence is kept per node.
+     *
+     * @param inventoryId The ID of the inventory document.
+     * @param nodeId The ID of the node that wrote the journal.
+     * @param reservedDeltaBySize The change of reserved stock per size, available stock changes by the opposite.
+     * @param journalSequence The sequence of the last journal entry included in the changes.
+     * @return True if the changes were applied, false if they had been applied before.
+     */
+    boolean applyFlashSaleChanges(String inventoryId, String nodeId, Map<String, Integer> reservedDeltaBySize,
+                                  long journalSequence);
+
+    /**
+     * @return The highest journal sequence of a node applied to any inventory document, or 0 if none was.
+     */
+    long findLastFlashSaleJournalSequence(String nodeId);
+
+    /**
+     * Add or remove stock for many variants and sizes with a fixed number of unordered bulk writes, creating
+     * the variants and sizes that stock is added to and that do not exist yet. The lines of one variant are
+     * applied together or not at all.
+     *
+     * @param lines The change of stock, at most one line per variant and size. Negative quantities remove units,
+     *              which must be available.
+     * @return The lines that were not applied, because their variant or size was not found, not enough stock
+     *         was available, or the variant is in flash sale mode.
+     */
+    List<StockImportLine> addStockBulk(List<StockImportLine> lines);
+
+    /**
+     * Take the flash sale lease of a variant, if no other node holds it or its lease ran out. Until it is
+     * released, regular mode writes of any node no longer match the document.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param owner The ID of the node taking the lease.
+     * @param now The current time, leases that ended before it can be taken over.
+     * @param leaseUntil When the lease ends unless it is renewed.
+     * @return The inventory with the lease taken, or empty if it was not found or another node holds the lease.
+     */
+    Optional<Inventory> acquireFlashSaleLease(String productId, String variantSku, String owner,
+                                              LocalDateTime now, LocalDateTime leaseUntil);
+
+    /**
+     * Extend the flash sale lease of a variant, only if the node still holds it.
+     *
+     * @return False if another node took the lease over.
+     */
+    boolean renewFlashSaleLease(String inventoryId, String owner, LocalDateTime leaseUntil);
+
+    /**
+     * Return a variant to regular mode, if the node holds its flash sale lease or the lease ran out.
+     *
+     * @return False if another node holds the lease, or the variant was not in flash sale mode.
+     */
+    boolean releaseFlashSaleLease(String productId, String variantSku, String owner, LocalDateTime now);
+}
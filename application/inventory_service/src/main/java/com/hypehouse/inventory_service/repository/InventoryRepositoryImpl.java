@@ -0,0 +1,484 @@
+package com.hypehouse.inventory_service.repository;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.StockImportLine;
+import com.hypehouse.inventory_service.model.StockLine;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.MongoTransactionManager;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public class InventoryRepositoryImpl implements InventoryRepositoryCustom {
+
+    private static final int RESERVE = 1;
+    private static final int RELEASE = -1;
+
+    // Regular mode writes only match documents without a flash sale owner, so no node changes the stock of a
+    // variant that another node serves from its counters
+    private static final String FLASH_SALE_OWNER = "flashSaleOwner";
+    private static final String FLASH_SALE_LEASE_UNTIL = "flashSaleLeaseUntil";
+    private static final String FLASH_SALE_JOURNAL_SEQUENCES = "flashSaleJournalSequences";
+    private static final String SWEPT_RESERVATIONS = "sweptReservations";
+
+    // Attempts of a batch transaction that conflicts with another one on the same documents
+    private static final int TRANSACTION_ATTEMPTS = 3;
+
+    private static final int BAD_VALUE = 2;
+    private static final int DUPLICATE_KEY = 11000;
+    private static final int WRITE_CONFLICT = 112;
+
+    private final MongoTemplate mongoTemplate;
+    private final TransactionTemplate transactionTemplate; // Null without a MongoTransactionManager
+
+    /**
+     * Without transactions, batches are made all or nothing by reversing the documents changed before a failure.
+     */
+    public InventoryRepositoryImpl(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+        this.transactionTemplate = null;
+    }
+
+    @Autowired
+    public InventoryRepositoryImpl(MongoTemplate mongoTemplate, ObjectProvider<MongoTransactionManager> transactionManager) {
+        this.mongoTemplate = mongoTemplate;
+        MongoTransactionManager manager = transactionManager.getIfAvailable();
+        this.transactionTemplate = manager == null ? null : new TransactionTemplate(manager);
+    }
+
+    @Override
+    public Optional<Inventory> reserveStock(String productId, String variantSku, String size, int quantity) {
+        // The availability check is part of the filter, so concurrent reservations can never oversell a size
+        Query query = regularVariantQuery(productId, variantSku)
+                .addCriteria(sizeGuard(size, "availableStock", quantity));
+
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, stockUpdate(Map.of(size, quantity), RESERVE),
+                FindAndModifyOptions.options().returnNew(true), Inventory.class));
+    }
+
+    @Override
+    public Optional<Inventory> releaseReservedStock(String productId, String variantSku, String size, int quantity) {
+        Query query = regularVariantQuery(productId, variantSku)
+                .addCriteria(sizeGuard(size, "reservedStock", quantity));
+
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, stockUpdate(Map.of(size, quantity), RELEASE),
+                FindAndModifyOptions.options().returnNew(true), Inventory.class));
+    }
+
+    @Override
+    public Optional<String> reserveStockBatch(Map<String, Map<String, Integer>> quantitiesByInventoryId) {
+        return applyBatch(quantitiesByInventoryId, "availableStock", RESERVE);
+    }
+
+    @Override
+    public Optional<String> releaseReservedStockBatch(Map<String, Map<String, Integer>> quantitiesByInventoryId) {
+        return applyBatch(quantitiesByInventoryId, "reservedStock", RELEASE);
+    }
+
+    @Override
+    public int releaseSweptStockLines(Map<String, StockLine> linesBySweepKey) {
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        linesBySweepKey.forEach((sweepKey, line) -> {
+            Query query = regularVariantQuery(line.getProductId(), line.getVariantSku())
+                    .addCriteria(Criteria.where(SWEPT_RESERVATIONS).ne(sweepKey))
+                    .addCriteria(sizeGuard(line.getSize(), "reservedStock", line.getQuantity()));
+            bulkOperations.updateOne(query, stockUpdate(Map.of(line.getSize(), line.getQuantity()), RELEASE)
+                    .push(SWEPT_RESERVATIONS, sweepKey));
+        });
+        return bulkOperations.execute().getModifiedCount();
+    }
+
+    @Override
+    public void forgetSweptReservations(Collection<String> sweepKeys) {
+        mongoTemplate.updateMulti(Query.query(Criteria.where(SWEPT_RESERVATIONS).in(sweepKeys)),
+                new Update().pullAll(SWEPT_RESERVATIONS, sweepKeys.toArray()), Inventory.class);
+    }
+
+    @Override
+    public boolean applyFlashSaleChanges(String inventoryId, String nodeId, Map<String, Integer> reservedDeltaBySize,
+                                         long journalSequence) {
+        // Flash sale counters already guarded availability, so only the sequence guards against applying twice
+        String sequencePath = FLASH_SALE_JOURNAL_SEQUENCES + "." + nodeId;
+        Query query = Query.query(Criteria.where("_id").is(inventoryId).orOperator(
+                Criteria.where(sequencePath).lt(journalSequence),
+                Criteria.where(sequencePath).exists(false)));
+        Update update = stockUpdate(reservedDeltaBySize, RESERVE).set(sequencePath, journalSequence);
+        return mongoTemplate.updateFirst(query, update, Inventory.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public long findLastFlashSaleJournalSequence(String nodeId) {
+        String sequencePath = FLASH_SALE_JOURNAL_SEQUENCES + "." + nodeId;
+        Query query = Query.query(Criteria.where(sequencePath).exists(true))
+                .with(Sort.by(Sort.Direction.DESC, sequencePath))
+                .limit(1);
+        query.fields().include(FLASH_SALE_JOURNAL_SEQUENCES);
+        Inventory inventory = mongoTemplate.findOne(query, Inventory.class);
+        return inventory == null ? 0 : inventory.getFlashSaleJournalSequences().get(nodeId);
+    }
+
+    @Override
+    public Optional<Inventory> acquireFlashSaleLease(String productId, String variantSku, String owner,
+                                                     LocalDateTime now, LocalDateTime leaseUntil) {
+        Query query = variantQuery(productId, variantSku).addCriteria(new Criteria().orOperator(
+                Criteria.where(FLASH_SALE_OWNER).is(null),
+                Criteria.where(FLASH_SALE_OWNER).is(owner),
+                Criteria.where(FLASH_SALE_LEASE_UNTIL).lt(now)));
+        Update update = new Update().set(FLASH_SALE_OWNER, owner).set(FLASH_SALE_LEASE_UNTIL, leaseUntil);
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), Inventory.class));
+    }
+
+    @Override
+    public boolean renewFlashSaleLease(String inventoryId, String owner, LocalDateTime leaseUntil) {
+        Query query = Query.query(Criteria.where("_id").is(inventoryId).and(FLASH_SALE_OWNER).is(owner));
+        return mongoTemplate.updateFirst(query, new Update().set(FLASH_SALE_LEASE_UNTIL, leaseUntil), Inventory.class)
+                .getMatchedCount() > 0;
+    }
+
+    @Override
+    public boolean releaseFlashSaleLease(String productId, String variantSku, String owner, LocalDateTime now) {
+        Query query = variantQuery(productId, variantSku).addCriteria(new Criteria().orOperator(
+                Criteria.where(FLASH_SALE_OWNER).is(owner),
+                Criteria.where(FLASH_SALE_LEASE_UNTIL).lt(now)));
+        Update update = new Update().unset(FLASH_SALE_OWNER).unset(FLASH_SALE_LEASE_UNTIL);
+        return mongoTemplate.updateFirst(query, update, Inventory.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public Optional<Inventory> addStock(String productId, String variantSku, String color, Map<String, Integer> quantityBySize) {
+        List<StockImportLine> lines = new ArrayList<>(quantityBySize.size());
+        quantityBySize.forEach((size, quantity) -> lines.add(new StockImportLine(productId, variantSku, color, size, quantity)));
+        createMissingVariantsAndSizes(lines);
+        return adjustStock(productId, variantSku, quantityBySize);
+    }
+
+    @Override
+    public Optional<Inventory> adjustStock(String productId, String variantSku, Map<String, Integer> deltaBySize) {
+        // Removed units are guarded by the available stock of their size, so reserved units are never removed
+        List<Criteria> guards = new ArrayList<>();
+        deltaBySize.forEach((size, delta) -> guards.add(delta < 0
+                ? sizeGuard(size, "availableStock", -delta)
+                : Criteria.where("variant.sizeStock.size").is(size)));
+        Query query = Query.query(Criteria.where("productId").is(productId).and("variantSku").is(variantSku)
+                .and(FLASH_SALE_OWNER).is(null).andOperator(guards));
+
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, stockQuantityUpdate(deltaBySize, LocalDateTime.now()),
+                FindAndModifyOptions.options().returnNew(true), Inventory.class));
+    }
+
+    /**
+     * Runs in three unordered bulk writes, each of which only depends on the previous one: create missing
+     * variants, then append missing sizes, then change the quantities. Every step is guarded by its filter, so
+     * concurrent imports or writes never duplicate a variant's size or lose stock. Only lines that add stock
+     * create variants and sizes.
+     * <p>
+     * The quantities are one upsert per variant on the document {@code _id}, like the batch reservations: a
+     * variant whose guard does not match fails to insert a second document with that {@code _id}, which reports
+     * its index while the other variants are applied. Sizes that lose units are guarded by their available
+     * stock, as in {@link #adjustStock}.
+     */
+    @Override
+    public List<StockImportLine> addStockBulk(List<StockImportLine> lines) {
+        Map<String, List<StockImportLine>> linesByVariant = createMissingVariantsAndSizes(lines);
+        Map<String, String> idsByVariant = findIds(linesByVariant.values());
+        LocalDateTime now = LocalDateTime.now();
+
+        List<StockImportLine> rejected = new ArrayList<>();
+        List<List<StockImportLine>> written = new ArrayList<>(linesByVariant.size());
+        BulkOperations quantities = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        for (Map.Entry<String, List<StockImportLine>> entry : linesByVariant.entrySet()) {
+            String inventoryId = idsByVariant.get(entry.getKey());
+            if (inventoryId == null) {
+                // Not created, as it only loses units, or deleted since it was created
+                rejected.addAll(entry.getValue());
+                continue;
+            }
+            Map<String, Integer> quantityBySize = new LinkedHashMap<>();
+            for (StockImportLine line : entry.getValue()) {
+                quantityBySize.merge(line.getSize(), line.getQuantity(), Integer::sum);
+            }
+            Query query = Query.query(Criteria.where("_id").is(inventoryId).and(FLASH_SALE_OWNER).is(null));
+            List<Criteria> guards = new ArrayList<>();
+            quantityBySize.forEach((size, delta) -> {
+                if (delta < 0) {
+                    guards.add(sizeGuard(size, "availableStock", -delta));
+                }
+            });
+            if (!guards.isEmpty()) {
+                query.addCriteria(new Criteria().andOperator(guards));
+            }
+            quantities.upsert(query, stockQuantityUpdate(quantityBySize, now));
+            written.add(entry.getValue());
+        }
+        if (written.isEmpty()) {
+            return rejected;
+        }
+        try {
+            quantities.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                rejected.addAll(written.get(error.getIndex()));
+            }
+        }
+        return rejected;
+    }
+
+    private Map<String, String> findIds(Collection<List<StockImportLine>> linesByVariant) {
+        Set<String> productIds = new HashSet<>();
+        Set<String> variantSkus = new HashSet<>();
+        for (List<StockImportLine> variantLines : linesByVariant) {
+            productIds.add(variantLines.get(0).getProductId());
+            variantSkus.add(variantLines.get(0).getVariantSku());
+        }
+        Query query = Query.query(Criteria.where("productId").in(productIds).and("variantSku").in(variantSkus));
+        query.fields().include("_id", "productId", "variantSku");
+        Map<String, String> idsByVariant = new HashMap<>();
+        for (Inventory inventory : mongoTemplate.find(query, Inventory.class)) {
+            idsByVariant.put(inventory.getProductId() + ":" + inventory.getVariantSku(), inventory.getId());
+        }
+        return idsByVariant;
+    }
+
+    /**
+     * Create the variants and append the sizes of the lines that add stock and do not exist yet, with no units.
+     *
+     * @return All the lines grouped by variant.
+     */
+    private Map<String, List<StockImportLine>> createMissingVariantsAndSizes(List<StockImportLine> lines) {
+        Map<String, List<StockImportLine>> linesByVariant = new LinkedHashMap<>();
+        Map<String, StockImportLine> firstAddedByVariant = new LinkedHashMap<>();
+        List<StockImportLine> addedLines = new ArrayList<>(lines.size());
+        for (StockImportLine line : lines) {
+            String key = line.getProductId() + ":" + line.getVariantSku();
+            linesByVariant.computeIfAbsent(key, k -> new ArrayList<>()).add(line);
+            if (line.getQuantity() > 0) {
+                firstAddedByVariant.putIfAbsent(key, line);
+                addedLines.add(line);
+            }
+        }
+        if (addedLines.isEmpty()) {
+            return linesByVariant;
+        }
+        LocalDateTime now = LocalDateTime.now();
+
+        BulkOperations variants = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        for (StockImportLine first : firstAddedByVariant.values()) {
+            variants.upsert(variantQuery(first.getProductId(), first.getVariantSku()), new Update()
+                    .setOnInsert("variant.color", first.getColor())
+                    .setOnInsert("variant.sizeStock", new ArrayList<>())
+                    .setOnInsert("stockQuantity", 0)
+                    .setOnInsert("reservedStock", 0)
+                    .setOnInsert("availableStock", 0)
+                    .setOnInsert("schemaVersion", Inventory.CURRENT_SCHEMA_VERSION)
+                    .setOnInsert("createdAt", now));
+        }
+        executeIgnoringDuplicates(variants);
+
+        BulkOperations sizes = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        for (StockImportLine line : addedLines) {
+            Query query = variantQuery(line.getProductId(), line.getVariantSku())
+                    .addCriteria(Criteria.where("variant.sizeStock.size").ne(line.getSize()));
+            sizes.updateOne(query, new Update().push("variant.sizeStock", new Inventory.SizeStock(line.getSize(), 0)));
+        }
+        sizes.execute();
+        return linesByVariant;
+    }
+
+    /**
+     * A concurrent upsert of the same variant can fail on the unique index, in which case the variant exists.
+     */
+    private void executeIgnoringDuplicates(BulkOperations bulkOperations) {
+        try {
+            bulkOperations.execute();
+        } catch (BulkOperationException e) {
+            for (BulkWriteError error : e.getErrors()) {
+                if (error.getCode() != DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Apply one guarded update per inventory document in a single ordered bulk write.
+     * <p>
+     * Every update is an upsert on the document {@code _id}. When its stock guard does not match,
+     * MongoDB tries to insert a second document with that {@code _id} and the write fails, which stops
+     * the ordered bulk write at that document and reports its index.
+     * <p>
+     * With a MongoTransactionManager the bulk write runs in a transaction, so a failure leaves every document
+     * as it was and no reader ever sees part of a batch. Without one, the documents changed before the failure
+     * are reversed by a second bulk write; between the two writes, and if the node stops before the second
+     * one, those documents hold the batch's stock.
+     */
+    private Optional<String> applyBatch(Map<String, Map<String, Integer>> quantitiesByInventoryId,
+                                        String guardedField, int direction) {
+        List<String> inventoryIds = new ArrayList<>(quantitiesByInventoryId.keySet());
+        if (transactionTemplate == null) {
+            return applyBatchWithCompensation(inventoryIds, quantitiesByInventoryId, guardedField, direction);
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        batchOperations(inventoryIds, quantitiesByInventoryId, guardedField, direction).execute());
+                return Optional.empty();
+            } catch (DataAccessException e) {
+                if (e instanceof BulkOperationException bulk && isGuardFailure(bulk.getErrors().get(0))) {
+                    // The transaction was rolled back, nothing to reverse
+                    return Optional.of(inventoryIds.get(bulk.getErrors().get(0).getIndex()));
+                }
+                // Another transaction changed one of the documents first
+                if (!isTransientTransactionError(e) || attempt == TRANSACTION_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private Optional<String> applyBatchWithCompensation(List<String> inventoryIds, Map<String, Map<String, Integer>> quantitiesByInventoryId,
+                                                        String guardedField, int direction) {
+        try {
+            batchOperations(inventoryIds, quantitiesByInventoryId, guardedField, direction).execute();
+            return Optional.empty();
+        } catch (BulkOperationException e) {
+            // The documents before the failed one were changed, whatever the failure was
+            BulkWriteError error = e.getErrors().get(0);
+            if (error.getIndex() > 0) {
+                BulkOperations compensation = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+                for (String inventoryId : inventoryIds.subList(0, error.getIndex())) {
+                    compensation.updateOne(Query.query(Criteria.where("_id").is(inventoryId)),
+                            stockUpdate(quantitiesByInventoryId.get(inventoryId), -direction));
+                }
+                compensation.execute();
+            }
+            if (!isGuardFailure(error)) {
+                throw e;
+            }
+            return Optional.of(inventoryIds.get(error.getIndex()));
+        }
+    }
+
+    /**
+     * A guarded upsert that matches no document goes on to create one with the same {@code _id}, which fails
+     * either on the {@code _id} index or, first, because the new document has no sizes for the array filters
+     * to update. Every other write error is a real failure.
+     */
+    private static boolean isGuardFailure(BulkWriteError error) {
+        return (error.getCode() == DUPLICATE_KEY && error.getMessage().contains(" index: _id_ "))
+                || (error.getCode() == BAD_VALUE && error.getMessage().contains("'variant.sizeStock' must exist"));
+    }
+
+    /**
+     * Whether MongoDB says the whole transaction can be retried, as after a write conflict with another one.
+     */
+    private static boolean isTransientTransactionError(DataAccessException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoException mongoException
+                    && mongoException.hasErrorLabel(MongoException.TRANSIENT_TRANSACTION_ERROR_LABEL)) {
+                return true;
+            }
+        }
+        return e instanceof BulkOperationException bulk
+                && bulk.getErrors().stream().anyMatch(error -> error.getCode() == WRITE_CONFLICT);
+    }
+
+    private BulkOperations batchOperations(List<String> inventoryIds, Map<String, Map<String, Integer>> quantitiesByInventoryId,
+                                           String guardedField, int direction) {
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Inventory.class);
+        for (String inventoryId : inventoryIds) {
+            Map<String, Integer> quantities = quantitiesByInventoryId.get(inventoryId);
+            Query query = Query.query(Criteria.where("_id").is(inventoryId).and(FLASH_SALE_OWNER).is(null)
+                    .andOperator(sizeGuards(quantities, guardedField)));
+            bulkOperations.upsert(query, stockUpdate(quantities, direction));
+        }
+        return bulkOperations;
+    }
+
+    /**
+     * Move quantities between available and reserved stock for the given sizes and the variant totals.
+     * A positive direction reserves, a negative direction releases. The same update puts the change in the
+     * outbox, so it cannot be applied without being published.
+     */
+    private Update stockUpdate(Map<String, Integer> quantities, int direction) {
+        Update update = new Update();
+        int totalQuantity = 0;
+        int index = 0;
+        for (Map.Entry<String, Integer> entry : quantities.entrySet()) {
+            String identifier = "size" + index++;
+            update.inc("variant.sizeStock.$[" + identifier + "].availableStock", -direction * entry.getValue())
+                    .inc("variant.sizeStock.$[" + identifier + "].reservedStock", direction * entry.getValue())
+                    .filterArray(Criteria.where(identifier + ".size").is(entry.getKey()));
+            totalQuantity += entry.getValue();
+        }
+        return update
+                .inc("reservedStock", direction * totalQuantity)
+                .inc("availableStock", -direction * totalQuantity)
+                .set("updatedAt", LocalDateTime.now())
+                .set("outboxPending", true)
+                .inc("outboxVersion", 1);
+    }
+
+    /**
+     * Add units to (or remove them from) the stock on hand of the given sizes and the variant totals, which
+     * moves the available stock by the same amount. Like {@link #stockUpdate}, it puts the change in the outbox.
+     */
+    private Update stockQuantityUpdate(Map<String, Integer> deltaBySize, LocalDateTime now) {
+        Update update = new Update();
+        int totalDelta = 0;
+        int index = 0;
+        for (Map.Entry<String, Integer> entry : deltaBySize.entrySet()) {
+            String identifier = "size" + index++;
+            update.inc("variant.sizeStock.$[" + identifier + "].stockQuantity", entry.getValue())
+                    .inc("variant.sizeStock.$[" + identifier + "].availableStock", entry.getValue())
+                    .filterArray(Criteria.where(identifier + ".size").is(entry.getKey()));
+            totalDelta += entry.getValue();
+        }
+        return update
+                .inc("stockQuantity", totalDelta)
+                .inc("availableStock", totalDelta)
+                .set("updatedAt", now)
+                .set("outboxPending", true)
+                .inc("outboxVersion", 1);
+    }
+
+    private List<Criteria> sizeGuards(Map<String, Integer> quantities, String guardedField) {
+        List<Criteria> guards = new ArrayList<>();
+        quantities.forEach((size, quantity) -> guards.add(sizeGuard(size, guardedField, quantity)));
+        return guards;
+    }
+
+    private Criteria sizeGuard(String size, String guardedField, int quantity) {
+        return Criteria.where("variant.sizeStock").elemMatch(
+                Criteria.where("size").is(size).and(guardedField).gte(quantity));
+    }
+
+    private Query regularVariantQuery(String productId, String variantSku) {
+        return variantQuery(productId, variantSku).addCriteria(Criteria.where(FLASH_SALE_OWNER).is(null));
+    }
+
+    private Query variantQuery(String productId, String variantSku) {
+        return Query.query(Criteria.where("productId").is(productId).and("variantSku").is(variantSku));
+    }
+}
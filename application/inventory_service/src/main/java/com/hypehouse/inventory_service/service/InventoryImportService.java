@@ -0,0 +1,201 @@
+package com.hypehouse.inventory_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hypehouse.inventory_service.cache.InventoryCache;
+import com.hypehouse.inventory_service.flashsale.FlashSaleInventory;
+import com.hypehouse.inventory_service.model.InventoryImportResult;
+import com.hypehouse.inventory_service.model.StockImportLine;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams large inventory files into MongoDB.
+ * <p>
+ * The file is read line by line and written in chunks of {@code inventory.import.chunk-size} records, so
+ * memory stays bounded whatever the file size. Records of one chunk for the same variant and size are summed,
+ * and each chunk costs three unordered bulk writes. A negative quantity removes units, only if that many are
+ * available; otherwise the records of the variant in that chunk are rejected. Imported variants are flagged in the outbox like any
+ * other change, so the Product service receives one update per variant rather than one per record.
+ */
+@Service
+public class InventoryImportService {
+
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String CSV = "text/csv";
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryImportService.class);
+    private static final List<String> CSV_COLUMNS = List.of("productId", "variantSku", "color", "size", "quantity");
+
+    private final InventoryRepository inventoryRepository;
+    private final InventoryCache inventoryCache;
+    private final FlashSaleInventory flashSaleInventory;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+
+    public InventoryImportService(InventoryRepository inventoryRepository,
+                                  InventoryCache inventoryCache,
+                                  FlashSaleInventory flashSaleInventory,
+                                  ObjectMapper objectMapper,
+                                  @Value("${inventory.import.chunk-size:1000}") int chunkSize) {
+        this.inventoryRepository = inventoryRepository;
+        this.inventoryCache = inventoryCache;
+        this.flashSaleInventory = flashSaleInventory;
+        this.objectMapper = objectMapper;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Change the stock by the quantities listed in a file. Invalid records, and records that could not be
+     * applied, are reported and skipped; the others are imported.
+     *
+     * @param input The file content, one record per line.
+     * @param contentType {@value #NDJSON} for one JSON object per line, or {@value #CSV} for comma separated
+     *                    values with a header naming the columns productId, variantSku, color, size and quantity.
+     * @return A summary of the import.
+     */
+    public InventoryImportResult importStock(InputStream input, String contentType) {
+        boolean csv = contentType != null && contentType.startsWith(CSV);
+        InventoryImportResult result = new InventoryImportResult();
+        Map<String, StockImportLine> chunk = new LinkedHashMap<>();
+        // Records summed into each line of the chunk, so that a rejected line rejects all of them
+        Map<String, Integer> recordsByKey = new HashMap<>();
+        int chunkRecords = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            int[] columns = csv ? parseHeader(reader.readLine()) : null;
+            long lineNumber = csv ? 1 : 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                StockImportLine record;
+                try {
+                    record = csv ? parseCsv(line, columns) : objectMapper.readValue(line, StockImportLine.class);
+                    validate(record);
+                } catch (IOException | RuntimeException e) {
+                    result.recordRejected(lineNumber, e.getMessage());
+                    continue;
+                }
+
+                String key = record.getProductId() + ":" + record.getVariantSku() + ":" + record.getSize();
+                StockImportLine existing = chunk.putIfAbsent(key, record);
+                if (existing != null) {
+                    existing.setQuantity(existing.getQuantity() + record.getQuantity());
+                }
+                recordsByKey.merge(key, 1, Integer::sum);
+                if (++chunkRecords == chunkSize) {
+                    writeChunk(chunk, recordsByKey, chunkRecords, result);
+                    chunk.clear();
+                    recordsByKey.clear();
+                    chunkRecords = 0;
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read inventory import.", e);
+        }
+        if (chunkRecords > 0) {
+            writeChunk(chunk, recordsByKey, chunkRecords, result);
+        }
+
+        log.info("Imported {} inventory records in {} chunks, rejected {}.",
+                result.getImportedRecords(), result.getChunks(), result.getRejectedRecords());
+        return result;
+    }
+
+    private void writeChunk(Map<String, StockImportLine> chunk, Map<String, Integer> recordsByKey, int records,
+                            InventoryImportResult result) {
+        List<StockImportLine> lines = new ArrayList<>(chunk.values());
+        List<StockImportLine> rejected = inventoryRepository.addStockBulk(lines);
+        for (StockImportLine line : lines) {
+            inventoryCache.evict(line.getProductId(), line.getVariantSku());
+        }
+        Map<String, String> reasonsByVariant = new HashMap<>();
+        for (StockImportLine line : rejected) {
+            int lineRecords = recordsByKey.get(line.getProductId() + ":" + line.getVariantSku() + ":" + line.getSize());
+            records -= lineRecords;
+            String reason = reasonsByVariant.computeIfAbsent(line.getProductId() + ":" + line.getVariantSku(),
+                    key -> rejectionReason(line));
+            result.recordRejected(lineRecords, "SKU " + line.getVariantSku() + " size " + line.getSize() + ": " + reason);
+        }
+        result.recordImported(records);
+        result.recordChunk();
+    }
+
+    /**
+     * Only runs for rejected variants, re-reading the inventory to tell why its update matched nothing.
+     */
+    private String rejectionReason(StockImportLine line) {
+        return inventoryRepository.findByProductIdAndVariantSku(line.getProductId(), line.getVariantSku())
+                .map(inventory -> inventory.getFlashSaleOwner() != null
+                        ? "Stock is managed by flash sale mode, disable it first."
+                        : "Not enough available stock to remove.")
+                .orElse("Inventory not found.");
+    }
+
+    private void validate(StockImportLine record) {
+        if (isBlank(record.getProductId()) || isBlank(record.getVariantSku()) || isBlank(record.getSize())) {
+            throw new RuntimeException("productId, variantSku and size are required.");
+        }
+        if (record.getQuantity() == 0) {
+            throw new RuntimeException("Quantity must be a non-zero integer for size: " + record.getSize());
+        }
+        if (flashSaleInventory.isActive(record.getProductId(), record.getVariantSku())) {
+            throw new RuntimeException("Stock of SKU " + record.getVariantSku() + " is managed by flash sale mode, disable it first.");
+        }
+    }
+
+    /**
+     * @return For each of {@link #CSV_COLUMNS}, its position in the file, or -1 for an optional column that is missing.
+     */
+    private int[] parseHeader(String header) {
+        if (header == null) {
+            throw new RuntimeException("CSV import must start with a header line.");
+        }
+        List<String> names = Arrays.stream(header.split(",")).map(String::trim).toList();
+        int[] columns = new int[CSV_COLUMNS.size()];
+        for (int i = 0; i < CSV_COLUMNS.size(); i++) {
+            columns[i] = names.indexOf(CSV_COLUMNS.get(i));
+            if (columns[i] < 0 && !CSV_COLUMNS.get(i).equals("color")) {
+                throw new RuntimeException("CSV header is missing column: " + CSV_COLUMNS.get(i));
+            }
+        }
+        return columns;
+    }
+
+    private StockImportLine parseCsv(String line, int[] columns) {
+        String[] values = line.split(",", -1);
+        String quantity = value(values, columns[4]);
+        try {
+            return new StockImportLine(value(values, columns[0]), value(values, columns[1]), value(values, columns[2]),
+                    value(values, columns[3]), quantity == null ? 0 : Integer.parseInt(quantity));
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Quantity is not a number: " + quantity);
+        }
+    }
+
+    private String value(String[] values, int column) {
+        return column >= 0 && column < values.length ? values[column].trim() : null;
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+}
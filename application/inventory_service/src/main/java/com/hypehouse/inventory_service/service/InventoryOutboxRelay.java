@@ -0,0 +1,313 @@
+package com.hypehouse.inventory_service.service;
+
+import com.hypehouse.common.model.InventoryUpdateMessage;
+import com.hypehouse.common.model.StockLevel;
+import com.hypehouse.common.model.StockLevelEvent;
+import com.hypehouse.inventory_service.config.RabbitConfig;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.Inventory.SizeStock;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.PartialIndexFilter;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Relays inventory changes from the outbox to the Product service.
+ * <p>
+ * The outbox is the {@code outboxPending} flag of the inventory documents: every change sets it in the same
+ * write, so no request waits for RabbitMQ and no change is lost when the broker is unavailable. Every
+ * {@code inventory.events.coalesce.window.ms} the relay reads the pending documents in batches, publishes
+ * their latest state with publisher confirms and clears the flag of the documents the broker acknowledged,
+ * unless they changed again in the meantime. Changes made within one window are coalesced into one message
+ * per productId and variantSku. A document may be published twice after a failure, which is harmless since
+ * every message carries the full state of the variant.
+ * <p>
+ * The relay also announces stock level transitions of single sizes: sold out, back in stock, low on stock
+ * (fewer than {@code inventory.events.low-stock-threshold} units available) and replenished. Each size
+ * remembers the last level announced for it, so a transition is sent once, with its own routing key, and
+ * nothing is sent while the level stays the same. Sizes seen for the first time only record their level.
+ * <p>
+ * The relay runs on its own thread rather than the shared {@code @Scheduled} one, so waiting for the broker never
+ * delays the flash sale persistence or the reservation sweeps, and a batch waits at most
+ * {@code inventory.outbox.confirm-timeout.ms} for all of its confirms together. The thread is started once the
+ * application context is refreshed, so a context that fails to start leaves none behind, and it is stopped
+ * before MongoDB and RabbitMQ are closed.
+ */
+@Component
+public class InventoryOutboxRelay implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryOutboxRelay.class);
+
+    private final MongoTemplate mongoTemplate;
+    private final RabbitTemplate inventoryRabbitTemplate;
+    private final int batchSize;
+    private final long confirmTimeoutMs;
+    private final int lowStockThreshold;
+
+    @Value("${inventory.events.coalesce.window.ms:200}")
+    private long coalesceWindowMs = 200;
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    public InventoryOutboxRelay(MongoTemplate mongoTemplate,
+                                RabbitTemplate inventoryRabbitTemplate,
+                                @Value("${inventory.outbox.batch-size:200}") int batchSize,
+                                @Value("${inventory.outbox.confirm-timeout.ms:5000}") long confirmTimeoutMs,
+                                @Value("${inventory.events.low-stock-threshold:5}") int lowStockThreshold) {
+        this.mongoTemplate = mongoTemplate;
+        this.inventoryRabbitTemplate = inventoryRabbitTemplate;
+        this.batchSize = batchSize;
+        this.confirmTimeoutMs = confirmTimeoutMs;
+        this.lowStockThreshold = lowStockThreshold;
+    }
+
+    /**
+     * Relay pending changes every {@code inventory.events.coalesce.window.ms} on a dedicated thread.
+     */
+    @Override
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("outbox-relay-");
+        // On shutdown the running relay is interrupted and given the confirm timeout to finish
+        scheduler.setAwaitTerminationMillis(confirmTimeoutMs);
+        scheduler.initialize();
+        scheduler.scheduleWithFixedDelay(this::relayPendingChanges, Duration.ofMillis(coalesceWindowMs));
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+        // Only pending documents are indexed, so the index stays as small as the outbox itself
+        mongoTemplate.indexOps(Inventory.class).ensureIndex(new Index().on("outboxPending", Sort.Direction.ASC)
+                .partial(PartialIndexFilter.of(Criteria.where("outboxPending").is(true))));
+    }
+
+    /**
+     * Notify the Product service that all inventory of a product was deleted. There is no document left to
+     * carry the change, so this message is sent right away and waits for the broker to confirm it.
+     *
+     * @param productId The ID of the product.
+     */
+    public void publishDelete(String productId) {
+        InventoryUpdateMessage message = new InventoryUpdateMessage();
+        message.setProductId(productId);
+        message.setVariantSku(null); // Indicating to delete all inventories for this product
+        message.setSizeStockMap(null); // Not needed for deletion
+
+        CorrelationData correlationData = send(RabbitConfig.INVENTORY_UPDATE_ROUTING_KEY, message, "delete:" + productId);
+        if (!isConfirmed(correlationData, confirmDeadline())) {
+            throw new RuntimeException("Failed to publish inventory deletion for product: " + productId);
+        }
+    }
+
+    /**
+     * Publish every pending change, one batch at a time.
+     *
+     * @return The number of documents published and cleared from the outbox.
+     */
+    public int relayPendingChanges() {
+        int relayed = 0;
+        int batchRelayed;
+        do {
+            batchRelayed = relayBatch();
+            relayed += batchRelayed;
+        } while (batchRelayed == batchSize);
+        return relayed;
+    }
+
+    /**
+     * Stop the relay thread and publish what is still pending.
+     */
+    @Override
+    public synchronized void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        scheduler = null;
+        relayPendingChanges();
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return scheduler != null;
+    }
+
+    private int relayBatch() {
+        Query pending = Query.query(Criteria.where("outboxPending").is(true)).limit(batchSize);
+        List<Inventory> inventories = mongoTemplate.find(pending, Inventory.class);
+        if (inventories.isEmpty()) {
+            return 0;
+        }
+
+        // Send the whole batch first, then wait for the confirms, so the broker round trips overlap
+        List<List<CorrelationData>> confirms = new ArrayList<>();
+        List<Map<String, StockLevel>> levelChanges = new ArrayList<>();
+        for (Inventory inventory : inventories) {
+            String correlationId = inventory.getId() + ":" + inventory.getOutboxVersion();
+            List<CorrelationData> inventoryConfirms = new ArrayList<>();
+            inventoryConfirms.add(send(RabbitConfig.INVENTORY_UPDATE_ROUTING_KEY, toUpdateMessage(inventory), correlationId));
+
+            Map<String, StockLevel> levels = new LinkedHashMap<>();
+            for (SizeStock sizeStock : inventory.getVariant().getSizeStock()) {
+                StockLevel level = StockLevel.of(sizeStock.getAvailableStock(), lowStockThreshold);
+                StockLevel previousLevel = sizeStock.getNotifiedLevel();
+                if (level == previousLevel) {
+                    continue;
+                }
+                levels.put(sizeStock.getSize(), level);
+                if (previousLevel != null) {
+                    inventoryConfirms.add(send(routingKey(previousLevel, level),
+                            toStockLevelEvent(inventory, sizeStock, previousLevel, level),
+                            correlationId + ":" + sizeStock.getSize()));
+                }
+            }
+            confirms.add(inventoryConfirms);
+            levelChanges.add(levels);
+        }
+
+        // One deadline for the whole batch, so a silent broker costs one confirm timeout per run, not one per message
+        long deadline = confirmDeadline();
+        BulkOperations acknowledged = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class);
+        int relayed = 0;
+        for (int i = 0; i < inventories.size(); i++) {
+            if (isConfirmed(confirms.get(i), deadline)) {
+                Inventory inventory = inventories.get(i);
+                acknowledged.updateOne(Query.query(Criteria.where("_id").is(inventory.getId())
+                                .and("outboxVersion").is(inventory.getOutboxVersion())),
+                        new Update().set("outboxPending", false));
+                // Recorded even if the document changed since, the next run compares its new state with these
+                if (!levelChanges.get(i).isEmpty()) {
+                    acknowledged.updateOne(Query.query(Criteria.where("_id").is(inventory.getId())),
+                            notifiedLevelsUpdate(levelChanges.get(i)));
+                }
+                relayed++;
+            }
+        }
+        if (relayed > 0) {
+            acknowledged.execute();
+        }
+        if (relayed < inventories.size()) {
+            log.warn("Broker did not confirm {} of {} inventory updates, they stay in the outbox.",
+                    inventories.size() - relayed, inventories.size());
+            // Retried on the next run instead of spinning on an unavailable broker
+            return 0;
+        }
+        log.debug("Relayed {} inventory updates.", relayed);
+        return relayed;
+    }
+
+    private CorrelationData send(String routingKey, Object message, String correlationId) {
+        CorrelationData correlationData = new CorrelationData(correlationId);
+        inventoryRabbitTemplate.convertAndSend(RabbitConfig.EXCHANGE_NAME, routingKey, message, correlationData);
+        return correlationData;
+    }
+
+    private long confirmDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMs);
+    }
+
+    private boolean isConfirmed(List<CorrelationData> correlationData, long deadline) {
+        boolean confirmed = true;
+        for (CorrelationData data : correlationData) {
+            // Wait for every confirm, so none is left outstanding for the next run
+            confirmed &= isConfirmed(data, deadline);
+        }
+        return confirmed;
+    }
+
+    /**
+     * Wait for the confirm until the deadline; once it passed, only confirms that already arrived count.
+     */
+    private boolean isConfirmed(CorrelationData correlationData, long deadline) {
+        try {
+            long remaining = Math.max(0, deadline - System.nanoTime());
+            return correlationData.getFuture().get(remaining, TimeUnit.NANOSECONDS).isAck();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            log.warn("No publisher confirm for {}: {}", correlationData.getId(), e.toString());
+            return false;
+        }
+    }
+
+    private static String routingKey(StockLevel previousLevel, StockLevel level) {
+        if (level == StockLevel.SOLD_OUT) {
+            return RabbitConfig.STOCK_SOLD_OUT_ROUTING_KEY;
+        }
+        if (previousLevel == StockLevel.SOLD_OUT) {
+            return RabbitConfig.STOCK_BACK_IN_STOCK_ROUTING_KEY;
+        }
+        return level == StockLevel.LOW_STOCK ? RabbitConfig.STOCK_LOW_ROUTING_KEY : RabbitConfig.STOCK_REPLENISHED_ROUTING_KEY;
+    }
+
+    private StockLevelEvent toStockLevelEvent(Inventory inventory, SizeStock sizeStock,
+                                              StockLevel previousLevel, StockLevel level) {
+        StockLevelEvent event = new StockLevelEvent();
+        event.setProductId(inventory.getProductId());
+        event.setVariantSku(inventory.getVariantSku());
+        event.setSize(sizeStock.getSize());
+        event.setPreviousLevel(previousLevel);
+        event.setLevel(level);
+        event.setAvailableStock(sizeStock.getAvailableStock());
+        event.setLowStockThreshold(lowStockThreshold);
+        event.setOccurredAt(System.currentTimeMillis());
+        return event;
+    }
+
+    private Update notifiedLevelsUpdate(Map<String, StockLevel> levels) {
+        Update update = new Update();
+        int index = 0;
+        for (Map.Entry<String, StockLevel> entry : levels.entrySet()) {
+            String identifier = "size" + index++;
+            update.set("variant.sizeStock.$[" + identifier + "].notifiedLevel", entry.getValue())
+                    .filterArray(Criteria.where(identifier + ".size").is(entry.getKey()));
+        }
+        return update;
+    }
+
+    /**
+     * Build the message the Product service expects: the available stock per size of the variant.
+     */
+    public static InventoryUpdateMessage toUpdateMessage(Inventory inventory) {
+        List<SizeStock> sizeStockList = inventory.getVariant().getSizeStock();
+        // Sized up front so the map never rehashes while it is filled
+        Map<String, Integer> sizeStockMap = new HashMap<>(sizeStockList.size() * 4 / 3 + 1);
+        for (SizeStock sizeStock : sizeStockList) {
+            sizeStockMap.put(sizeStock.getSize(), sizeStock.getAvailableStock());
+        }
+
+        InventoryUpdateMessage message = new InventoryUpdateMessage();
+        message.setProductId(inventory.getProductId());
+        message.setVariantSku(inventory.getVariantSku());
+        message.setSizeStockMap(sizeStockMap);
+        return message;
+    }
+}
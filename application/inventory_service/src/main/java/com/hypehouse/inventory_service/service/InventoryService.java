@@ -1,35 +1,55 @@
 package com.hypehouse.inventory_service.service;
 
-import com.hypehouse.common.model.InventoryUpdateMessage;
-import com.hypehouse.inventory_service.config.RabbitConfig;
+import com.hypehouse.inventory_service.cache.InventoryCache;
+import com.hypehouse.inventory_service.flashsale.FlashSaleInventory;
 import com.hypehouse.inventory_service.model.Inventory;
-import com.hypehouse.inventory_service.model.Inventory.Variant;
 import com.hypehouse.inventory_service.model.Inventory.SizeStock;
+import com.hypehouse.inventory_service.model.Reservation;
+import com.hypehouse.inventory_service.model.StockLine;
+import com.hypehouse.inventory_service.model.VariantAvailability;
+import com.hypehouse.inventory_service.model.VariantKey;
 import com.hypehouse.inventory_service.repository.InventoryRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 @Service
 public class InventoryService {
 
     private static final Logger log = LoggerFactory.getLogger(InventoryService.class);
-    @Autowired
-    private InventoryRepository inventoryRepository;
 
-    @Autowired
-    private RabbitTemplate inventoryRabbitTemplate;
+    private final InventoryRepository inventoryRepository;
+    private final InventoryOutboxRelay inventoryOutboxRelay;
+    private final ReservationLedger reservationLedger;
+    private final InventoryCache inventoryCache;
+    private final FlashSaleInventory flashSaleInventory;
+    private final int maxAvailabilityVariants;
+
+    public InventoryService(InventoryRepository inventoryRepository,
+                            InventoryOutboxRelay inventoryOutboxRelay,
+                            ReservationLedger reservationLedger,
+                            InventoryCache inventoryCache,
+                            FlashSaleInventory flashSaleInventory,
+                            @Value("${inventory.availability.max-variants:100}") int maxAvailabilityVariants) {
+        this.inventoryRepository = inventoryRepository;
+        this.inventoryOutboxRelay = inventoryOutboxRelay;
+        this.reservationLedger = reservationLedger;
+        this.inventoryCache = inventoryCache;
+        this.flashSaleInventory = flashSaleInventory;
+        this.maxAvailabilityVariants = maxAvailabilityVariants;
+    }
 
     /**
      * Add inventory for a product (could include adding quantities for sizes or creating a new variant).
@@ -44,68 +64,20 @@ public class InventoryService {
         if (sizeStock == null || sizeStock.isEmpty()) {
             throw new RuntimeException("Size stock map cannot be null or empty.");
         }
+        requireRegularMode(productId, variantSku);
 
-        // Convert map to list of SizeStock
-        List<SizeStock> sizeStockList = new ArrayList<>();
         sizeStock.forEach((size, quantity) -> {
             if (quantity <= 0) {
                 throw new RuntimeException("Quantity must be a positive integer for size: " + size);
             }
-            sizeStockList.add(new SizeStock(size, quantity));
         });
 
-        // Check if the inventory already exists for the given productId and variantSku
-        Optional<Inventory> existingInventory = inventoryRepository.findByProductIdAndVariantSku(productId, variantSku);
-        Inventory inventory;
-
-        if (existingInventory.isPresent()) {
-            // If the inventory already exists, update the sizes and quantities
-            inventory = existingInventory.get();
-            Variant variant = inventory.getVariant();
-            List<SizeStock> currentSizeStock = variant.getSizeStock();
-
-            // Add the new stock to the existing stock
-            sizeStockList.forEach(newSizeStock -> {
-                boolean found = false;
-                for (SizeStock currentSizeStockItem : currentSizeStock) {
-                    if (currentSizeStockItem.getSize().equals(newSizeStock.getSize())) {
-                        currentSizeStockItem.setStockQuantity(currentSizeStockItem.getStockQuantity() + newSizeStock.getStockQuantity());
-                        found = true;
-                        break;
-                    }
-                }
-                if (!found) {
-                    currentSizeStock.add(newSizeStock);
-                }
-            });
-
-            // Recalculate total stock and available stock
-            int newStockQuantity = currentSizeStock.stream().mapToInt(SizeStock::getStockQuantity).sum();
-            inventory.setStockQuantity(newStockQuantity);
-            inventory.setAvailableStock(newStockQuantity - inventory.getReservedStock());
-            inventory.setUpdatedAt(LocalDateTime.now());
-        } else {
-            // If inventory doesn't exist, create a new inventory entry
-            Variant newVariant = new Variant();
-            newVariant.setSizeStock(sizeStockList);
-            newVariant.setColor(color);
-
-            inventory = new Inventory();
-            inventory.setProductId(productId);
-            inventory.setVariantSku(variantSku);
-            inventory.setVariant(newVariant);
-            inventory.setStockQuantity(sizeStockList.stream().mapToInt(SizeStock::getStockQuantity).sum());
-            inventory.setReservedStock(0);
-            inventory.setAvailableStock(inventory.getStockQuantity());
-            inventory.setCreatedAt(LocalDateTime.now());
-            inventory.setUpdatedAt(LocalDateTime.now());
-        }
-
-        // Save the updated or new inventory
-        Inventory updatedInventory = inventoryRepository.save(inventory);
-
-        // Send message to Product service
-        sendInventoryUpdateMessage(updatedInventory);
+        // Create the variant and its missing sizes, then add the stock in one atomic update, so concurrent
+        // reservations and the outbox and journal fields of the document are never overwritten
+        Inventory updatedInventory = inventoryRepository.addStock(productId, variantSku, color, sizeStock)
+                .orElseThrow(() -> stockUpdateFailure(productId, variantSku, sizeStock.keySet().iterator().next(),
+                        "Inventory not found for SKU: " + variantSku));
+        inventoryCache.put(updatedInventory);
 
         return updatedInventory;
     }
@@ -123,59 +95,13 @@ public class InventoryService {
         if (quantity <= 0) {
             throw new RuntimeException("Quantity must be a positive integer.");
         }
+        requireRegularMode(productId, variantSku);
 
-        // Check if the inventory already exists for the given productId and variantSku
-        Optional<Inventory> existingInventory = inventoryRepository.findByProductIdAndVariantSku(productId, variantSku);
-        Inventory inventory;
-
-        if (existingInventory.isPresent()) {
-            // If the inventory already exists, update the sizes and quantities
-            inventory = existingInventory.get();
-            Variant variant = inventory.getVariant();
-            List<SizeStock> currentSizeStock = variant.getSizeStock();
-
-            // Find the SizeStock object with the matching size and update the quantity
-            boolean found = false;
-            for (SizeStock sizeStockItem : currentSizeStock) {
-                if (sizeStockItem.getSize().equals(size)) {
-                    sizeStockItem.setStockQuantity(sizeStockItem.getStockQuantity() + quantity);
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                currentSizeStock.add(new SizeStock(size, quantity));
-            }
-
-            // Recalculate total stock and available stock
-            int newStockQuantity = currentSizeStock.stream().mapToInt(SizeStock::getStockQuantity).sum();
-            inventory.setStockQuantity(newStockQuantity);
-            inventory.setAvailableStock(newStockQuantity - inventory.getReservedStock());
-            inventory.setUpdatedAt(LocalDateTime.now());
-        } else {
-            // If inventory doesn't exist, create a new inventory entry
-            Variant newVariant = new Variant();
-            List<SizeStock> sizeStockList = new ArrayList<>();
-            sizeStockList.add(new SizeStock(size, quantity));
-            newVariant.setSizeStock(sizeStockList);
-            newVariant.setColor("Default"); // Assuming "Default" color for simplicity, this can be customized
-
-            inventory = new Inventory();
-            inventory.setProductId(productId);
-            inventory.setVariantSku(variantSku);
-            inventory.setVariant(newVariant);
-            inventory.setStockQuantity(quantity);
-            inventory.setReservedStock(0);
-            inventory.setAvailableStock(quantity);
-            inventory.setCreatedAt(LocalDateTime.now());
-            inventory.setUpdatedAt(LocalDateTime.now());
-        }
-
-        // Save the updated or new inventory
-        Inventory updatedInventory = inventoryRepository.save(inventory);
-
-        // Send message to Product service
-        sendInventoryUpdateMessage(updatedInventory);
+        // Create the variant or size if needed and add the stock in one atomic update
+        // Assuming "Default" color for simplicity, this can be customized
+        Inventory updatedInventory = inventoryRepository.addStock(productId, variantSku, "Default", Map.of(size, quantity))
+                .orElseThrow(() -> stockUpdateFailure(productId, variantSku, size, "Inventory not found for SKU: " + variantSku));
+        inventoryCache.put(updatedInventory);
 
         return updatedInventory;
     }
@@ -208,25 +134,89 @@ public class InventoryService {
      * @return The inventory for the given product variant.
      */
     public Optional<Inventory> getInventoryByProductAndVariant(String productId, String variantSku) {
-        return inventoryRepository.findByProductIdAndVariantSku(productId, variantSku);
+        if (flashSaleInventory.isActive(productId, variantSku)) {
+            return Optional.of(flashSaleInventory.snapshot(productId, variantSku));
+        }
+        return inventoryCache.get(productId, variantSku,
+                () -> inventoryRepository.findByProductIdAndVariantSku(productId, variantSku));
+    }
+
+    /**
+     * Fetch the available stock per size of many variants at once (e.g., for a product listing page).
+     * Cached variants are answered from memory and all the others are loaded with one query.
+     *
+     * @param variants The product variants, at most {@code inventory.availability.max-variants} of them.
+     * @return The availability of the variants that have inventory, in the order requested.
+     */
+    public List<VariantAvailability> getAvailability(List<VariantKey> variants) {
+        if (variants == null || variants.isEmpty()) {
+            throw new RuntimeException("At least one variant is required.");
+        }
+        if (variants.size() > maxAvailabilityVariants) {
+            throw new RuntimeException("At most " + maxAvailabilityVariants + " variants can be requested at once.");
+        }
+
+        // Variants in flash sale mode are served from their counters, the others from the cache or MongoDB
+        Map<String, Inventory> inventoriesByVariant = new HashMap<>();
+        List<VariantKey> regularVariants = new ArrayList<>(variants.size());
+        for (VariantKey variant : variants) {
+            if (flashSaleInventory.isActive(variant.getProductId(), variant.getVariantSku())) {
+                Inventory inventory = flashSaleInventory.snapshot(variant.getProductId(), variant.getVariantSku());
+                inventoriesByVariant.put(variant.getProductId() + ":" + variant.getVariantSku(), inventory);
+            } else {
+                regularVariants.add(variant);
+            }
+        }
+        if (!regularVariants.isEmpty()) {
+            for (Inventory inventory : inventoryCache.getAll(regularVariants, this::findVariants)) {
+                inventoriesByVariant.put(inventory.getProductId() + ":" + inventory.getVariantSku(), inventory);
+            }
+        }
+
+        List<VariantAvailability> availability = new ArrayList<>(inventoriesByVariant.size());
+        for (VariantKey variant : variants) {
+            Inventory inventory = inventoriesByVariant.remove(variant.getProductId() + ":" + variant.getVariantSku());
+            if (inventory != null) {
+                Map<String, Integer> availableBySize = new LinkedHashMap<>();
+                for (SizeStock sizeStock : inventory.getVariant().getSizeStock()) {
+                    availableBySize.put(sizeStock.getSize(), sizeStock.getAvailableStock());
+                }
+                availability.add(new VariantAvailability(inventory.getProductId(), inventory.getVariantSku(), availableBySize));
+            }
+        }
+        return availability;
+    }
+
+    /**
+     * Load several variants with a single $in query. The query can match other combinations of the
+     * product IDs and SKUs, which are dropped.
+     */
+    private List<Inventory> findVariants(List<VariantKey> variants) {
+        Set<String> productIds = new HashSet<>();
+        Set<String> variantSkus = new HashSet<>();
+        Set<String> requested = new HashSet<>();
+        for (VariantKey variant : variants) {
+            productIds.add(variant.getProductId());
+            variantSkus.add(variant.getVariantSku());
+            requested.add(variant.getProductId() + ":" + variant.getVariantSku());
+        }
+        List<Inventory> inventories = new ArrayList<>(variants.size());
+        for (Inventory inventory : inventoryRepository.findByProductIdInAndVariantSkuIn(productIds, variantSkus)) {
+            if (requested.contains(inventory.getProductId() + ":" + inventory.getVariantSku())) {
+                inventories.add(inventory);
+            }
+        }
+        return inventories;
     }
 
     /**
      * Get the inventory object and handle errors if inventory or size is invalid.
+     * Reads from MongoDB rather than the cache, since it explains why a conditional update just failed.
      */
     private Inventory getInventoryWithValidSize(String productId, String variantSku, String size) {
-        Inventory inventory = getInventoryByProductAndVariant(productId, variantSku)
+        Inventory inventory = inventoryRepository.findByProductIdAndVariantSku(productId, variantSku)
                 .orElseThrow(() -> new RuntimeException("Inventory not found for SKU: " + variantSku));
-        Variant variant = inventory.getVariant();
-        List<SizeStock> sizeStock = variant.getSizeStock();
-        boolean found = false;
-        for (SizeStock sizeStockItem : sizeStock) {
-            if (sizeStockItem.getSize().equals(size)) {
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
+        if (inventory.getVariant().findSize(size) == null) {
             throw new RuntimeException("Size " + size + " not found in inventory.");
         }
         return inventory;
@@ -242,36 +232,11 @@ public class InventoryService {
      * @return The updated inventory.
      */
     public Inventory updateStockQuantity(String productId, String variantSku, String size, int quantity) {
-        Inventory inventory = getInventoryWithValidSize(productId, variantSku, size);
-        Variant variant = inventory.getVariant();
-        List<SizeStock> sizeStock = variant.getSizeStock();
-        boolean found = false;
-        for (SizeStock sizeStockItem : sizeStock) {
-            if (sizeStockItem.getSize().equals(size)) {
-                int currentStock = sizeStockItem.getStockQuantity();
-                int updatedStock = currentStock + quantity;
-                if (updatedStock < 0) {
-                    throw new RuntimeException("Insufficient stock available.");
-                }
-                sizeStockItem.setStockQuantity(updatedStock);
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            throw new RuntimeException("Size " + size + " not found in inventory.");
-        }
-
-        // Recalculate total stock and available stock
-        int newStockQuantity = sizeStock.stream().mapToInt(SizeStock::getStockQuantity).sum();
-        inventory.setStockQuantity(newStockQuantity);
-        inventory.setAvailableStock(newStockQuantity - inventory.getReservedStock());
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        Inventory updatedInventory = inventoryRepository.save(inventory);
-
-        // Send message to Product service
-        sendInventoryUpdateMessage(updatedInventory);
+        requireRegularMode(productId, variantSku);
+        // Reserved units cannot be removed, so the update is guarded by the available stock of the size
+        Inventory updatedInventory = inventoryRepository.adjustStock(productId, variantSku, Map.of(size, quantity))
+                .orElseThrow(() -> stockUpdateFailure(productId, variantSku, size, "Insufficient stock available."));
+        inventoryCache.put(updatedInventory);
 
         return updatedInventory;
     }
@@ -286,36 +251,10 @@ public class InventoryService {
      * @return The updated inventory.
      */
     public Inventory reduceStock(String productId, String variantSku, String size, int quantity) {
-        Inventory inventory = getInventoryWithValidSize(productId, variantSku, size);
-        Variant variant = inventory.getVariant();
-        List<SizeStock> sizeStock = variant.getSizeStock();
-        boolean found = false;
-        for (SizeStock sizeStockItem : sizeStock) {
-            if (sizeStockItem.getSize().equals(size)) {
-                int currentStock = sizeStockItem.getStockQuantity();
-                int newStock = currentStock - quantity;
-                if (newStock < 0) {
-                    throw new RuntimeException("Not enough stock to reduce.");
-                }
-                sizeStockItem.setStockQuantity(newStock);
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            throw new RuntimeException("Size " + size + " not found in inventory.");
-        }
-
-        // Recalculate total stock and available stock
-        int newStockQuantity = sizeStock.stream().mapToInt(SizeStock::getStockQuantity).sum();
-        inventory.setStockQuantity(newStockQuantity);
-        inventory.setAvailableStock(newStockQuantity - inventory.getReservedStock());
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        Inventory updatedInventory = inventoryRepository.save(inventory);
-
-        // Send message to Product service
-        sendInventoryUpdateMessage(updatedInventory);
+        requireRegularMode(productId, variantSku);
+        Inventory updatedInventory = inventoryRepository.adjustStock(productId, variantSku, Map.of(size, -quantity))
+                .orElseThrow(() -> stockUpdateFailure(productId, variantSku, size, "Not enough stock to reduce."));
+        inventoryCache.put(updatedInventory);
 
         return updatedInventory;
     }
@@ -394,6 +333,7 @@ public class InventoryService {
     }*/
     /**
      * Reserve stock for a specific product variant (e.g., when a customer adds to cart).
+     * The availability check and the counter updates run as one atomic update in MongoDB.
      *
      * @param productId The ID of the product.
      * @param variantSku The SKU of the variant.
@@ -402,52 +342,33 @@ public class InventoryService {
      * @return The updated inventory with reserved stock.
      */
     public Inventory reserveStock(String productId, String variantSku, String size, int quantity) {
-        // Fetch inventory for the specific product, variant, and size
-        Inventory inventory = getInventoryWithValidSize(productId, variantSku, size);
-        Variant variant = inventory.getVariant();
-        List<SizeStock> sizeStock = variant.getSizeStock();
-
-        boolean found = false;
-        // Loop through each size in the variant to find the correct size
-        for (SizeStock sizeStockItem : sizeStock) {
-            if (sizeStockItem.getSize().equals(size)) {
-                int currentStock = sizeStockItem.getStockQuantity();
-                int reservedStock = inventory.getReservedStock();  // Global reserved stock for the inventory
-
-                // Check if enough stock exists for the requested quantity
-                int availableStock = currentStock - reservedStock;
-                if (availableStock < quantity) {
-                    throw new RuntimeException("Not enough available stock to reserve.");
-                }
+        return reserveStock(new StockLine(productId, variantSku, size, quantity), null);
+    }
 
-                // Reserve stock for this specific size
-                sizeStockItem.setStockQuantity(currentStock - quantity);  // Update size stock
-                inventory.setReservedStock(reservedStock + quantity);  // Increase the global reserved stock
-                found = true;
-                break;
-            }
+    private Inventory reserveStock(StockLine line, String cartId) {
+        String productId = line.getProductId();
+        String variantSku = line.getVariantSku();
+        String size = line.getSize();
+        int quantity = line.getQuantity();
+        if (quantity <= 0) {
+            throw new RuntimeException("Quantity must be a positive integer.");
         }
 
-        // If size not found, throw an exception
-        if (!found) {
-            throw new RuntimeException("Size " + size + " not found in inventory.");
+        if (flashSaleInventory.isActive(productId, variantSku)) {
+            return flashSaleInventory.reserve(productId, variantSku, size, quantity, cartId)
+                    .orElseThrow(() -> new RuntimeException("Not enough available stock to reserve."));
         }
 
-        // Update available stock dynamically: inventory available stock = stock quantity - reserved stock
-        inventory.setAvailableStock(inventory.getStockQuantity() - inventory.getReservedStock());
-        inventory.setUpdatedAt(LocalDateTime.now());
-
-        // Save the updated inventory
-        Inventory updatedInventory = inventoryRepository.save(inventory);
-
-        // Send message to Product service to notify about inventory update
-        sendInventoryUpdateMessage(updatedInventory);
+        Inventory updatedInventory = inventoryRepository.reserveStock(productId, variantSku, size, quantity)
+                .orElseThrow(() -> stockUpdateFailure(productId, variantSku, size, "Not enough available stock to reserve."));
+        inventoryCache.put(updatedInventory);
 
         return updatedInventory;
     }
 
     /**
      * Release reserved stock if a customer cancels an order or removes items from their cart.
+     * The reserved stock check and the counter updates run as one atomic update in MongoDB.
      *
      * @param productId The ID of the product.
      * @param variantSku The SKU of the variant.
@@ -456,45 +377,415 @@ public class InventoryService {
      * @return The updated inventory.
      */
     public Inventory releaseReservedStock(String productId, String variantSku, String size, int quantity) {
-        // Fetch inventory for the specific product, variant, and size
-        Inventory inventory = getInventoryWithValidSize(productId, variantSku, size);
-        Variant variant = inventory.getVariant();
-        List<SizeStock> sizeStock = variant.getSizeStock();
+        return releaseReservedStock(new StockLine(productId, variantSku, size, quantity), null);
+    }
 
-        boolean found = false;
-        for (SizeStock sizeStockItem : sizeStock) {
-            if (sizeStockItem.getSize().equals(size)) {
-                int currentStock = sizeStockItem.getStockQuantity();
-                int reservedStock = inventory.getReservedStock();
+    private Inventory releaseReservedStock(StockLine line, String cartId) {
+        String productId = line.getProductId();
+        String variantSku = line.getVariantSku();
+        String size = line.getSize();
+        int quantity = line.getQuantity();
+        if (quantity <= 0) {
+            throw new RuntimeException("Quantity must be a positive integer.");
+        }
 
-                // Release reserved stock for this specific size
-                if (reservedStock < quantity) {
-                    throw new RuntimeException("No reserved stock to release.");
-                }
+        if (flashSaleInventory.isActive(productId, variantSku)) {
+            return flashSaleInventory.release(productId, variantSku, size, quantity, cartId)
+                    .orElseThrow(() -> new RuntimeException("No reserved stock to release."));
+        }
 
-                sizeStockItem.setStockQuantity(currentStock + quantity); // Update size stock
-                inventory.setReservedStock(reservedStock - quantity); // Decrease global reserved stock
-                found = true;
-                break;
+        Inventory updatedInventory = inventoryRepository.releaseReservedStock(productId, variantSku, size, quantity)
+                .orElseThrow(() -> stockUpdateFailure(productId, variantSku, size, "No reserved stock to release."));
+        inventoryCache.put(updatedInventory);
+
+        return updatedInventory;
+    }
+
+    /**
+     * Set the stock a cart holds for a line and record the hold in the reservation ledger, so that it is
+     * released automatically if the cart is abandoned. Only the difference from what the cart already holds
+     * is reserved or released, so a retried request does not reserve twice. The ledger is written first and
+     * reverted when the stock update fails, so a hold can never exist without its ledger entry.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param size The size of the product variant.
+     * @param quantity The quantity to reserve; with a cart, the total quantity the cart holds for the line.
+     * @param cartId The ID of the cart, or empty for a reservation that never expires.
+     * @return The updated inventory with reserved stock.
+     */
+    public Inventory reserveStock(String productId, String variantSku, String size, int quantity, String cartId) {
+        if (cartId == null || cartId.isEmpty()) {
+            return reserveStock(productId, variantSku, size, quantity);
+        }
+        if (quantity <= 0) {
+            throw new RuntimeException("Quantity must be a positive integer.");
+        }
+        return setCartReservation(new StockLine(productId, variantSku, size, quantity), cartId);
+    }
+
+    /**
+     * Release the stock a cart holds for a line and remove it from the reservation ledger. Releasing a line
+     * the cart no longer holds changes nothing, so a retried request does not release twice.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @param size The size of the product variant.
+     * @param quantity The quantity to release; ignored with a cart, which releases all it holds for the line.
+     * @param cartId The ID of the cart, or empty for a reservation made without one.
+     * @return The updated inventory.
+     */
+    public Inventory releaseReservedStock(String productId, String variantSku, String size, int quantity, String cartId) {
+        if (cartId == null || cartId.isEmpty()) {
+            return releaseReservedStock(productId, variantSku, size, quantity);
+        }
+        return setCartReservation(new StockLine(productId, variantSku, size, 0), cartId);
+    }
+
+    private Inventory setCartReservation(StockLine target, String cartId) {
+        List<StockLine> changes = reservationLedger.setReserved(cartId, List.of(target));
+        if (changes.isEmpty()) {
+            return getInventoryByProductAndVariant(target.getProductId(), target.getVariantSku())
+                    .orElseThrow(() -> new RuntimeException("Inventory not found for SKU: " + target.getVariantSku()));
+        }
+        StockLine change = changes.get(0);
+        try {
+            return change.getQuantity() > 0
+                    ? reserveStock(change, cartId)
+                    : releaseReservedStock(new StockLine(change.getProductId(), change.getVariantSku(), change.getSize(), -change.getQuantity()), cartId);
+        } catch (RuntimeException e) {
+            revertLedger(cartId, changes);
+            throw e;
+        }
+    }
+
+    /**
+     * Reserve stock for several lines at once (e.g., when a cart is checked out).
+     * Either every line is reserved or none of them is.
+     *
+     * @param lines The product variant sizes and quantities to reserve.
+     * @return The updated inventories touched by the batch.
+     */
+    public List<Inventory> reserveStockBatch(List<StockLine> lines) {
+        List<Inventory> inventories = getInventoriesForLines(lines);
+        Map<String, Map<String, Integer>> quantitiesByInventoryId = groupByInventory(lines, inventories);
+
+        Optional<String> failedInventoryId = inventoryRepository.reserveStockBatch(quantitiesByInventoryId);
+        if (failedInventoryId.isPresent()) {
+            throw new RuntimeException("Not enough available stock to reserve for SKU: "
+                    + getVariantSku(inventories, failedInventoryId.get()));
+        }
+
+        return cacheAll(inventoryRepository.findAllById(quantitiesByInventoryId.keySet()));
+    }
+
+    /**
+     * Release reserved stock for several lines at once (e.g., when a cart is cleared).
+     * Either every line is released or none of them is.
+     *
+     * @param lines The product variant sizes and quantities to release.
+     * @return The updated inventories touched by the batch.
+     */
+    public List<Inventory> releaseReservedStockBatch(List<StockLine> lines) {
+        List<Inventory> inventories = getInventoriesForLines(lines);
+        Map<String, Map<String, Integer>> quantitiesByInventoryId = groupByInventory(lines, inventories);
+
+        Optional<String> failedInventoryId = inventoryRepository.releaseReservedStockBatch(quantitiesByInventoryId);
+        if (failedInventoryId.isPresent()) {
+            throw new RuntimeException("No reserved stock to release for SKU: "
+                    + getVariantSku(inventories, failedInventoryId.get()));
+        }
+
+        return cacheAll(inventoryRepository.findAllById(quantitiesByInventoryId.keySet()));
+    }
+
+    /**
+     * Set the stock a cart holds for several lines and record the holds in the reservation ledger.
+     * Lines the cart holds more of than requested are released first, then the missing stock of the others
+     * is reserved, either for every line or for none of them.
+     *
+     * @param lines The product variant sizes and the total quantity the cart holds for each.
+     * @param cartId The ID of the cart, or empty for reservations that never expire.
+     * @return The updated inventories touched by the batch.
+     */
+    public List<Inventory> reserveStockBatch(List<StockLine> lines, String cartId) {
+        if (cartId == null || cartId.isEmpty()) {
+            return reserveStockBatch(lines);
+        }
+        for (StockLine line : lines) {
+            if (line.getQuantity() <= 0) {
+                throw new RuntimeException("Quantity must be a positive integer.");
             }
         }
+        return setCartReservations(lines, cartId);
+    }
 
-        // If size not found, throw an exception
-        if (!found) {
-            throw new RuntimeException("Size " + size + " not found in inventory.");
+    /**
+     * Release all the stock a cart holds for several lines and remove them from the reservation ledger.
+     *
+     * @param lines The product variant sizes to release; quantities are ignored with a cart.
+     * @param cartId The ID of the cart, or empty for reservations made without one.
+     * @return The updated inventories touched by the batch.
+     */
+    public List<Inventory> releaseReservedStockBatch(List<StockLine> lines, String cartId) {
+        if (cartId == null || cartId.isEmpty()) {
+            return releaseReservedStockBatch(lines);
         }
+        List<StockLine> targets = new ArrayList<>(lines.size());
+        for (StockLine line : lines) {
+            targets.add(new StockLine(line.getProductId(), line.getVariantSku(), line.getSize(), 0));
+        }
+        return setCartReservations(targets, cartId);
+    }
 
-        // Update available stock dynamically: inventory available stock = stock quantity - reserved stock
-        inventory.setAvailableStock(inventory.getStockQuantity() - inventory.getReservedStock());
-        inventory.setUpdatedAt(LocalDateTime.now());
+    private List<Inventory> setCartReservations(List<StockLine> targets, String cartId) {
+        if (targets.isEmpty()) {
+            throw new RuntimeException("Batch must contain at least one line.");
+        }
+        List<StockLine> changes = reservationLedger.setReserved(cartId, targets);
+        List<StockLine> toRelease = new ArrayList<>();
+        List<StockLine> toReserve = new ArrayList<>();
+        for (StockLine change : changes) {
+            if (change.getQuantity() < 0) {
+                toRelease.add(new StockLine(change.getProductId(), change.getVariantSku(), change.getSize(), -change.getQuantity()));
+            } else {
+                toReserve.add(change);
+            }
+        }
 
-        // Save the updated inventory
-        Inventory updatedInventory = inventoryRepository.save(inventory);
+        List<Inventory> inventories = List.of();
+        if (!toRelease.isEmpty()) {
+            try {
+                inventories = releaseReservedStockBatch(toRelease);
+            } catch (RuntimeException e) {
+                revertLedger(cartId, changes);
+                throw e;
+            }
+        }
+        if (!toReserve.isEmpty()) {
+            try {
+                inventories = reserveStockBatch(toReserve);
+            } catch (RuntimeException e) {
+                // The released lines stay released, the ledger already holds their targets
+                reservationLedger.recordReleased(cartId, toReserve);
+                throw e;
+            }
+        }
+        // A single batch that changed every line already returned all the inventories
+        if (changes.size() < targets.size() || (!toRelease.isEmpty() && !toReserve.isEmpty())) {
+            inventories = getInventoriesForLines(targets);
+        }
+        return inventories;
+    }
 
-        // Send message to Product service to notify about inventory update
-        sendInventoryUpdateMessage(updatedInventory);
+    /**
+     * Undo ledger changes whose stock update failed.
+     */
+    private void revertLedger(String cartId, List<StockLine> changes) {
+        List<StockLine> reserved = new ArrayList<>();
+        List<StockLine> released = new ArrayList<>();
+        for (StockLine change : changes) {
+            if (change.getQuantity() > 0) {
+                reserved.add(change);
+            } else {
+                released.add(new StockLine(change.getProductId(), change.getVariantSku(), change.getSize(), -change.getQuantity()));
+            }
+        }
+        if (!reserved.isEmpty()) {
+            reservationLedger.recordReleased(cartId, reserved);
+        }
+        if (!released.isEmpty()) {
+            reservationLedger.recordReserved(cartId, released);
+        }
+    }
 
-        return updatedInventory;
+    /**
+     * Release holds whose reservation expired. Unlike the batch release, every line is released on its own,
+     * so one line that was already released by other means does not keep the rest reserved. Lines of variants
+     * another node serves in flash sale mode are left to that node's counters: they are not released here and
+     * are returned, so that their ledger entries are swept again later. A hold released by an earlier sweep of
+     * the same claim is not released again.
+     *
+     * @param expired The claimed ledger entries of the expired holds.
+     * @return The entries that were deferred, out of {@code expired}.
+     */
+    public List<Reservation> releaseExpiredReservations(List<Reservation> expired) {
+        if (expired.isEmpty()) {
+            return List.of();
+        }
+        // Holds of variants in flash sale mode go back to the counters instead of MongoDB
+        List<Reservation> regular = new ArrayList<>();
+        int released = 0;
+        for (Reservation reservation : expired) {
+            if (!flashSaleInventory.isActive(reservation.getProductId(), reservation.getVariantSku())) {
+                regular.add(reservation);
+            } else if (flashSaleInventory.release(reservation.getProductId(), reservation.getVariantSku(),
+                    reservation.getSize(), reservation.getQuantity()).isPresent()) {
+                released++;
+            }
+        }
+        List<Reservation> deferred = new ArrayList<>();
+        if (!regular.isEmpty()) {
+            Set<String> leasedVariants = new HashSet<>();
+            for (Inventory inventory : getInventoriesForLines(linesOf(regular))) {
+                if (inventory.getFlashSaleOwner() != null) {
+                    leasedVariants.add(inventory.getProductId() + ":" + inventory.getVariantSku());
+                }
+            }
+            if (!leasedVariants.isEmpty()) {
+                regular.removeIf(reservation -> leasedVariants.contains(reservation.getProductId() + ":" + reservation.getVariantSku())
+                        && deferred.add(reservation));
+            }
+        }
+        if (!regular.isEmpty()) {
+            Map<String, StockLine> linesBySweepKey = new LinkedHashMap<>();
+            for (Reservation reservation : regular) {
+                linesBySweepKey.put(ReservationLedger.sweepKey(reservation), lineOf(reservation));
+            }
+            released += inventoryRepository.releaseSweptStockLines(linesBySweepKey);
+        }
+        for (Reservation reservation : regular) {
+            inventoryCache.evict(reservation.getProductId(), reservation.getVariantSku());
+        }
+        if (released < expired.size() - deferred.size()) {
+            log.warn("Released {} of {} expired reservations, the others were released before or no longer had reserved stock.",
+                    released, expired.size() - deferred.size());
+        }
+        if (!deferred.isEmpty()) {
+            log.info("Deferred {} expired reservations of variants in flash sale mode on another node.", deferred.size());
+        }
+        return deferred;
+    }
+
+    /**
+     * Forget which holds of completed sweeps were released, once their ledger entries are gone.
+     *
+     * @param completed The ledger entries whose sweep completed.
+     */
+    public void forgetSweptReservations(List<Reservation> completed) {
+        List<String> sweepKeys = new ArrayList<>(completed.size());
+        for (Reservation reservation : completed) {
+            sweepKeys.add(ReservationLedger.sweepKey(reservation));
+        }
+        inventoryRepository.forgetSweptReservations(sweepKeys);
+    }
+
+    private static List<StockLine> linesOf(List<Reservation> reservations) {
+        List<StockLine> lines = new ArrayList<>(reservations.size());
+        for (Reservation reservation : reservations) {
+            lines.add(lineOf(reservation));
+        }
+        return lines;
+    }
+
+    private static StockLine lineOf(Reservation reservation) {
+        return new StockLine(reservation.getProductId(), reservation.getVariantSku(),
+                reservation.getSize(), reservation.getQuantity());
+    }
+
+    /**
+     * Put a variant in flash sale mode, where reservations are served from in-memory counters.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     * @return The inventory of the variant.
+     */
+    public Inventory enableFlashSale(String productId, String variantSku) {
+        flashSaleInventory.enable(productId, variantSku);
+        return flashSaleInventory.snapshot(productId, variantSku);
+    }
+
+    /**
+     * Return a variant from flash sale mode to regular mode, once its reservations are stored.
+     *
+     * @param productId The ID of the product.
+     * @param variantSku The SKU of the variant.
+     */
+    public void disableFlashSale(String productId, String variantSku) {
+        flashSaleInventory.disable(productId, variantSku);
+        inventoryCache.evict(productId, variantSku);
+    }
+
+    /**
+     * Reject operations that would change the stock of a variant behind the flash sale counters.
+     */
+    private void requireRegularMode(String productId, String variantSku) {
+        if (flashSaleInventory.isActive(productId, variantSku)) {
+            throw flashSaleModeFailure(variantSku);
+        }
+    }
+
+    private RuntimeException flashSaleModeFailure(String variantSku) {
+        return new RuntimeException("Stock of SKU " + variantSku + " is managed by flash sale mode, disable it first.");
+    }
+
+    /**
+     * Load every inventory referenced by the lines with a single query.
+     */
+    private List<Inventory> getInventoriesForLines(List<StockLine> lines) {
+        if (lines == null || lines.isEmpty()) {
+            throw new RuntimeException("Batch must contain at least one line.");
+        }
+        Set<String> variantSkus = new HashSet<>();
+        for (StockLine line : lines) {
+            variantSkus.add(line.getVariantSku());
+        }
+        return inventoryRepository.findByVariantSkuIn(variantSkus);
+    }
+
+    /**
+     * Validate the lines and sum their quantities per inventory document and size, so that the
+     * batch becomes one update per document.
+     */
+    private Map<String, Map<String, Integer>> groupByInventory(List<StockLine> lines, List<Inventory> inventories) {
+        Map<String, Inventory> inventoriesByVariant = new HashMap<>();
+        for (Inventory inventory : inventories) {
+            inventoriesByVariant.put(inventory.getProductId() + ":" + inventory.getVariantSku(), inventory);
+        }
+
+        Map<String, Map<String, Integer>> quantitiesByInventoryId = new LinkedHashMap<>();
+        for (StockLine line : lines) {
+            if (line.getQuantity() <= 0) {
+                throw new RuntimeException("Quantity must be a positive integer.");
+            }
+            requireRegularMode(line.getProductId(), line.getVariantSku());
+            Inventory inventory = inventoriesByVariant.get(line.getProductId() + ":" + line.getVariantSku());
+            if (inventory == null) {
+                throw new RuntimeException("Inventory not found for SKU: " + line.getVariantSku());
+            }
+            if (inventory.getFlashSaleOwner() != null) {
+                // Served by another node
+                throw flashSaleModeFailure(line.getVariantSku());
+            }
+            if (inventory.getVariant().findSize(line.getSize()) == null) {
+                throw new RuntimeException("Size " + line.getSize() + " not found in inventory.");
+            }
+            quantitiesByInventoryId.computeIfAbsent(inventory.getId(), id -> new LinkedHashMap<>())
+                    .merge(line.getSize(), line.getQuantity(), Integer::sum);
+        }
+        return quantitiesByInventoryId;
+    }
+
+    private String getVariantSku(List<Inventory> inventories, String inventoryId) {
+        for (Inventory inventory : inventories) {
+            if (inventory.getId().equals(inventoryId)) {
+                return inventory.getVariantSku();
+            }
+        }
+        return inventoryId;
+    }
+
+    /**
+     * Build the error for a conditional update that matched nothing. Only runs on the failure path,
+     * re-reading the inventory to tell a missing inventory or size, or a variant another node serves in
+     * flash sale mode, apart from insufficient stock.
+     */
+    private RuntimeException stockUpdateFailure(String productId, String variantSku, String size, String message) {
+        Inventory inventory = getInventoryWithValidSize(productId, variantSku, size);
+        if (inventory.getFlashSaleOwner() != null) {
+            return flashSaleModeFailure(variantSku);
+        }
+        return new RuntimeException(message);
     }
 
     /**
@@ -523,30 +814,19 @@ public class InventoryService {
         for (Inventory inventory : inventories) {
             inventoryRepository.delete(inventory);
         }
+        inventoryCache.evictProduct(productId);
         // Send message to Product service to delete product
         sendInventoryDeleteMessage(productId);
     }
 
-    private void sendInventoryUpdateMessage(Inventory inventory) {
-        Map<String, Integer> sizeStockMap = new HashMap<>();
-        for (SizeStock sizeStock : inventory.getVariant().getSizeStock()) {
-            sizeStockMap.put(sizeStock.getSize(), sizeStock.getStockQuantity());
+    private List<Inventory> cacheAll(List<Inventory> updatedInventories) {
+        for (Inventory updatedInventory : updatedInventories) {
+            inventoryCache.put(updatedInventory);
         }
-
-        InventoryUpdateMessage message = new InventoryUpdateMessage();
-        message.setProductId(inventory.getProductId());
-        message.setVariantSku(inventory.getVariantSku());
-        message.setSizeStockMap(sizeStockMap);
-
-        inventoryRabbitTemplate.convertAndSend(RabbitConfig.EXCHANGE_NAME, RabbitConfig.INVENTORY_UPDATE_ROUTING_KEY, message);
+        return updatedInventories;
     }
 
     private void sendInventoryDeleteMessage(String productId) {
-        InventoryUpdateMessage message = new InventoryUpdateMessage();
-        message.setProductId(productId);
-        message.setVariantSku(null); // Indicating to delete all inventories for this product
-        message.setSizeStockMap(null); // Not needed for deletion
-
-        inventoryRabbitTemplate.convertAndSend(RabbitConfig.EXCHANGE_NAME, RabbitConfig.INVENTORY_UPDATE_ROUTING_KEY, message);
+        inventoryOutboxRelay.publishDelete(productId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.hypehouse.inventory_service.service;
+
+import com.hypehouse.inventory_service.model.Reservation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Periodically releases the stock held by reservations that expired, in batches of
+ * {@code inventory.reservation.sweep.batch-size} ledger entries.
+ */
+@Component
+public class ReservationExpirySweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(ReservationExpirySweeper.class);
+
+    private final ReservationLedger reservationLedger;
+    private final InventoryService inventoryService;
+    private final int batchSize;
+
+    public ReservationExpirySweeper(ReservationLedger reservationLedger,
+                                    InventoryService inventoryService,
+                                    @Value("${inventory.reservation.sweep.batch-size:500}") int batchSize) {
+        this.reservationLedger = reservationLedger;
+        this.inventoryService = inventoryService;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.reservation.sweep.interval.ms:60000}")
+    public void sweepExpiredReservations() {
+        int swept = 0;
+        int claimed;
+        do {
+            claimed = sweepBatch(LocalDateTime.now());
+            swept += claimed;
+        } while (claimed == batchSize);
+
+        if (swept > 0) {
+            log.info("Released {} expired reservations.", swept);
+        }
+    }
+
+    /**
+     * Claim one batch of expired entries, release their stock and take them off the ledger. A sweeper that
+     * dies in between leaves the entries claimed, and the one taking them over skips the holds it released. Entries of
+     * variants another node serves in flash sale mode stay claimed, and are claimed again after
+     * {@code inventory.reservation.sweep.claim-timeout}.
+     *
+     * @return The number of entries claimed.
+     */
+    int sweepBatch(LocalDateTime now) {
+        List<Reservation> expired = reservationLedger.claimExpired(now, batchSize);
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        Set<String> deferredIds = new HashSet<>();
+        for (Reservation reservation : inventoryService.releaseExpiredReservations(expired)) {
+            deferredIds.add(reservation.getId());
+        }
+        List<Reservation> released = new ArrayList<>(expired.size());
+        for (Reservation reservation : expired) {
+            if (!deferredIds.contains(reservation.getId())) {
+                released.add(reservation);
+            }
+        }
+        if (!released.isEmpty()) {
+            reservationLedger.completeSweep(released);
+            inventoryService.forgetSweptReservations(released);
+        }
+        return expired.size();
+    }
+}
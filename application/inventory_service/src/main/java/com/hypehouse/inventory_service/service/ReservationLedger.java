@@ -0,0 +1,267 @@
+package com.hypehouse.inventory_service.service;
+
+import com.hypehouse.inventory_service.model.Reservation;
+import com.hypehouse.inventory_service.model.StockLine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Keeps track of how much stock every cart line holds and until when.
+ * <p>
+ * Entries are keyed by cart and line, and every write for a cart pushes the expiry of all its lines forward,
+ * mirroring the TTL of the cart itself. The {@code expiresAt} index doubles as the priority queue the
+ * {@link ReservationExpirySweeper} drains, so expiry survives restarts and works with several instances.
+ */
+@Service
+public class ReservationLedger {
+
+    private final MongoTemplate mongoTemplate;
+    private final Duration reservationTtl;
+    private final Duration claimTimeout;
+
+    public ReservationLedger(MongoTemplate mongoTemplate,
+                             @Value("${inventory.reservation.ttl:15d}") Duration reservationTtl,
+                             @Value("${inventory.reservation.sweep.claim-timeout:5m}") Duration claimTimeout) {
+        this.mongoTemplate = mongoTemplate;
+        this.reservationTtl = reservationTtl;
+        this.claimTimeout = claimTimeout;
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+        mongoTemplate.indexOps(Reservation.class).ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC));
+        mongoTemplate.indexOps(Reservation.class).ensureIndex(new Index().on("cartId", Sort.Direction.ASC));
+    }
+
+    /**
+     * Record stock reserved for a cart, creating the lines that are not in the ledger yet.
+     *
+     * @param cartId The ID of the cart holding the stock.
+     * @param lines The reserved lines.
+     */
+    public void recordReserved(String cartId, List<StockLine> lines) {
+        LocalDateTime now = LocalDateTime.now();
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Reservation.class);
+        for (StockLine line : lines) {
+            Update update = new Update()
+                    .inc("quantity", line.getQuantity())
+                    .unset("sweepToken")
+                    .unset("claimId")
+                    .unset("claimedAt")
+                    .set("updatedAt", now)
+                    .setOnInsert("cartId", cartId)
+                    .setOnInsert("productId", line.getProductId())
+                    .setOnInsert("variantSku", line.getVariantSku())
+                    .setOnInsert("size", line.getSize())
+                    .setOnInsert("createdAt", now);
+            bulkOperations.upsert(lineQuery(cartId, line), update);
+        }
+        // The cart is active again, so none of its holds should expire before the cart does
+        bulkOperations.updateMulti(Query.query(Criteria.where("cartId").is(cartId)),
+                new Update().set("expiresAt", now.plus(reservationTtl)));
+        bulkOperations.execute();
+    }
+
+    /**
+     * Set the quantity a cart holds for each line, so that a request repeated after a timeout changes nothing.
+     * Every entry moves from the quantity read to its target with a compare-and-set, so concurrent retries of
+     * the same request cannot both claim the difference.
+     *
+     * @param cartId The ID of the cart holding the stock.
+     * @param targets The lines with the quantity the cart should hold, 0 to hold none. A line given more
+     *                than once holds the sum of its quantities.
+     * @return The lines whose quantity changed, with the change as quantity: positive for stock the caller
+     *         must reserve, negative for stock it must release. If that fails, the caller reverts the change
+     *         with {@link #recordReleased} or {@link #recordReserved}.
+     */
+    public List<StockLine> setReserved(String cartId, List<StockLine> targets) {
+        Map<String, StockLine> targetsById = new LinkedHashMap<>();
+        for (StockLine line : targets) {
+            String id = lineId(cartId, line.getProductId(), line.getVariantSku(), line.getSize());
+            StockLine target = targetsById.get(id);
+            targetsById.put(id, new StockLine(line.getProductId(), line.getVariantSku(), line.getSize(),
+                    target == null ? line.getQuantity() : target.getQuantity() + line.getQuantity()));
+        }
+
+        Map<String, Reservation> currentById = new HashMap<>();
+        for (Reservation reservation : mongoTemplate.find(
+                Query.query(Criteria.where("_id").in(targetsById.keySet())), Reservation.class)) {
+            currentById.put(reservation.getId(), reservation);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<StockLine> changes = new ArrayList<>();
+        for (Map.Entry<String, StockLine> entry : targetsById.entrySet()) {
+            Reservation current = currentById.get(entry.getKey());
+            int change = compareAndSet(cartId, entry.getKey(), entry.getValue(), current, now);
+            if (change != 0) {
+                StockLine line = entry.getValue();
+                changes.add(new StockLine(line.getProductId(), line.getVariantSku(), line.getSize(), change));
+            }
+        }
+
+        // The cart is active again, so none of its holds should expire before the cart does
+        mongoTemplate.updateMulti(Query.query(Criteria.where("cartId").is(cartId)),
+                new Update().set("expiresAt", now.plus(reservationTtl)), Reservation.class);
+        return changes;
+    }
+
+    /**
+     * Move one entry from the quantity it held when read to the target, reading it again until no concurrent
+     * write gets in between.
+     *
+     * @return The target minus the quantity held before.
+     */
+    private int compareAndSet(String cartId, String id, StockLine target, Reservation current, LocalDateTime now) {
+        while (true) {
+            if (current != null && current.getSweepToken() != null) {
+                throw new RuntimeException("Reservation of cart " + cartId + " expired and is being released.");
+            }
+            int held = current != null ? current.getQuantity() : 0;
+            if (held == target.getQuantity()) {
+                return 0;
+            }
+
+            if (current == null) {
+                try {
+                    mongoTemplate.insert(newEntry(id, cartId, target, now));
+                    return target.getQuantity();
+                } catch (DuplicateKeyException e) {
+                    // Created by a concurrent request, compare against what it holds
+                }
+            } else {
+                Query unchanged = Query.query(Criteria.where("_id").is(id).and("quantity").is(held)
+                        .and("sweepToken").exists(false));
+                boolean updated = target.getQuantity() == 0
+                        ? mongoTemplate.remove(unchanged, Reservation.class).getDeletedCount() > 0
+                        : mongoTemplate.updateFirst(unchanged, new Update()
+                                .set("quantity", target.getQuantity())
+                                .set("updatedAt", now), Reservation.class).getModifiedCount() > 0;
+                if (updated) {
+                    return target.getQuantity() - held;
+                }
+            }
+            current = mongoTemplate.findById(id, Reservation.class);
+        }
+    }
+
+    private Reservation newEntry(String id, String cartId, StockLine line, LocalDateTime now) {
+        Reservation reservation = new Reservation();
+        reservation.setId(id);
+        reservation.setCartId(cartId);
+        reservation.setProductId(line.getProductId());
+        reservation.setVariantSku(line.getVariantSku());
+        reservation.setSize(line.getSize());
+        reservation.setQuantity(line.getQuantity());
+        reservation.setExpiresAt(now.plus(reservationTtl));
+        reservation.setCreatedAt(now);
+        reservation.setUpdatedAt(now);
+        return reservation;
+    }
+
+    /**
+     * Record stock released by a cart. Lines that no longer hold any stock are removed from the ledger.
+     *
+     * @param cartId The ID of the cart holding the stock.
+     * @param lines The released lines.
+     */
+    public void recordReleased(String cartId, List<StockLine> lines) {
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Reservation.class);
+        for (StockLine line : lines) {
+            bulkOperations.updateOne(lineQuery(cartId, line), new Update()
+                    .inc("quantity", -line.getQuantity())
+                    .set("updatedAt", LocalDateTime.now()));
+        }
+        bulkOperations.remove(Query.query(Criteria.where("cartId").is(cartId).and("quantity").lte(0)));
+        bulkOperations.execute();
+    }
+
+    /**
+     * Claim up to {@code limit} expired entries, oldest expiry first, so that no other sweeper releases them.
+     * Claims left behind by a sweeper that died are taken over once they are older than the claim timeout.
+     * An entry keeps the sweep token of its first claim, so a sweeper taking over can tell from
+     * {@link #sweepKey} which holds the one before it already released.
+     *
+     * @param now The current time.
+     * @param limit The maximum number of entries to claim.
+     * @return The claimed entries.
+     */
+    public List<Reservation> claimExpired(LocalDateTime now, int limit) {
+        Criteria claimable = Criteria.where("expiresAt").lte(now).orOperator(
+                Criteria.where("sweepToken").exists(false),
+                Criteria.where("claimedAt").lt(now.minus(claimTimeout)));
+
+        Query candidates = Query.query(claimable).with(Sort.by(Sort.Direction.ASC, "expiresAt")).limit(limit);
+        candidates.fields().include("_id");
+        List<String> ids = new ArrayList<>();
+        for (Reservation reservation : mongoTemplate.find(candidates, Reservation.class)) {
+            ids.add(reservation.getId());
+        }
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+
+        // Re-checking the condition makes the claim safe when sweepers race for the same entries
+        String claimId = UUID.randomUUID().toString();
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids).and("expiresAt").lte(now)
+                        .and("sweepToken").exists(false)),
+                new Update().set("sweepToken", claimId).set("claimId", claimId).set("claimedAt", now), Reservation.class);
+        mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids).and("expiresAt").lte(now)
+                        .and("claimedAt").lt(now.minus(claimTimeout))),
+                new Update().set("claimId", claimId).set("claimedAt", now), Reservation.class);
+        return mongoTemplate.find(Query.query(Criteria.where("claimId").is(claimId)), Reservation.class);
+    }
+
+    /**
+     * Identify the release of a claimed entry's stock, the same for every sweeper that claims the entry until
+     * the sweep completes.
+     */
+    public static String sweepKey(Reservation reservation) {
+        return reservation.getSweepToken() + ":" + reservation.getId();
+    }
+
+    /**
+     * Remove the quantities released by a sweep from the ledger. Entries only disappear when nothing was
+     * reserved for the line since it was claimed.
+     *
+     * @param released The entries whose stock was released.
+     */
+    public void completeSweep(List<Reservation> released) {
+        BulkOperations bulkOperations = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Reservation.class);
+        List<String> ids = new ArrayList<>();
+        for (Reservation reservation : released) {
+            bulkOperations.updateOne(Query.query(Criteria.where("_id").is(reservation.getId())), new Update()
+                    .inc("quantity", -reservation.getQuantity())
+                    .set("updatedAt", LocalDateTime.now()));
+            ids.add(reservation.getId());
+        }
+        bulkOperations.remove(Query.query(Criteria.where("_id").in(ids).and("quantity").lte(0)));
+        bulkOperations.execute();
+    }
+
+    public static String lineId(String cartId, String productId, String variantSku, String size) {
+        return cartId + ":" + productId + ":" + variantSku + ":" + size;
+    }
+
+    private Query lineQuery(String cartId, StockLine line) {
+        return Query.query(Criteria.where("_id").is(lineId(cartId, line.getProductId(), line.getVariantSku(), line.getSize())));
+    }
+}
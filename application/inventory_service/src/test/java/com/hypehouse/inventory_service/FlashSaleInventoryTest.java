@@ -0,0 +1,212 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.flashsale.FlashSaleInventory;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryService;
+import com.hypehouse.inventory_service.service.ReservationLedger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FlashSaleInventoryTest {
+
+    @TempDir
+    Path tempDir;
+
+    private InventoryTestFixture fixture;
+    private InventoryRepository inventoryRepository;
+    private InventoryService inventoryService;
+    private ReservationLedger reservationLedger;
+    private FlashSaleInventory flashSaleInventory;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        inventoryRepository = fixture.inventoryRepository();
+        reservationLedger = fixture.reservationLedger();
+        flashSaleInventory = startFlashSaleInventory();
+        inventoryService = serviceOn(flashSaleInventory);
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 50, "10", 5));
+        inventoryService.enableFlashSale("FV2305-900", "FV2305-900-100");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void neverOversellsUnderConcurrentReservations() throws Exception {
+        int attempts = 400;
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                try {
+                    inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+                    return true;
+                } catch (RuntimeException e) {
+                    return false;
+                }
+            }));
+        }
+        start.countDown();
+        int reserved = 0;
+        for (Future<Boolean> result : results) {
+            reserved += result.get() ? 1 : 0;
+        }
+        executor.shutdown();
+        assertEquals(true, executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(50, reserved);
+        assertSize(inventoryService.getInventoryByProductAndVariant("FV2305-900", "FV2305-900-100").orElseThrow(), "9", 0, 50);
+
+        // MongoDB catches up when the journal is applied
+        flashSaleInventory.applyJournal();
+        assertSize(storedInventory(), "9", 0, 50);
+        assertEquals(50, storedInventory().getReservedStock());
+        assertEquals(5, storedInventory().getAvailableStock());
+    }
+
+    @Test
+    void recoversJournaledReservationsAfterACrash() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 3);
+        flashSaleInventory.applyJournal();
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2);
+        inventoryService.releaseReservedStock("FV2305-900", "FV2305-900-100", "9", 1);
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "10", 4);
+        // The process dies before these changes are applied
+        assertSize(storedInventory(), "9", 47, 3);
+
+        startFlashSaleInventory();
+        assertSize(storedInventory(), "9", 46, 4);
+        assertSize(storedInventory(), "10", 1, 4);
+
+        // Recovering again finds an empty journal and changes nothing
+        startFlashSaleInventory();
+        assertSize(storedInventory(), "9", 46, 4);
+    }
+
+    @Test
+    void recoversACheckpointCutShortByACrash() {
+        inventoryService.addInventory("FV2305-900", "FV2305-900-200", "White", Map.of("9", 10));
+        inventoryService.enableFlashSale("FV2305-900", "FV2305-900-200");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 3, "cart-1");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-200", "9", 2);
+
+        // The checkpoint updates the first document with the last sequence, then the process dies
+        inventoryRepository.applyFlashSaleChanges(storedInventory().getId(), flashSaleInventory.getNodeId(), Map.of("9", 3), 2);
+
+        startFlashSaleInventory();
+        assertSize(storedInventory(), "9", 47, 3);
+        assertSize(inventoryRepository.findByProductIdAndVariantSku("FV2305-900", "FV2305-900-200").orElseThrow(), "9", 8, 2);
+    }
+
+    @Test
+    void rejectsStockAdjustmentsWhileEnabled() {
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> inventoryService.addStock("FV2305-900", "FV2305-900-100", "9", 10));
+        assertEquals("Stock of SKU FV2305-900-100 is managed by flash sale mode, disable it first.", e.getMessage());
+
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2);
+        inventoryService.disableFlashSale("FV2305-900", "FV2305-900-100");
+        inventoryService.addStock("FV2305-900", "FV2305-900-100", "9", 10);
+        assertSize(storedInventory(), "9", 58, 2);
+    }
+
+    @Test
+    void onlyOneNodeServesAVariant() {
+        FlashSaleInventory otherNode = startNode("node-b", 10000);
+        InventoryService otherService = serviceOn(otherNode);
+
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> otherService.enableFlashSale("FV2305-900", "FV2305-900-100"));
+        assertEquals("Flash sale of SKU FV2305-900-100 is served by another node.", e.getMessage());
+        e = assertThrows(RuntimeException.class,
+                () -> otherService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1));
+        assertEquals("Stock of SKU FV2305-900-100 is managed by flash sale mode, disable it first.", e.getMessage());
+        assertThrows(RuntimeException.class, () -> otherService.disableFlashSale("FV2305-900", "FV2305-900-100"));
+
+        // Once the serving node hands it back, the other node can take it
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2);
+        inventoryService.disableFlashSale("FV2305-900", "FV2305-900-100");
+        otherService.enableFlashSale("FV2305-900", "FV2305-900-100");
+        otherService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+        assertSize(otherService.getInventoryByProductAndVariant("FV2305-900", "FV2305-900-100").orElseThrow(), "9", 47, 3);
+    }
+
+    @Test
+    void anotherNodeTakesOverAVariantWhoseLeaseRanOut() throws Exception {
+        inventoryService.addInventory("FV2305-900", "FV2305-900-200", "White", Map.of("9", 10));
+        // Both nodes start first, so the short lease does not run out while a journal file is created
+        FlashSaleInventory stalledNode = startNode("node-a", 50);
+        FlashSaleInventory otherNode = startNode("node-b", 10000);
+        stalledNode.enable("FV2305-900", "FV2305-900-200");
+        stalledNode.reserve("FV2305-900", "FV2305-900-200", "9", 2);
+        assertThrows(RuntimeException.class, () -> otherNode.enable("FV2305-900", "FV2305-900-200"));
+
+        // The stalled node does not renew in time, and stops reserving
+        Thread.sleep(100);
+        assertThrows(RuntimeException.class, () -> stalledNode.reserve("FV2305-900", "FV2305-900-200", "9", 1));
+        otherNode.enable("FV2305-900", "FV2305-900-200");
+
+        // Its next checkpoint stores its changes, then finds the lease lost and stops serving the variant
+        stalledNode.applyJournal();
+        assertEquals(false, stalledNode.isActive("FV2305-900", "FV2305-900-200"));
+        assertEquals(true, otherNode.isActive("FV2305-900", "FV2305-900-200"));
+        otherNode.reserve("FV2305-900", "FV2305-900-200", "9", 1);
+        otherNode.applyJournal();
+        assertSize(inventoryRepository.findByProductIdAndVariantSku("FV2305-900", "FV2305-900-200").orElseThrow(), "9", 7, 3);
+    }
+
+    private FlashSaleInventory startNode(String nodeId, long leaseMs) {
+        FlashSaleInventory instance = new FlashSaleInventory(inventoryRepository, tempDir.resolve(nodeId + ".journal"),
+                65536, 4, List.of(), nodeId, leaseMs);
+        instance.start();
+        return instance;
+    }
+
+    private InventoryService serviceOn(FlashSaleInventory node) {
+        return fixture.inventoryService()
+                .reservationLedger(reservationLedger)
+                .flashSaleInventory(node)
+                .build();
+    }
+
+    private FlashSaleInventory startFlashSaleInventory() {
+        FlashSaleInventory instance = new FlashSaleInventory(inventoryRepository, tempDir.resolve("flash-sale.journal"), 4, List.of());
+        instance.start();
+        return instance;
+    }
+
+    private Inventory storedInventory() {
+        return inventoryRepository.findByProductIdAndVariantSku("FV2305-900", "FV2305-900-100").orElseThrow();
+    }
+
+    private void assertSize(Inventory inventory, String size, int available, int reserved) {
+        Inventory.SizeStock sizeStock = inventory.getVariant().getSizeStock().stream()
+                .filter(s -> s.getSize().equals(size))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(available, sizeStock.getAvailableStock());
+        assertEquals(reserved, sizeStock.getReservedStock());
+    }
+}
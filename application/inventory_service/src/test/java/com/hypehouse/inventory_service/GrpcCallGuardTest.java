@@ -0,0 +1,136 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.common.grpc.InventoryServiceGrpc;
+import com.hypehouse.common.grpc.ReserveStockRequest;
+import com.hypehouse.common.grpc.ReserveStockResponse;
+import com.hypehouse.inventory_service.grpc.GrpcCallGuard;
+import com.hypehouse.inventory_service.grpc.InventoryGrpcServer;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.service.InventoryService;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class GrpcCallGuardTest {
+
+    private ExecutorService executor;
+    private Server server;
+    private ManagedChannel channel;
+    private InventoryService inventoryService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        inventoryService = mock(InventoryService.class);
+        executor = Executors.newFixedThreadPool(4);
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void rejectsCallsOverTheLimitAndRecordsLatency() throws Exception {
+        // One call at a time, and a second call is rejected at once
+        startServer("platform", 1);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        Inventory inventory = new Inventory();
+        inventory.setAvailableStock(4);
+        when(inventoryService.reserveStock(anyString(), anyString(), anyString(), anyInt(), anyString())).thenAnswer(invocation -> {
+            entered.countDown();
+            assertTrue(proceed.await(5, TimeUnit.SECONDS));
+            return inventory;
+        });
+
+        ListenableFuture<ReserveStockResponse> first = InventoryServiceGrpc.newFutureStub(channel).reserveStock(request());
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertEquals(1.0, meterRegistry.get("inventory.grpc.server.calls.in-flight").gauge().value());
+
+        StatusRuntimeException rejected = assertThrows(StatusRuntimeException.class,
+                () -> InventoryServiceGrpc.newBlockingStub(channel).reserveStock(request()));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, rejected.getStatus().getCode());
+
+        proceed.countDown();
+        assertTrue(first.get(5, TimeUnit.SECONDS).getSuccess());
+        // The permit is back, so the next call goes through
+        assertTrue(InventoryServiceGrpc.newBlockingStub(channel).reserveStock(request()).getSuccess());
+
+        assertEquals(1.0, meterRegistry.get("inventory.grpc.server.calls.rejected").counter().count());
+        assertEquals(2, meterRegistry.get("inventory.grpc.server.latency")
+                .tags("method", "ReserveStock", "status", "OK").timer().count());
+        assertEquals(1, meterRegistry.get("inventory.grpc.server.latency")
+                .tags("method", "ReserveStock", "status", "RESOURCE_EXHAUSTED").timer().count());
+        assertEquals(0.0, meterRegistry.get("inventory.grpc.server.calls.in-flight").gauge().value());
+    }
+
+    @Test
+    void doesNotLimitCallsWithoutAServerExecutor() throws Exception {
+        startServer("", 1);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        Inventory inventory = new Inventory();
+        inventory.setAvailableStock(4);
+        when(inventoryService.reserveStock(anyString(), anyString(), anyString(), anyInt(), anyString())).thenAnswer(invocation -> {
+            entered.countDown();
+            assertTrue(proceed.await(5, TimeUnit.SECONDS));
+            return inventory;
+        }).thenReturn(inventory);
+
+        ListenableFuture<ReserveStockResponse> first = InventoryServiceGrpc.newFutureStub(channel).reserveStock(request());
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertTrue(InventoryServiceGrpc.newBlockingStub(channel).reserveStock(request()).getSuccess());
+
+        proceed.countDown();
+        assertTrue(first.get(5, TimeUnit.SECONDS).getSuccess());
+        assertEquals(0.0, meterRegistry.get("inventory.grpc.server.calls.rejected").counter().count());
+    }
+
+    private void startServer(String serverExecutor, int maxConcurrentCalls) throws IOException {
+        String serverName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(serverName)
+                .executor(executor)
+                .addService(ServerInterceptors.intercept(new InventoryGrpcServer(inventoryService, executor, 2),
+                        new GrpcCallGuard(meterRegistry, serverExecutor, maxConcurrentCalls)))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+    }
+
+    private ReserveStockRequest request() {
+        return ReserveStockRequest.newBuilder()
+                .setProductId("FV2305-900")
+                .setVariantSku("FV2305-900-100")
+                .setSize("9")
+                .setQuantity(1)
+                .setCartId("cart-1")
+                .build();
+    }
+}
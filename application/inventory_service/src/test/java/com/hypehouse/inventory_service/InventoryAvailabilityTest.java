@@ -0,0 +1,82 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.cache.InventoryCache;
+import com.hypehouse.inventory_service.model.VariantAvailability;
+import com.hypehouse.inventory_service.model.VariantKey;
+import com.hypehouse.inventory_service.service.InventoryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InventoryAvailabilityTest {
+
+    private InventoryTestFixture fixture;
+    private SimpleMeterRegistry meterRegistry;
+    private InventoryCache inventoryCache;
+    private InventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        meterRegistry = new SimpleMeterRegistry();
+        inventoryCache = new InventoryCache(meterRegistry, 1000, Duration.ofMinutes(10));
+        inventoryService = fixture.inventoryService().inventoryCache(inventoryCache).build();
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 5));
+        inventoryService.addInventory("FV2305-900", "FV2305-900-200", "White", Map.of("9", 2, "10", 3));
+        inventoryService.addInventory("DZ5485-612", "DZ5485-612-100", "Red", Map.of("8", 1));
+        inventoryService.reserveStock("DZ5485-612", "DZ5485-612-100", "8", 1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void answersManyVariantsFromTheCacheAndOneQuery() {
+        // Only the first variant stays cached
+        inventoryCache.evict("FV2305-900", "FV2305-900-200");
+        inventoryCache.evict("DZ5485-612", "DZ5485-612-100");
+
+        List<VariantAvailability> availability = inventoryService.getAvailability(List.of(
+                new VariantKey("DZ5485-612", "DZ5485-612-100"),
+                new VariantKey("FV2305-900", "FV2305-900-100"),
+                new VariantKey("FV2305-900", "FV2305-900-200"),
+                // Both IDs exist, but not together
+                new VariantKey("DZ5485-612", "FV2305-900-100"),
+                new VariantKey("CW2288-111", "CW2288-111-100")));
+
+        assertEquals(3, availability.size());
+        assertEquals("DZ5485-612-100", availability.get(0).getVariantSku());
+        assertEquals(Map.of("8", 0), availability.get(0).getAvailableBySize());
+        assertEquals(Map.of("9", 5), availability.get(1).getAvailableBySize());
+        assertEquals(Map.of("9", 2, "10", 3), availability.get(2).getAvailableBySize());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+
+        // The loaded variants are cached for the next page view
+        inventoryService.getAvailability(List.of(
+                new VariantKey("FV2305-900", "FV2305-900-200"),
+                new VariantKey("DZ5485-612", "DZ5485-612-100")));
+        assertEquals(3.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+    }
+
+    @Test
+    void limitsTheNumberOfVariants() {
+        List<VariantKey> variants = new ArrayList<>();
+        for (int i = 0; i <= 100; i++) {
+            variants.add(new VariantKey("FV2305-900", "FV2305-900-" + i));
+        }
+        assertThrows(RuntimeException.class, () -> inventoryService.getAvailability(variants));
+        assertThrows(RuntimeException.class, () -> inventoryService.getAvailability(List.of()));
+    }
+}
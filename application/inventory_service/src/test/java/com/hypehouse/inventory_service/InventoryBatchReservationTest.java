@@ -0,0 +1,118 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.StockLine;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InventoryBatchReservationTest {
+
+    private InventoryTestFixture fixture;
+    private InventoryRepository inventoryRepository;
+    private InventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        inventoryRepository = fixture.inventoryRepository();
+
+        inventoryService = fixture.inventoryService().build();
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 5, "10", 5));
+        inventoryService.addInventory("FV2305-900", "FV2305-900-200", "White", Map.of("9", 3));
+        inventoryService.addInventory("DZ5485-612", "DZ5485-612-100", "Red", Map.of("8", 2));
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void reservesEveryLineOfTheBatch() {
+        List<Inventory> updated = inventoryService.reserveStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 2),
+                new StockLine("FV2305-900", "FV2305-900-100", "10", 1),
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 1),
+                new StockLine("DZ5485-612", "DZ5485-612-100", "8", 2)));
+
+        assertEquals(2, updated.size());
+        assertSize("FV2305-900-100", "9", 2, 3);
+        assertSize("FV2305-900-100", "10", 4, 1);
+        assertSize("DZ5485-612-100", "8", 0, 2);
+
+        inventoryService.releaseReservedStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 3),
+                new StockLine("DZ5485-612", "DZ5485-612-100", "8", 2)));
+
+        assertSize("FV2305-900-100", "9", 5, 0);
+        assertSize("DZ5485-612-100", "8", 2, 0);
+    }
+
+    @Test
+    void rollsBackEarlierDocumentsWhenALaterLineCannotBeReserved() {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> inventoryService.reserveStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 2),
+                new StockLine("FV2305-900", "FV2305-900-200", "9", 1),
+                new StockLine("DZ5485-612", "DZ5485-612-100", "8", 3))));
+
+        assertEquals("Not enough available stock to reserve for SKU: DZ5485-612-100", e.getMessage());
+        assertSize("FV2305-900-100", "9", 5, 0);
+        assertSize("FV2305-900-200", "9", 3, 0);
+        assertSize("DZ5485-612-100", "8", 2, 0);
+        assertEquals(0, inventoryRepository.findByProductIdAndVariantSku("FV2305-900", "FV2305-900-100")
+                .orElseThrow().getReservedStock());
+        assertEquals(3, inventoryRepository.count());
+    }
+
+    @Test
+    void rollsBackAndRethrowsAWriteErrorThatIsNotAStockGuard() {
+        String first = inventoryRepository.findByVariantSkuIn(List.of("FV2305-900-100")).get(0).getId();
+        String second = inventoryRepository.findByVariantSkuIn(List.of("DZ5485-612-100")).get(0).getId();
+        // A document the update cannot be applied to, which is not the same as running out of stock
+        fixture.mongoTemplate().updateFirst(Query.query(Criteria.where("_id").is(second)),
+                new Update().set("reservedStock", "broken"), Inventory.class);
+
+        Map<String, Map<String, Integer>> quantities = new LinkedHashMap<>();
+        quantities.put(first, Map.of("9", 2));
+        quantities.put(second, Map.of("8", 1));
+        assertThrows(BulkOperationException.class, () -> inventoryRepository.reserveStockBatch(quantities));
+
+        assertSize("FV2305-900-100", "9", 5, 0);
+        assertEquals(3, inventoryRepository.count());
+    }
+
+    @Test
+    void rejectsUnknownSizeBeforeWriting() {
+        RuntimeException e = assertThrows(RuntimeException.class, () -> inventoryService.reserveStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 1),
+                new StockLine("FV2305-900", "FV2305-900-200", "12", 1))));
+
+        assertEquals("Size 12 not found in inventory.", e.getMessage());
+        assertSize("FV2305-900-100", "9", 5, 0);
+    }
+
+    private void assertSize(String variantSku, String size, int available, int reserved) {
+        Inventory inventory = inventoryRepository.findByVariantSkuIn(List.of(variantSku)).get(0);
+        Inventory.SizeStock sizeStock = inventory.getVariant().getSizeStock().stream()
+                .filter(s -> s.getSize().equals(size))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(available, sizeStock.getAvailableStock());
+        assertEquals(reserved, sizeStock.getReservedStock());
+    }
+}
@@ -0,0 +1,100 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.cache.InventoryCache;
+import com.hypehouse.inventory_service.cache.InventoryChangeStreamListener;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.service.InventoryService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class InventoryCacheTest {
+
+    private InventoryTestFixture fixture;
+    private MongoTemplate mongoTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private InventoryCache inventoryCache;
+    private InventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        mongoTemplate = fixture.mongoTemplate();
+
+        meterRegistry = new SimpleMeterRegistry();
+        inventoryCache = new InventoryCache(meterRegistry, 1000, Duration.ofMinutes(10));
+        inventoryService = fixture.inventoryService().inventoryCache(inventoryCache).build();
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void servesWritesFromThisNodeFromMemory() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 3);
+
+        assertEquals(7, availableStock());
+        assertEquals(7, availableStock());
+        assertEquals(2.0, gets("hit"));
+        assertEquals(0.0, gets("miss"));
+    }
+
+    @Test
+    void appliesChangesFromOtherNodesOnlyWhenNewer() {
+        Inventory cached = inventoryService.getInventoryByProductAndVariant("FV2305-900", "FV2305-900-100").orElseThrow();
+        assertEquals(0.0, gets("miss"));
+
+        // Another node reserves stock, its change arrives through the change stream
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(cached.getId())),
+                new Update().inc("availableStock", -4).inc("outboxVersion", 1), Inventory.class);
+        Inventory changed = mongoTemplate.findById(cached.getId(), Inventory.class);
+        inventoryCache.refresh(changed);
+        assertEquals(6, availableStock());
+
+        // A change event that is older than the cached state is ignored
+        inventoryCache.refresh(cached);
+        assertEquals(6, availableStock());
+    }
+
+    @Test
+    void doesNotCacheMissingInventory() {
+        assertEquals(false, inventoryService.getInventoryByProductAndVariant("FV2305-900", "FV2305-900-999").isPresent());
+        inventoryService.addInventory("FV2305-900", "FV2305-900-999", "Grey", Map.of("9", 1));
+        assertEquals(true, inventoryService.getInventoryByProductAndVariant("FV2305-900", "FV2305-900-999").isPresent());
+    }
+
+    @Test
+    void isOffWithoutAChangeStream() {
+        // The in-memory server is standalone, like a single MongoDB server without a replica set
+        new InventoryChangeStreamListener(mongoTemplate, inventoryCache, true, 1000).start();
+        assertFalse(inventoryCache.isEnabled());
+
+        mongoTemplate.updateFirst(Query.query(Criteria.where("variantSku").is("FV2305-900-100")),
+                new Update().inc("availableStock", -4).inc("outboxVersion", 1), Inventory.class);
+        assertEquals(6, availableStock());
+        assertEquals(0.0, gets("hit"));
+    }
+
+    private int availableStock() {
+        return inventoryService.getInventoryByProductAndVariant("FV2305-900", "FV2305-900-100").orElseThrow().getAvailableStock();
+    }
+
+    private double gets(String result) {
+        return meterRegistry.get("cache.gets").tag("cache", "inventory").tag("result", result).functionCounter().count();
+    }
+}
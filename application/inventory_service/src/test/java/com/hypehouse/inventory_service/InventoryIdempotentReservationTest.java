@@ -0,0 +1,128 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.Reservation;
+import com.hypehouse.inventory_service.model.StockLine;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryService;
+import com.hypehouse.inventory_service.service.ReservationLedger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class InventoryIdempotentReservationTest {
+
+    private InventoryTestFixture fixture;
+    private MongoTemplate mongoTemplate;
+    private InventoryRepository inventoryRepository;
+    private InventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        mongoTemplate = fixture.mongoTemplate();
+        inventoryRepository = fixture.inventoryRepository();
+
+        inventoryService = fixture.inventoryService().reservationLedger(fixture.reservationLedger()).build();
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 5, "10", 5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void retriedRequestsReserveAndReleaseOnce() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2, "cart-1");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2, "cart-1");
+        assertSize("9", 3, 2);
+
+        // Lowering the quantity of the line releases the difference only
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1, "cart-1");
+        assertSize("9", 4, 1);
+        assertEquals(1, mongoTemplate.findAll(Reservation.class).get(0).getQuantity());
+
+        inventoryService.releaseReservedStock("FV2305-900", "FV2305-900-100", "9", 1, "cart-1");
+        inventoryService.releaseReservedStock("FV2305-900", "FV2305-900-100", "9", 1, "cart-1");
+        assertSize("9", 5, 0);
+        assertEquals(0, mongoTemplate.count(new Query(), Reservation.class));
+    }
+
+    @Test
+    void batchesMoveEachLineToItsTarget() {
+        inventoryService.reserveStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 3),
+                new StockLine("FV2305-900", "FV2305-900-100", "10", 1)), "cart-1");
+
+        List<Inventory> inventories = inventoryService.reserveStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 1),
+                new StockLine("FV2305-900", "FV2305-900-100", "10", 4)), "cart-1");
+        assertEquals(1, inventories.size());
+        assertSize("9", 4, 1);
+        assertSize("10", 1, 4);
+
+        // Not enough stock for size 10, which keeps its previous hold in the inventory and the ledger
+        assertThrows(RuntimeException.class, () -> inventoryService.reserveStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 1),
+                new StockLine("FV2305-900", "FV2305-900-100", "10", 6)), "cart-1"));
+        assertSize("9", 4, 1);
+        assertSize("10", 1, 4);
+        assertEquals(4, mongoTemplate.findById(ReservationLedger.lineId("cart-1", "FV2305-900", "FV2305-900-100", "10"),
+                Reservation.class).getQuantity());
+
+        inventoryService.releaseReservedStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 1),
+                new StockLine("FV2305-900", "FV2305-900-100", "10", 4)), "cart-1");
+        inventoryService.releaseReservedStockBatch(List.of(
+                new StockLine("FV2305-900", "FV2305-900-100", "9", 1),
+                new StockLine("FV2305-900", "FV2305-900-100", "10", 4)), "cart-1");
+        assertSize("9", 5, 0);
+        assertSize("10", 5, 0);
+        assertEquals(0, mongoTemplate.count(new Query(), Reservation.class));
+    }
+
+    @Test
+    void concurrentRetriesReserveOnce() throws Exception {
+        int retries = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(retries);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Inventory>> results = new ArrayList<>();
+        for (int i = 0; i < retries; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 3, "cart-1");
+            }));
+        }
+        start.countDown();
+        for (Future<Inventory> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        assertSize("9", 2, 3);
+        assertEquals(3, mongoTemplate.findAll(Reservation.class).get(0).getQuantity());
+    }
+
+    private void assertSize(String size, int available, int reserved) {
+        Inventory inventory = inventoryRepository.findByProductIdAndVariantSku("FV2305-900", "FV2305-900-100").orElseThrow();
+        Inventory.SizeStock sizeStock = inventory.getVariant().findSize(size);
+        assertEquals(available, sizeStock.getAvailableStock());
+        assertEquals(reserved, sizeStock.getReservedStock());
+        assertEquals(available + reserved, sizeStock.getStockQuantity());
+    }
+}
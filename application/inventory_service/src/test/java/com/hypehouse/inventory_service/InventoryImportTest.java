@@ -0,0 +1,153 @@
+package com.hypehouse.inventory_service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hypehouse.inventory_service.cache.InventoryCache;
+import com.hypehouse.inventory_service.flashsale.FlashSaleInventory;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.InventoryImportResult;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryImportService;
+import com.hypehouse.inventory_service.service.InventoryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InventoryImportTest {
+
+    private InventoryTestFixture fixture;
+    private InventoryRepository inventoryRepository;
+    private InventoryService inventoryService;
+    private InventoryImportService inventoryImportService;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        inventoryRepository = fixture.inventoryRepository();
+
+        InventoryCache inventoryCache = InventoryTestFixture.inventoryCache();
+        FlashSaleInventory flashSaleInventory = fixture.flashSaleInventory();
+        inventoryService = fixture.inventoryService()
+                .inventoryCache(inventoryCache)
+                .flashSaleInventory(flashSaleInventory)
+                .build();
+        inventoryImportService = new InventoryImportService(inventoryRepository, inventoryCache, flashSaleInventory, new ObjectMapper(), 2);
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void importsNdjsonIntoNewAndExistingVariants() {
+        long versionBefore = variant("FV2305-900", "FV2305-900-100").getOutboxVersion();
+        String file = """
+                {"productId":"FV2305-900","variantSku":"FV2305-900-100","size":"9","quantity":5}
+                {"productId":"FV2305-900","variantSku":"FV2305-900-100","size":"10","quantity":4}
+                {"productId":"DZ5485-612","variantSku":"DZ5485-612-200","color":"Red","size":"8","quantity":3}
+                {"productId":"DZ5485-612","variantSku":"DZ5485-612-200","color":"Red","size":"8","quantity":2}
+                """;
+
+        InventoryImportResult result = inventoryImportService.importStock(stream(file), InventoryImportService.NDJSON);
+
+        assertEquals(4, result.getImportedRecords());
+        assertEquals(0, result.getRejectedRecords());
+        assertEquals(2, result.getChunks());
+
+        Inventory existing = variant("FV2305-900", "FV2305-900-100");
+        assertEquals(15, size(existing, "9").getAvailableStock());
+        assertEquals(4, size(existing, "10").getAvailableStock());
+        assertEquals(19, existing.getAvailableStock());
+        assertTrue(existing.isOutboxPending());
+        // One chunk held both of its sizes, so the relay sees a single change for the variant
+        assertEquals(versionBefore + 1, existing.getOutboxVersion());
+
+        Inventory created = variant("DZ5485-612", "DZ5485-612-200");
+        assertEquals("Red", created.getVariant().getColor());
+        assertEquals(1, created.getVariant().getSizeStock().size());
+        assertEquals(5, size(created, "8").getStockQuantity());
+        assertEquals(5, created.getStockQuantity());
+        assertEquals(1, created.getOutboxVersion());
+    }
+
+    @Test
+    void importsCsvAndReportsInvalidRecords() {
+        String file = """
+                productId,variantSku,size,quantity,color
+                FV2305-900,FV2305-900-100,9,2,
+                FV2305-900,FV2305-900-100,,2,
+                FV2305-900,FV2305-900-100,11,many,
+                FV2305-900,FV2305-900-100,12,0,
+                FV2305-900,FV2305-900-100,11,6,
+                """;
+
+        InventoryImportResult result = inventoryImportService.importStock(stream(file), InventoryImportService.CSV);
+
+        assertEquals(2, result.getImportedRecords());
+        assertEquals(3, result.getRejectedRecords());
+        assertEquals(List.of(
+                "Line 3: productId, variantSku and size are required.",
+                "Line 4: Quantity is not a number: many",
+                "Line 5: Quantity must be a non-zero integer for size: 12"), result.getErrors());
+
+        Inventory inventory = variant("FV2305-900", "FV2305-900-100");
+        assertEquals(12, size(inventory, "9").getAvailableStock());
+        assertEquals(6, size(inventory, "11").getAvailableStock());
+        assertEquals(18, inventory.getStockQuantity());
+        assertEquals(18, inventoryService.getInventoryByProductAndVariant("FV2305-900", "FV2305-900-100").orElseThrow().getStockQuantity());
+    }
+
+    @Test
+    void removesOnlyAvailableUnits() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 4);
+        String file = """
+                {"productId":"FV2305-900","variantSku":"FV2305-900-100","size":"9","quantity":-5}
+                {"productId":"DZ5485-612","variantSku":"DZ5485-612-200","size":"8","quantity":-1}
+                {"productId":"FV2305-900","variantSku":"FV2305-900-100","size":"9","quantity":-3}
+                {"productId":"FV2305-900","variantSku":"FV2305-900-200","color":"White","size":"9","quantity":2}
+                """;
+
+        InventoryImportResult result = inventoryImportService.importStock(stream(file), InventoryImportService.NDJSON);
+
+        assertEquals(2, result.getImportedRecords());
+        assertEquals(2, result.getRejectedRecords());
+        assertEquals(List.of(
+                "SKU DZ5485-612-200 size 8: Inventory not found.",
+                "SKU FV2305-900-100 size 9: Not enough available stock to remove."), result.getErrors());
+
+        // Reserved units are never removed, and removing units does not create the variant
+        Inventory inventory = variant("FV2305-900", "FV2305-900-100");
+        assertEquals(5, size(inventory, "9").getStockQuantity());
+        assertEquals(1, size(inventory, "9").getAvailableStock());
+        assertEquals(4, size(inventory, "9").getReservedStock());
+        assertEquals(5, inventory.getStockQuantity());
+        assertEquals(1, inventory.getAvailableStock());
+        assertTrue(inventoryRepository.findByProductIdAndVariantSku("DZ5485-612", "DZ5485-612-200").isEmpty());
+        assertEquals(2, variant("FV2305-900", "FV2305-900-200").getAvailableStock());
+    }
+
+    private Inventory variant(String productId, String variantSku) {
+        return inventoryRepository.findByProductIdAndVariantSku(productId, variantSku).orElseThrow();
+    }
+
+    private Inventory.SizeStock size(Inventory inventory, String size) {
+        return inventory.getVariant().getSizeStock().stream()
+                .filter(sizeStock -> sizeStock.getSize().equals(size))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private ByteArrayInputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
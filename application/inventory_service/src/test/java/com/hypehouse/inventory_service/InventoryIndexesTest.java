@@ -0,0 +1,73 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.repository.InventoryIndexes;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InventoryIndexesTest {
+
+    private InventoryTestFixture fixture;
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        mongoTemplate = fixture.mongoTemplate();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void createsOneDocumentPerVariantIndex() {
+        new InventoryIndexes(mongoTemplate, false).start();
+
+        Map<String, Boolean> uniqueByName = mongoTemplate.indexOps(Inventory.class).getIndexInfo().stream()
+                .collect(Collectors.toMap(IndexInfo::getName, IndexInfo::isUnique));
+        assertEquals(true, uniqueByName.get("productId_variantSku"));
+        assertEquals(false, uniqueByName.get("productId"));
+        assertEquals(false, uniqueByName.get("variantSku"));
+
+        mongoTemplate.insert(inventory("FV2305-900", "FV2305-900-100"));
+        mongoTemplate.insert(inventory("FV2305-900", "FV2305-900-200"));
+        assertThrows(DuplicateKeyException.class, () -> mongoTemplate.insert(inventory("FV2305-900", "FV2305-900-100")));
+    }
+
+    @Test
+    void findsCollectionScansInQueryPlans() {
+        Document indexScan = new Document("stage", "FETCH")
+                .append("inputStage", new Document("stage", "IXSCAN").append("indexName", "productId_variantSku"));
+        assertFalse(InventoryIndexes.usesCollectionScan(indexScan));
+
+        assertTrue(InventoryIndexes.usesCollectionScan(new Document("stage", "COLLSCAN")));
+        // A scan hidden in one branch of an $or, and the wrapper of slot based plans
+        assertTrue(InventoryIndexes.usesCollectionScan(new Document("stage", "SUBPLAN")
+                .append("inputStage", new Document("stage", "OR")
+                        .append("inputStages", List.of(indexScan, new Document("stage", "COLLSCAN"))))));
+        assertTrue(InventoryIndexes.usesCollectionScan(new Document("queryPlan", new Document("stage", "COLLSCAN"))));
+    }
+
+    private Inventory inventory(String productId, String variantSku) {
+        Inventory inventory = new Inventory();
+        inventory.setProductId(productId);
+        inventory.setVariantSku(variantSku);
+        return inventory;
+    }
+}
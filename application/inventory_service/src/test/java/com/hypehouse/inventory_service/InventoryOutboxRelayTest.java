@@ -0,0 +1,192 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.common.model.InventoryUpdateMessage;
+import com.hypehouse.common.model.StockLevelEvent;
+import com.hypehouse.inventory_service.config.RabbitConfig;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryOutboxRelay;
+import com.hypehouse.inventory_service.service.InventoryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class InventoryOutboxRelayTest {
+
+    private InventoryTestFixture fixture;
+    private InventoryRepository inventoryRepository;
+    private RabbitTemplate rabbitTemplate;
+    private InventoryOutboxRelay relay;
+    private InventoryService inventoryService;
+    private final AtomicBoolean brokerAvailable = new AtomicBoolean(true);
+    private final AtomicBoolean brokerSilent = new AtomicBoolean(false);
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        mongoTemplate = fixture.mongoTemplate();
+        inventoryRepository = fixture.inventoryRepository();
+
+        // The broker acknowledges every message unless it is made unavailable
+        rabbitTemplate = Mockito.mock(RabbitTemplate.class);
+        doAnswer(invocation -> {
+            CorrelationData correlationData = invocation.getArgument(3);
+            if (brokerSilent.get()) {
+                return null;
+            }
+            correlationData.getFuture().complete(new CorrelationData.Confirm(brokerAvailable.get(), null));
+            return null;
+        }).when(rabbitTemplate).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+
+        relay = new InventoryOutboxRelay(mongoTemplate, rabbitTemplate, 2, 1000, 5);
+        inventoryService = fixture.inventoryService().outboxRelay(relay).build();
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 100));
+        inventoryService.addInventory("FV2305-900", "FV2305-900-200", "White", Map.of("9", 100));
+        inventoryService.addInventory("DZ5485-612", "DZ5485-612-100", "Red", Map.of("8", 2));
+        relay.relayPendingChanges();
+        Mockito.clearInvocations(rabbitTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void relaysTheLatestStateOncePerVariant() {
+        for (int i = 0; i < 50; i++) {
+            inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+        }
+        inventoryService.reserveStock("DZ5485-612", "DZ5485-612-100", "8", 2);
+        verify(rabbitTemplate, times(0)).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+        assertTrue(outboxPending("FV2305-900-100"));
+
+        assertEquals(2, relay.relayPendingChanges());
+
+        ArgumentCaptor<InventoryUpdateMessage> messages = ArgumentCaptor.forClass(InventoryUpdateMessage.class);
+        verify(rabbitTemplate, times(2)).convertAndSend(eq(RabbitConfig.EXCHANGE_NAME),
+                eq(RabbitConfig.INVENTORY_UPDATE_ROUTING_KEY), messages.capture(), any(CorrelationData.class));
+        Map<String, Map<String, Integer>> sizeStockBySku = new HashMap<>();
+        for (InventoryUpdateMessage message : messages.getAllValues()) {
+            sizeStockBySku.put(message.getVariantSku(), message.getSizeStockMap());
+        }
+        assertEquals(Map.of("9", 50), sizeStockBySku.get("FV2305-900-100"));
+        assertEquals(Map.of("8", 0), sizeStockBySku.get("DZ5485-612-100"));
+        assertFalse(outboxPending("FV2305-900-100"));
+        assertEquals(0, relay.relayPendingChanges());
+    }
+
+    @Test
+    void keepsChangesInTheOutboxUntilTheBrokerConfirmsThem() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-200", "9", 1);
+        inventoryService.reserveStock("DZ5485-612", "DZ5485-612-100", "8", 1);
+
+        brokerAvailable.set(false);
+        assertEquals(0, relay.relayPendingChanges());
+        assertTrue(outboxPending("FV2305-900-100"));
+        assertTrue(outboxPending("DZ5485-612-100"));
+
+        brokerAvailable.set(true);
+        assertEquals(3, relay.relayPendingChanges());
+        assertFalse(outboxPending("FV2305-900-100"));
+        assertFalse(outboxPending("FV2305-900-200"));
+        assertFalse(outboxPending("DZ5485-612-100"));
+    }
+
+    @Test
+    void waitsForTheConfirmsOfABatchAgainstOneDeadline() {
+        InventoryOutboxRelay slowRelay = new InventoryOutboxRelay(mongoTemplate, rabbitTemplate, 10, 500, 5);
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-200", "9", 1);
+        inventoryService.reserveStock("DZ5485-612", "DZ5485-612-100", "8", 2);
+
+        brokerSilent.set(true);
+        long start = System.nanoTime();
+        assertEquals(0, slowRelay.relayPendingChanges());
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // Four messages without a confirm, waited for sequentially they would take at least 2 seconds
+        verify(rabbitTemplate, times(4)).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+        assertTrue(elapsedMs < 1500, "Relay waited " + elapsedMs + " ms");
+        assertTrue(outboxPending("FV2305-900-100"));
+        assertTrue(outboxPending("DZ5485-612-100"));
+    }
+
+    @Test
+    void publishesEachStockLevelTransitionOnce() {
+        inventoryService.reserveStock("DZ5485-612", "DZ5485-612-100", "8", 2);
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 96);
+        relay.relayPendingChanges();
+        assertEquals("DZ5485-612-100 8 LOW_STOCK>SOLD_OUT", stockLevelEvent(RabbitConfig.STOCK_SOLD_OUT_ROUTING_KEY));
+        assertEquals("FV2305-900-100 9 IN_STOCK>LOW_STOCK", stockLevelEvent(RabbitConfig.STOCK_LOW_ROUTING_KEY));
+
+        // Still low on stock, and the other variant is unchanged
+        Mockito.clearInvocations(rabbitTemplate);
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+        relay.relayPendingChanges();
+        verify(rabbitTemplate, times(1)).convertAndSend(anyString(), anyString(), any(Object.class), any(CorrelationData.class));
+
+        Mockito.clearInvocations(rabbitTemplate);
+        inventoryService.releaseReservedStock("DZ5485-612", "DZ5485-612-100", "8", 1);
+        inventoryService.addStock("FV2305-900", "FV2305-900-100", "9", 10);
+        relay.relayPendingChanges();
+        assertEquals("DZ5485-612-100 8 SOLD_OUT>LOW_STOCK", stockLevelEvent(RabbitConfig.STOCK_BACK_IN_STOCK_ROUTING_KEY));
+        assertEquals("FV2305-900-100 9 LOW_STOCK>IN_STOCK", stockLevelEvent(RabbitConfig.STOCK_REPLENISHED_ROUTING_KEY));
+    }
+
+    @Test
+    void relaysOnlyWhileStarted() throws InterruptedException {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+        assertFalse(relay.isRunning());
+
+        relay.start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (outboxPending("FV2305-900-100") && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(outboxPending("FV2305-900-100"));
+
+        relay.stop();
+        assertFalse(relay.isRunning());
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1);
+        Thread.sleep(500);
+        assertTrue(outboxPending("FV2305-900-100"));
+    }
+
+    private String stockLevelEvent(String routingKey) {
+        ArgumentCaptor<StockLevelEvent> events = ArgumentCaptor.forClass(StockLevelEvent.class);
+        verify(rabbitTemplate, times(1)).convertAndSend(eq(RabbitConfig.EXCHANGE_NAME), eq(routingKey),
+                events.capture(), any(CorrelationData.class));
+        StockLevelEvent event = events.getValue();
+        return event.getVariantSku() + " " + event.getSize() + " " + event.getPreviousLevel() + ">" + event.getLevel();
+    }
+
+    private boolean outboxPending(String variantSku) {
+        Inventory inventory = inventoryRepository.findByVariantSkuIn(List.of(variantSku)).get(0);
+        return inventory.isOutboxPending();
+    }
+}
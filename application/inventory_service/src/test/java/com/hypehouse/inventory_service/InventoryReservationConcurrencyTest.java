@@ -0,0 +1,213 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Hammers a single SKU from many threads against an in-memory MongoDB server and checks that
+ * the conditional updates never hand out more stock than exists.
+ */
+class InventoryReservationConcurrencyTest {
+
+    private static final String PRODUCT_ID = "FV2305-900";
+    private static final String VARIANT_SKU = "FV2305-900-100";
+
+    private InventoryTestFixture fixture;
+    private InventoryRepository inventoryRepository;
+    private InventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        inventoryRepository = fixture.inventoryRepository();
+
+        inventoryService = fixture.inventoryService().build();
+
+        Map<String, Integer> sizeStock = new LinkedHashMap<>();
+        sizeStock.put("9", 50);
+        sizeStock.put("10", 20);
+        inventoryService.addInventory(PRODUCT_ID, VARIANT_SKU, "Black", sizeStock);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void concurrentReservationsNeverOversell() throws Exception {
+        int threads = 16;
+        int attemptsPerThread = 20;
+        AtomicInteger reserved = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < attemptsPerThread; j++) {
+                    try {
+                        inventoryService.reserveStock(PRODUCT_ID, VARIANT_SKU, "9", 1);
+                        reserved.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(50, reserved.get());
+        assertEquals(threads * attemptsPerThread - 50, rejected.get());
+
+        Inventory inventory = inventoryRepository.findByProductIdAndVariantSku(PRODUCT_ID, VARIANT_SKU).orElseThrow();
+        Inventory.SizeStock size9 = findSize(inventory, "9");
+        Inventory.SizeStock size10 = findSize(inventory, "10");
+        assertEquals(50, size9.getStockQuantity());
+        assertEquals(50, size9.getReservedStock());
+        assertEquals(0, size9.getAvailableStock());
+        assertEquals(20, size10.getStockQuantity());
+        assertEquals(0, size10.getReservedStock());
+        assertEquals(20, size10.getAvailableStock());
+        assertEquals(70, inventory.getStockQuantity());
+        assertEquals(50, inventory.getReservedStock());
+        assertEquals(20, inventory.getAvailableStock());
+    }
+
+    @Test
+    void concurrentReserveAndReleaseKeepCountersConsistent() throws Exception {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 25; j++) {
+                    inventoryService.reserveStock(PRODUCT_ID, VARIANT_SKU, "10", 2);
+                    inventoryService.releaseReservedStock(PRODUCT_ID, VARIANT_SKU, "10", 2);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Inventory inventory = inventoryRepository.findByProductIdAndVariantSku(PRODUCT_ID, VARIANT_SKU).orElseThrow();
+        Inventory.SizeStock size10 = findSize(inventory, "10");
+        assertEquals(20, size10.getStockQuantity());
+        assertEquals(0, size10.getReservedStock());
+        assertEquals(20, size10.getAvailableStock());
+        assertEquals(0, inventory.getReservedStock());
+        assertEquals(70, inventory.getAvailableStock());
+    }
+
+    @Test
+    void concurrentStockChangesAndReservationsAreNotLost() throws Exception {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < 25; j++) {
+                    inventoryService.addStock(PRODUCT_ID, VARIANT_SKU, "10", 2);
+                    inventoryService.reserveStock(PRODUCT_ID, VARIANT_SKU, "10", 1);
+                    inventoryService.reduceStock(PRODUCT_ID, VARIANT_SKU, "10", 1);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Inventory inventory = inventoryRepository.findByProductIdAndVariantSku(PRODUCT_ID, VARIANT_SKU).orElseThrow();
+        Inventory.SizeStock size10 = findSize(inventory, "10");
+        assertEquals(220, size10.getStockQuantity());
+        assertEquals(200, size10.getReservedStock());
+        assertEquals(20, size10.getAvailableStock());
+        assertEquals(270, inventory.getStockQuantity());
+        assertEquals(200, inventory.getReservedStock());
+        assertEquals(70, inventory.getAvailableStock());
+        // One outbox change for the initial stock and one per write after it
+        assertEquals(1 + threads * 25 * 3, inventory.getOutboxVersion());
+    }
+
+    @Test
+    void stockChangesNeverRemoveReservedUnits() {
+        inventoryService.reserveStock(PRODUCT_ID, VARIANT_SKU, "10", 15);
+
+        RuntimeException reduce = assertThrows(RuntimeException.class,
+                () -> inventoryService.reduceStock(PRODUCT_ID, VARIANT_SKU, "10", 6));
+        assertEquals("Not enough stock to reduce.", reduce.getMessage());
+        RuntimeException update = assertThrows(RuntimeException.class,
+                () -> inventoryService.updateStockQuantity(PRODUCT_ID, VARIANT_SKU, "10", -6));
+        assertEquals("Insufficient stock available.", update.getMessage());
+        RuntimeException missingSize = assertThrows(RuntimeException.class,
+                () -> inventoryService.updateStockQuantity(PRODUCT_ID, VARIANT_SKU, "12", 1));
+        assertEquals("Size 12 not found in inventory.", missingSize.getMessage());
+
+        Inventory inventory = inventoryService.reduceStock(PRODUCT_ID, VARIANT_SKU, "10", 5);
+        Inventory.SizeStock size10 = findSize(inventory, "10");
+        assertEquals(15, size10.getStockQuantity());
+        assertEquals(15, size10.getReservedStock());
+        assertEquals(0, size10.getAvailableStock());
+        assertEquals(65, inventory.getStockQuantity());
+    }
+
+    @Test
+    void reserveReportsMissingSizeAndInsufficientStock() {
+        RuntimeException missingSize = assertThrows(RuntimeException.class,
+                () -> inventoryService.reserveStock(PRODUCT_ID, VARIANT_SKU, "12", 1));
+        assertEquals("Size 12 not found in inventory.", missingSize.getMessage());
+
+        RuntimeException insufficient = assertThrows(RuntimeException.class,
+                () -> inventoryService.reserveStock(PRODUCT_ID, VARIANT_SKU, "10", 21));
+        assertEquals("Not enough available stock to reserve.", insufficient.getMessage());
+
+        RuntimeException nothingReserved = assertThrows(RuntimeException.class,
+                () -> inventoryService.releaseReservedStock(PRODUCT_ID, VARIANT_SKU, "10", 1));
+        assertEquals("No reserved stock to release.", nothingReserved.getMessage());
+    }
+
+    private Inventory.SizeStock findSize(Inventory inventory, String size) {
+        return inventory.getVariant().getSizeStock().stream()
+                .filter(sizeStock -> sizeStock.getSize().equals(size))
+                .findFirst()
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,166 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.common.grpc.InventoryServiceGrpc;
+import com.hypehouse.common.grpc.ReservationCommand;
+import com.hypehouse.common.grpc.ReservationResult;
+import com.hypehouse.inventory_service.grpc.InventoryGrpcServer;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.service.InventoryService;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class InventoryReservationStreamTest {
+
+    private ExecutorService executor;
+    private Server server;
+    private ManagedChannel channel;
+    private InventoryService inventoryService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        inventoryService = mock(InventoryService.class);
+        executor = Executors.newFixedThreadPool(4);
+
+        String serverName = InProcessServerBuilder.generateName();
+        // At most two commands in flight, so the stream depends on flow control to make progress
+        server = InProcessServerBuilder.forName(serverName)
+                .addService(new InventoryGrpcServer(inventoryService, executor, 2))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(serverName).build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void answersEveryCommandWithItsCorrelationId() throws Exception {
+        when(inventoryService.reserveStock(eq("FV2305-900"), eq("FV2305-900-100"), eq("9"), anyInt(), eq("cart-1")))
+                .thenReturn(inventoryWithSize("9", 4, 6));
+        when(inventoryService.releaseReservedStock(anyString(), anyString(), eq("9"), anyInt(), eq("cart-1")))
+                .thenReturn(inventoryWithSize("9", 5, 5));
+        when(inventoryService.reserveStock(anyString(), anyString(), eq("12"), anyInt(), eq("cart-1")))
+                .thenThrow(new RuntimeException("Size 12 not found in inventory."));
+
+        List<ReservationCommand> commands = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            commands.add(command("reserve-" + i, ReservationCommand.Type.RESERVE, "9"));
+        }
+        commands.add(command("release-0", ReservationCommand.Type.RELEASE, "9"));
+        commands.add(command("reserve-missing", ReservationCommand.Type.RESERVE, "12"));
+
+        Map<String, ReservationResult> results = stream(commands);
+
+        assertEquals(22, results.size());
+        for (int i = 0; i < 20; i++) {
+            ReservationResult result = results.get("reserve-" + i);
+            assertTrue(result.getSuccess());
+            assertEquals(4, result.getAvailableQuantity());
+            assertEquals(6, result.getReservedQuantity());
+        }
+        assertEquals(5, results.get("release-0").getAvailableQuantity());
+        assertFalse(results.get("reserve-missing").getSuccess());
+        assertEquals("Size 12 not found in inventory.", results.get("reserve-missing").getMessage());
+    }
+
+    @Test
+    void processesTheCommandsOfOneCartInOrder() throws Exception {
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        when(inventoryService.reserveStock(anyString(), anyString(), eq("9"), anyInt(), eq("cart-1"))).thenAnswer(invocation -> {
+            // Slow enough for the release to overtake it if both ran at once
+            Thread.sleep(200);
+            calls.add("reserve");
+            return inventoryWithSize("9", 4, 6);
+        });
+        when(inventoryService.releaseReservedStock(anyString(), anyString(), eq("9"), anyInt(), eq("cart-1"))).thenAnswer(invocation -> {
+            calls.add("release");
+            return inventoryWithSize("9", 5, 5);
+        });
+
+        Map<String, ReservationResult> results = stream(List.of(
+                command("reserve-0", ReservationCommand.Type.RESERVE, "9"),
+                command("release-0", ReservationCommand.Type.RELEASE, "9")));
+
+        assertEquals(2, results.size());
+        assertEquals(List.of("reserve", "release"), calls);
+    }
+
+    private Map<String, ReservationResult> stream(List<ReservationCommand> commands) throws InterruptedException {
+        Map<String, ReservationResult> results = new ConcurrentHashMap<>();
+        CountDownLatch completed = new CountDownLatch(1);
+        StreamObserver<ReservationCommand> requests = InventoryServiceGrpc.newStub(channel)
+                .streamReservations(new StreamObserver<>() {
+                    @Override
+                    public void onNext(ReservationResult result) {
+                        results.put(result.getCorrelationId(), result);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        completed.countDown();
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        completed.countDown();
+                    }
+                });
+        commands.forEach(requests::onNext);
+        requests.onCompleted();
+
+        assertTrue(completed.await(10, TimeUnit.SECONDS));
+        return results;
+    }
+
+    private ReservationCommand command(String correlationId, ReservationCommand.Type type, String size) {
+        return ReservationCommand.newBuilder()
+                .setCorrelationId(correlationId)
+                .setType(type)
+                .setProductId("FV2305-900")
+                .setVariantSku("FV2305-900-100")
+                .setSize(size)
+                .setQuantity(1)
+                .setCartId("cart-1")
+                .build();
+    }
+
+    private Inventory inventoryWithSize(String size, int available, int reserved) {
+        Inventory.SizeStock sizeStock = new Inventory.SizeStock(size, available + reserved);
+        sizeStock.setAvailableStock(available);
+        sizeStock.setReservedStock(reserved);
+        Inventory.Variant variant = new Inventory.Variant();
+        variant.setSizeStock(List.of(sizeStock));
+        Inventory inventory = new Inventory();
+        inventory.setVariant(variant);
+        return inventory;
+    }
+}
@@ -0,0 +1,61 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.migration.InventorySchemaMigration;
+import com.hypehouse.inventory_service.model.Inventory;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InventorySchemaMigrationTest {
+
+    private InventoryTestFixture fixture;
+    private MongoTemplate mongoTemplate;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        mongoTemplate = fixture.mongoTemplate();
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void upgradesLegacyDocumentsToPerSizeCounters() {
+        // Version 1 layout: size stock already net of reservations, reserved tracked on the variant
+        Document legacy = new Document("productId", "FV2305-900")
+                .append("variantSku", "FV2305-900-100")
+                .append("variant", new Document("color", "Black").append("sizeStock", List.of(
+                        new Document("size", "9").append("stockQuantity", 8).append("reservedStock", 2),
+                        new Document("size", "10").append("stockQuantity", 5).append("reservedStock", 0))))
+                .append("stockQuantity", 15)
+                .append("reservedStock", 2)
+                .append("availableStock", 13);
+        mongoTemplate.getCollection("inventory").insertOne(legacy);
+
+        InventorySchemaMigration migration = new InventorySchemaMigration(mongoTemplate);
+        assertEquals(1, migration.migrateOutdatedDocuments());
+        assertEquals(0, migration.migrateOutdatedDocuments());
+
+        Inventory inventory = mongoTemplate.findAll(Inventory.class).get(0);
+        Inventory.SizeStock size9 = inventory.getVariant().getSizeStock().get(0);
+        Inventory.SizeStock size10 = inventory.getVariant().getSizeStock().get(1);
+        assertEquals(10, size9.getStockQuantity());
+        assertEquals(2, size9.getReservedStock());
+        assertEquals(8, size9.getAvailableStock());
+        assertEquals(5, size10.getStockQuantity());
+        assertEquals(5, size10.getAvailableStock());
+        assertEquals(15, inventory.getStockQuantity());
+        assertEquals(2, inventory.getReservedStock());
+        assertEquals(13, inventory.getAvailableStock());
+        assertEquals(Inventory.CURRENT_SCHEMA_VERSION, inventory.getSchemaVersion());
+    }
+}
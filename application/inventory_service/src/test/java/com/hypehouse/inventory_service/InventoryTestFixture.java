@@ -0,0 +1,110 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.cache.InventoryCache;
+import com.hypehouse.inventory_service.flashsale.FlashSaleInventory;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.repository.InventoryRepositoryImpl;
+import com.hypehouse.inventory_service.service.InventoryOutboxRelay;
+import com.hypehouse.inventory_service.service.InventoryService;
+import com.hypehouse.inventory_service.service.ReservationLedger;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.repository.support.MongoRepositoryFactory;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * An in-memory MongoDB with the inventory repository on top, and a builder for an InventoryService over it.
+ * Collaborators not given to the builder get the defaults the tests share: an unstarted flash sale inventory,
+ * an empty cache, and no ledger or outbox relay.
+ */
+public class InventoryTestFixture implements AutoCloseable {
+
+    private final MongoServer server;
+    private final MongoClient client;
+    private final MongoTemplate mongoTemplate;
+    private final InventoryRepository inventoryRepository;
+
+    public InventoryTestFixture() {
+        this("inventory_service_test");
+    }
+
+    public InventoryTestFixture(String database) {
+        server = new MongoServer(new MemoryBackend());
+        client = MongoClients.create(server.bindAndGetConnectionString());
+        mongoTemplate = new MongoTemplate(client, database);
+        inventoryRepository = new MongoRepositoryFactory(mongoTemplate)
+                .getRepository(InventoryRepository.class, new InventoryRepositoryImpl(mongoTemplate));
+    }
+
+    public MongoTemplate mongoTemplate() {
+        return mongoTemplate;
+    }
+
+    public InventoryRepository inventoryRepository() {
+        return inventoryRepository;
+    }
+
+    public ReservationLedger reservationLedger() {
+        return new ReservationLedger(mongoTemplate, Duration.ofDays(15), Duration.ofMinutes(5));
+    }
+
+    public FlashSaleInventory flashSaleInventory() {
+        return new FlashSaleInventory(inventoryRepository, Path.of("flash-sale.journal"), 4, List.of());
+    }
+
+    public static InventoryCache inventoryCache() {
+        return new InventoryCache(new SimpleMeterRegistry(), 1000, Duration.ofMinutes(10));
+    }
+
+    public ServiceBuilder inventoryService() {
+        return new ServiceBuilder();
+    }
+
+    @Override
+    public void close() {
+        client.close();
+        server.shutdownNow();
+    }
+
+    public class ServiceBuilder {
+
+        private InventoryOutboxRelay inventoryOutboxRelay;
+        private ReservationLedger reservationLedger;
+        private InventoryCache inventoryCache;
+        private FlashSaleInventory flashSaleInventory;
+
+        public ServiceBuilder outboxRelay(InventoryOutboxRelay inventoryOutboxRelay) {
+            this.inventoryOutboxRelay = inventoryOutboxRelay;
+            return this;
+        }
+
+        public ServiceBuilder reservationLedger(ReservationLedger reservationLedger) {
+            this.reservationLedger = reservationLedger;
+            return this;
+        }
+
+        public ServiceBuilder inventoryCache(InventoryCache inventoryCache) {
+            this.inventoryCache = inventoryCache;
+            return this;
+        }
+
+        public ServiceBuilder flashSaleInventory(FlashSaleInventory flashSaleInventory) {
+            this.flashSaleInventory = flashSaleInventory;
+            return this;
+        }
+
+        public InventoryService build() {
+            return new InventoryService(inventoryRepository, inventoryOutboxRelay, reservationLedger,
+                    inventoryCache != null ? inventoryCache : InventoryTestFixture.inventoryCache(),
+                    flashSaleInventory != null ? flashSaleInventory : InventoryTestFixture.this.flashSaleInventory(),
+                    100);
+        }
+    }
+}
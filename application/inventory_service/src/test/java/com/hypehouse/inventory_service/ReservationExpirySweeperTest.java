@@ -0,0 +1,122 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.model.Reservation;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryService;
+import com.hypehouse.inventory_service.service.ReservationExpirySweeper;
+import com.hypehouse.inventory_service.service.ReservationLedger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReservationExpirySweeperTest {
+
+    private InventoryTestFixture fixture;
+    private MongoTemplate mongoTemplate;
+    private InventoryRepository inventoryRepository;
+    private ReservationLedger reservationLedger;
+    private InventoryService inventoryService;
+    private ReservationExpirySweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new InventoryTestFixture();
+        mongoTemplate = fixture.mongoTemplate();
+        inventoryRepository = fixture.inventoryRepository();
+        reservationLedger = fixture.reservationLedger();
+
+        inventoryService = fixture.inventoryService().reservationLedger(reservationLedger).build();
+        sweeper = new ReservationExpirySweeper(reservationLedger, inventoryService, 2);
+
+        inventoryService.addInventory("FV2305-900", "FV2305-900-100", "Black", Map.of("9", 5, "10", 5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void releasesExpiredHoldsAndKeepsActiveOnes() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2, "cart-1");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "10", 1, "cart-1");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1, "cart-1");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "10", 3, "cart-2");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 1, "cart-3");
+        assertEquals(4, mongoTemplate.count(new Query(), Reservation.class));
+
+        expire("cart-1");
+        expire("cart-3");
+        sweeper.sweepExpiredReservations();
+
+        assertSize("9", 5, 0);
+        assertSize("10", 2, 3);
+        List<Reservation> remaining = mongoTemplate.findAll(Reservation.class);
+        assertEquals(1, remaining.size());
+        assertEquals("cart-2", remaining.get(0).getCartId());
+        assertEquals(3, remaining.get(0).getQuantity());
+    }
+
+    @Test
+    void doesNotReleaseAHoldAgainAfterASweeperDiedBeforeCompletingIt() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2, "cart-1");
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2, "cart-2");
+        expire("cart-1");
+
+        // A sweeper releases the hold and dies before taking it off the ledger
+        inventoryService.releaseExpiredReservations(reservationLedger.claimExpired(LocalDateTime.now(), 2));
+        assertSize("9", 3, 2);
+        mongoTemplate.updateMulti(new Query(),
+                new Update().set("claimedAt", LocalDateTime.now().minusMinutes(10)), Reservation.class);
+
+        sweeper.sweepExpiredReservations();
+
+        assertSize("9", 3, 2);
+        List<Reservation> remaining = mongoTemplate.findAll(Reservation.class);
+        assertEquals(1, remaining.size());
+        assertEquals("cart-2", remaining.get(0).getCartId());
+        Inventory inventory = inventoryRepository.findByProductIdAndVariantSku("FV2305-900", "FV2305-900-100").orElseThrow();
+        assertTrue(inventory.getSweptReservations() == null || inventory.getSweptReservations().isEmpty());
+    }
+
+    @Test
+    void releasingACartLineRemovesItFromTheLedger() {
+        inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 2, "cart-1");
+        inventoryService.releaseReservedStock("FV2305-900", "FV2305-900-100", "9", 2, "cart-1");
+        assertEquals(0, mongoTemplate.count(new Query(), Reservation.class));
+
+        // A failed reservation must not leave a hold behind that the sweeper would later release
+        assertThrows(RuntimeException.class,
+                () -> inventoryService.reserveStock("FV2305-900", "FV2305-900-100", "9", 6, "cart-1"));
+        assertEquals(0, mongoTemplate.count(new Query(), Reservation.class));
+    }
+
+    private void expire(String cartId) {
+        mongoTemplate.updateMulti(Query.query(Criteria.where("cartId").is(cartId)),
+                new Update().set("expiresAt", LocalDateTime.now().minusMinutes(1)), Reservation.class);
+    }
+
+    private void assertSize(String size, int available, int reserved) {
+        Inventory inventory = inventoryRepository.findByProductIdAndVariantSku("FV2305-900", "FV2305-900-100").orElseThrow();
+        Inventory.SizeStock sizeStock = inventory.getVariant().getSizeStock().stream()
+                .filter(s -> s.getSize().equals(size))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(available, sizeStock.getAvailableStock());
+        assertEquals(reserved, sizeStock.getReservedStock());
+        assertEquals(available + reserved, sizeStock.getStockQuantity());
+    }
+}
@@ -0,0 +1,107 @@
+package com.hypehouse.inventory_service;
+
+import com.hypehouse.inventory_service.flashsale.ReservationJournal;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReservationJournalTest {
+
+    private static final int RECORD_SIZE = 128;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsEveryRecordWrittenBeforeACrash() {
+        Path path = tempDir.resolve("flash-sale.journal");
+        // Never closed or forced, like a process that died
+        ReservationJournal journal = new ReservationJournal(path, 10, 16);
+        journal.append("6571f0c2a1b2c3d4e5f60718", "9", 3, "cart-1");
+        journal.append("6571f0c2a1b2c3d4e5f60718", "9.5", -1, null);
+
+        List<ReservationJournal.Entry> entries = ReservationJournal.read(path);
+        assertEquals(2, entries.size());
+        assertEquals(11, entries.get(0).getSequence());
+        assertEquals("6571f0c2a1b2c3d4e5f60718", entries.get(0).getInventoryId());
+        assertEquals("9", entries.get(0).getSize());
+        assertEquals(3, entries.get(0).getReservedDelta());
+        assertEquals("cart-1", entries.get(0).getCartId());
+        assertTrue(entries.get(0).getTimestamp() > 0);
+        assertEquals(12, entries.get(1).getSequence());
+        assertEquals("9.5", entries.get(1).getSize());
+        assertEquals(-1, entries.get(1).getReservedDelta());
+        assertNull(entries.get(1).getCartId());
+    }
+
+    @Test
+    void ignoresARecordCutShortByACrash() throws Exception {
+        Path path = tempDir.resolve("flash-sale.journal");
+        ReservationJournal journal = new ReservationJournal(path, 0, 16);
+        journal.append("inventory-1", "9", 1, "cart-1");
+        journal.append("inventory-1", "10", 2, "cart-2");
+        journal.close();
+
+        // Only the first half of the second record made it
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(RECORD_SIZE / 2), RECORD_SIZE + RECORD_SIZE / 2);
+        }
+
+        List<ReservationJournal.Entry> entries = ReservationJournal.read(path);
+        assertEquals(1, entries.size());
+        assertEquals("9", entries.get(0).getSize());
+
+        // The next run writes over the broken record
+        journal = new ReservationJournal(path, 2, 16);
+        assertEquals(3, journal.append("inventory-1", "11", 1, null));
+        entries = ReservationJournal.read(path);
+        assertEquals(2, entries.size());
+        assertEquals(3, entries.get(1).getSequence());
+    }
+
+    @Test
+    void keepsRoomWhileCheckpointsRunBehindTheAppends() {
+        Path path = tempDir.resolve("flash-sale.journal");
+        ReservationJournal journal = new ReservationJournal(path, 0, 4);
+        journal.append("inventory-1", "9", 1, null);
+        journal.append("inventory-1", "9", 1, null);
+        for (int i = 0; i < 10; i++) {
+            // A checkpoint takes the entries so far, and more are appended before it finishes
+            List<ReservationJournal.Entry> checkpoint = journal.drainUnapplied();
+            journal.append("inventory-1", "9", 1, null);
+            journal.append("inventory-1", "10", -1, null);
+            journal.markApplied(checkpoint.get(checkpoint.size() - 1).getSequence());
+        }
+
+        // Far past the capacity, and the newest entries are all still in the file
+        assertEquals(23, journal.append("inventory-1", "9", 1, null));
+        assertEquals(List.of(20L, 21L, 22L, 23L), ReservationJournal.read(path).stream()
+                .map(ReservationJournal.Entry::getSequence)
+                .toList());
+    }
+
+    @Test
+    void rejectsAppendsWhileFull() {
+        ReservationJournal journal = new ReservationJournal(tempDir.resolve("flash-sale.journal"), 0, 2);
+        journal.append("inventory-1", "9", 1, null);
+        journal.append("inventory-1", "9", 1, null);
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> journal.append("inventory-1", "9", 1, null));
+        assertEquals("Reservation journal is full until its entries are applied to MongoDB.", e.getMessage());
+
+        // Room again once the entries are applied
+        journal.drainUnapplied();
+        journal.markApplied(2);
+        assertEquals(3, journal.append("inventory-1", "9", 1, null));
+    }
+}
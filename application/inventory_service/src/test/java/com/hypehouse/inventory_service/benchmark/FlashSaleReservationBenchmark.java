@@ -0,0 +1,114 @@
+package com.hypehouse.inventory_service.benchmark;
+
+import com.hypehouse.inventory_service.InventoryTestFixture;
+import com.hypehouse.inventory_service.flashsale.FlashSaleInventory;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reservations per second of one hot size, through the atomic MongoDB update and through flash sale mode.
+ * MongoDB is the in-memory mongo-java-server, so the MongoDB numbers exclude the network and are an upper
+ * bound for the regular path. Run with {@code main}, passing the thread count as the first argument.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class FlashSaleReservationBenchmark {
+
+    private static final String PRODUCT_ID = "FV2305-900";
+    private static final String VARIANT_SKU = "FV2305-900-100";
+    private static final String SIZE = "9";
+
+    private InventoryTestFixture fixture;
+    private InventoryRepository inventoryRepository;
+    private FlashSaleInventory flashSaleInventory;
+    private Path journalDirectory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new InventoryTestFixture("inventory_service_benchmark");
+        inventoryRepository = fixture.inventoryRepository();
+
+        // Enough stock that no benchmark run sells out
+        Inventory.SizeStock sizeStock = new Inventory.SizeStock(SIZE, 2_000_000_000);
+        Inventory.Variant variant = new Inventory.Variant();
+        variant.setColor("Black");
+        variant.setSizeStock(List.of(sizeStock));
+        Inventory inventory = new Inventory();
+        inventory.setProductId(PRODUCT_ID);
+        inventory.setVariantSku(VARIANT_SKU);
+        inventory.setVariant(variant);
+        inventory.setStockQuantity(sizeStock.getStockQuantity());
+        inventory.setAvailableStock(sizeStock.getStockQuantity());
+        inventory.setSchemaVersion(Inventory.CURRENT_SCHEMA_VERSION);
+        inventoryRepository.save(inventory);
+
+        journalDirectory = Files.createTempDirectory("flash-sale-benchmark");
+        flashSaleInventory = new FlashSaleInventory(inventoryRepository, journalDirectory.resolve("flash-sale.journal"),
+                Runtime.getRuntime().availableProcessors() * 2, List.of(PRODUCT_ID + ":" + VARIANT_SKU));
+        flashSaleInventory.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void applyJournal() {
+        // Plays the part of the scheduled persister, so the journal queue does not grow across iterations
+        flashSaleInventory.applyJournal();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        flashSaleInventory.stop();
+        fixture.close();
+        try (var files = Files.list(journalDirectory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(journalDirectory);
+    }
+
+    @Benchmark
+    public Optional<Inventory> mongoReserve() {
+        return inventoryRepository.reserveStock(PRODUCT_ID, VARIANT_SKU, SIZE, 1);
+    }
+
+    @Benchmark
+    public Optional<Inventory> flashSaleReserve() {
+        return flashSaleInventory.reserve(PRODUCT_ID, VARIANT_SKU, SIZE, 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        Options options = new OptionsBuilder()
+                .include(FlashSaleReservationBenchmark.class.getSimpleName())
+                .threads(threads)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,166 @@
+package com.hypehouse.inventory_service.benchmark;
+
+import com.hypehouse.common.model.InventoryUpdateMessage;
+import com.hypehouse.inventory_service.InventoryTestFixture;
+import com.hypehouse.inventory_service.flashsale.FlashSaleInventory;
+import com.hypehouse.inventory_service.model.Inventory;
+import com.hypehouse.inventory_service.repository.InventoryRepository;
+import com.hypehouse.inventory_service.service.InventoryOutboxRelay;
+import com.hypehouse.inventory_service.service.InventoryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of the InventoryService stock paths, and of building the update
+ * message for the Product service. Every operation picks its variant either uniformly or, with
+ * {@code hot} set, mostly the same one, as during a drop. MongoDB is the in-memory
+ * mongo-java-server, so the numbers exclude the network and are meant for comparing changes, not for
+ * capacity planning. Key choices come from fixed seeds, so runs are repeatable.
+ * <p>
+ * Run with {@code main}, passing thread counts as the first argument (e.g. {@code 1,4,16}); results are
+ * written as JSON to {@code target/jmh}. Or run through JMH with {@code mvn -Pbenchmark test}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class InventoryServiceBenchmark {
+
+    private static final String PRODUCT_ID = "FV2305-900";
+    private static final String[] SIZES = {"7", "7.5", "8", "8.5", "9", "9.5", "10", "10.5", "11", "12"};
+    private static final int VARIANTS = 64;
+    // Enough that no run sells out a size or releases more than was reserved, while variant totals fit an int
+    private static final int STOCK = 100_000_000;
+    private static final int RESERVED = 50_000_000;
+
+    private InventoryTestFixture fixture;
+    private InventoryService inventoryService;
+    private Path journalDirectory;
+    private Inventory messageInventory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new InventoryTestFixture("inventory_service_benchmark");
+        InventoryRepository inventoryRepository = fixture.inventoryRepository();
+
+        journalDirectory = Files.createTempDirectory("inventory-benchmark");
+        FlashSaleInventory flashSaleInventory = new FlashSaleInventory(inventoryRepository,
+                journalDirectory.resolve("flash-sale.journal"), 4, List.of());
+        flashSaleInventory.start();
+
+        inventoryService = fixture.inventoryService().flashSaleInventory(flashSaleInventory).build();
+
+        for (int i = 0; i < VARIANTS; i++) {
+            for (String size : SIZES) {
+                messageInventory = inventoryService.addInventory(PRODUCT_ID, variantSku(i), "Black", Map.of(size, STOCK));
+                inventoryService.reserveStock(PRODUCT_ID, variantSku(i), size, RESERVED);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fixture.close();
+        try (var files = Files.list(journalDirectory)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(journalDirectory);
+    }
+
+    /**
+     * Picks the variant and size of each operation of one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+
+        /**
+         * Share of operations that go to the first variant; 0 spreads them uniformly over all variants.
+         */
+        @Param({"0", "0.9"})
+        private double hot;
+
+        private SplittableRandom random;
+
+        @Setup(Level.Trial)
+        public void setUp(ThreadParams threadParams) {
+            random = new SplittableRandom(42 + threadParams.getThreadIndex());
+        }
+
+        private String variantSku() {
+            return InventoryServiceBenchmark.variantSku(random.nextDouble() < hot ? 0 : random.nextInt(VARIANTS));
+        }
+
+        private String size() {
+            return SIZES[random.nextInt(SIZES.length)];
+        }
+    }
+
+    @Benchmark
+    public Inventory reserveStock(Keys keys) {
+        return inventoryService.reserveStock(PRODUCT_ID, keys.variantSku(), keys.size(), 1);
+    }
+
+    @Benchmark
+    public Inventory releaseReservedStock(Keys keys) {
+        return inventoryService.releaseReservedStock(PRODUCT_ID, keys.variantSku(), keys.size(), 1);
+    }
+
+    @Benchmark
+    public Inventory addInventory(Keys keys) {
+        return inventoryService.addInventory(PRODUCT_ID, keys.variantSku(), "Black", Map.of(keys.size(), 1));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public InventoryUpdateMessage buildUpdateMessage() {
+        return InventoryOutboxRelay.toUpdateMessage(messageInventory);
+    }
+
+    private static String variantSku(int variant) {
+        return PRODUCT_ID + "-" + (100 + variant);
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        String threadCounts = args.length > 0 ? args[0] : "1,4," + Runtime.getRuntime().availableProcessors();
+        Path results = Files.createDirectories(Path.of("target", "jmh"));
+        for (String threadCount : threadCounts.split(",")) {
+            int threads = Integer.parseInt(threadCount.trim());
+            Options options = new OptionsBuilder()
+                    .include(InventoryServiceBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(results.resolve("inventory-service-" + threads + "-threads.json").toString())
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
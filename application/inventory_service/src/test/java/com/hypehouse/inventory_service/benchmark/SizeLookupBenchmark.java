@@ -0,0 +1,102 @@
+package com.hypehouse.inventory_service.benchmark;
+
+import com.hypehouse.inventory_service.model.Inventory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One stock change to one size of a variant, the in-memory part of every InventoryService update.
+ * {@code linearScan} validates the size with one scan, finds it with a second and sums the totals again
+ * over all sizes, as the service used to. {@code sizeIndex} uses the variant's size index and adjusts the
+ * totals incrementally. The size changed is the last of the variant, the worst case for the scans.
+ * Run with {@code main}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class SizeLookupBenchmark {
+
+    @Param({"6", "16", "32"})
+    private int sizes;
+
+    private Inventory inventory;
+    private String size;
+
+    @Setup
+    public void setUp() {
+        List<Inventory.SizeStock> sizeStock = new ArrayList<>();
+        for (int i = 0; i < sizes; i++) {
+            // Half sizes like a shoe range, built at runtime so equals cannot short-circuit on identity
+            sizeStock.add(new Inventory.SizeStock(new StringBuilder().append(4 + i * 0.5).toString(), 1_000_000));
+        }
+        Inventory.Variant variant = new Inventory.Variant();
+        variant.setSizeStock(sizeStock);
+        inventory = new Inventory();
+        inventory.setVariant(variant);
+        inventory.setStockQuantity(sizes * 1_000_000);
+        inventory.setAvailableStock(sizes * 1_000_000);
+        size = new StringBuilder().append(4 + (sizes - 1) * 0.5).toString();
+    }
+
+    @Benchmark
+    public Inventory linearScan() {
+        List<Inventory.SizeStock> sizeStock = inventory.getVariant().getSizeStock();
+        boolean found = false;
+        for (Inventory.SizeStock item : sizeStock) {
+            if (item.getSize().equals(size)) {
+                found = true;
+                break;
+            }
+        }
+        if (!found) {
+            throw new RuntimeException("Size " + size + " not found in inventory.");
+        }
+        for (Inventory.SizeStock item : sizeStock) {
+            if (item.getSize().equals(size)) {
+                item.setReservedStock(item.getReservedStock() + 1);
+                item.setAvailableStock(item.getAvailableStock() - 1);
+                break;
+            }
+        }
+        inventory.setReservedStock(sizeStock.stream().mapToInt(Inventory.SizeStock::getReservedStock).sum());
+        inventory.setAvailableStock(sizeStock.stream().mapToInt(Inventory.SizeStock::getAvailableStock).sum());
+        return inventory;
+    }
+
+    @Benchmark
+    public Inventory sizeIndex() {
+        Inventory.SizeStock item = inventory.getVariant().findSize(size);
+        if (item == null) {
+            throw new RuntimeException("Size " + size + " not found in inventory.");
+        }
+        inventory.adjustStock(item, 0, 1);
+        return inventory;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SizeLookupBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -6,6 +6,7 @@ import com.hypehouse.product_service.exception.ProductNotFoundException;
 import com.hypehouse.product_service.model.IndexableProduct;
 import com.hypehouse.product_service.model.UpdateProductDTO;
 import com.hypehouse.product_service.model.Product;
+import com.hypehouse.product_service.model.StockProjection;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +53,14 @@ public class ProductController {
                 .orElse(ResponseEntity.status(HttpStatus.NOT_FOUND).body(null));  // Return Not Found if product not found
     }
 
+    // Get available stock per variant and size from the stock projection
+    @GetMapping("/{id}/stock")
+    @RateLimit(limitForPeriod = 60, limitRefreshPeriod = 60)
+    public ResponseEntity<List<StockProjection>> getProductStock(@PathVariable String id) {
+        log.debug("Fetching stock for product with ID: {}", id);
+        return ResponseEntity.ok(productService.getStock(id));
+    }
+
     // Fetch products by IDs with pagination
     @GetMapping("/ids")
     @RateLimit(limitForPeriod = 15, limitRefreshPeriod = 60)
@@ -12,6 +12,7 @@ import com.hypehouse.common.model.ProductDTO;
 import com.hypehouse.product_service.model.UpdateProductDTO;
 import com.hypehouse.product_service.exception.ProductNotFoundException;
 import com.hypehouse.product_service.model.Product;
+import com.hypehouse.product_service.model.StockProjection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
@@ -38,14 +39,17 @@ public class ProductService {
     private final Logger log = LoggerFactory.getLogger(ProductService.class);
     private final SearchIndex<IndexableProduct> productIndex;
     private final RabbitTemplate productRabbitTemplate;
+    private final StockProjectionService stockProjectionService;
     private final ConcurrentMap<String, CompletableFuture<Boolean>> inventoryCheckFutures = new ConcurrentHashMap<>();
 
     private static final String PRODUCTS_CACHE = "products";
 
-    public ProductService(ProductRepository productRepository, SearchClient searchClient, RabbitTemplate productRabbitTemplate) {
+    public ProductService(ProductRepository productRepository, SearchClient searchClient, RabbitTemplate productRabbitTemplate,
+                          StockProjectionService stockProjectionService) {
         this.productRepository = productRepository;
         this.productIndex = searchClient.initIndex("products", IndexableProduct.class);
         this.productRabbitTemplate = productRabbitTemplate;
+        this.stockProjectionService = stockProjectionService;
     }
 
     // Fetch all products with pagination
@@ -205,6 +209,7 @@ public class ProductService {
             throw new ProductNotFoundException(id);
         }
         deleteInventoryForProduct(String.valueOf(productId));
+        stockProjectionService.deleteStock(String.valueOf(productId));
         productRepository.deleteById(String.valueOf(productId));
         CompletableFuture.runAsync(() -> deleteProductFromAlgolia(id));
     }
@@ -212,12 +217,19 @@ public class ProductService {
     // Async method to index product in Algolia
     @Async
     public void indexProductAsync(Product product) {
+        indexProduct(product);
+    }
+
+    // Index product in Algolia, returning whether it succeeded
+    boolean indexProduct(Product product) {
         IndexableProduct indexableProduct = convertToIndexableProduct(product);
         try {
             productIndex.saveObject(indexableProduct).waitTask();
             log.info("Successfully indexed product with ID: {}", product.getId());
+            return true;
         } catch (Exception e) {
             log.error("Failed to index product in Algolia: {}", e.getMessage());
+            return false;
         }
     }
 
@@ -311,10 +323,22 @@ public class ProductService {
     }
 
 
+    public List<StockProjection> getStock(String productId) {
+        return stockProjectionService.getStock(productId);
+    }
+
     @Transactional
     public void updateInventory(String productId, String variantSku, Map<String, Integer> sizeStockMap) {
         log.debug("Updating inventory for product ID: {}, variant SKU: {}", productId, variantSku);
 
+        // Counts live in the stock projection; the product and its search record only carry in-stock status
+        StockProjection previous = stockProjectionService.get(productId, variantSku);
+        if (previous != null && !StockProjection.inStockChanged(previous.getAvailableBySize(), sizeStockMap)) {
+            log.debug("In-stock status unchanged for product ID: {}, variant SKU: {}", productId, variantSku);
+            stockProjectionService.update(productId, variantSku, sizeStockMap);
+            return;
+        }
+
         // Retrieve the product by ID (throws exception if not found)
         Product product = getProductById(productId)
                 .orElseThrow(() -> new ProductNotFoundException(productId));
@@ -352,8 +376,12 @@ public class ProductService {
         // Save the updated product to the database
         productRepository.save(product);
 
-        // Asynchronously index the updated product in Algolia
-        indexProductAsync(product);
+        // The projection only moves once the product and its search record carry the new status, so that an
+        // update failing on either is applied again by the next update of the variant
+        if (!indexProduct(product)) {
+            return;
+        }
+        stockProjectionService.update(productId, variantSku, sizeStockMap);
     }
 
     @Transactional
@@ -387,8 +415,10 @@ public class ProductService {
         // Save the updated product to the database
         productRepository.save(product);
 
-        // Asynchronously index the updated product in Algolia
-        indexProductAsync(product);
+        // As in updateInventory, the projection follows the product and its search record
+        if (indexProduct(product)) {
+            stockProjectionService.update(productId, variantSku, sizeStockMap);
+        }
     }
 
     @Transactional
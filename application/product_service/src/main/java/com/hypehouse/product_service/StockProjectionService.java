@@ -0,0 +1,70 @@
+package com.hypehouse.product_service;
+
+import com.hypehouse.product_service.model.StockProjection;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the stock projection in step with the inventory service. Each update is one upsert of the variant's
+ * availability map, and callers read the current map first to tell whether in-stock status flipped without
+ * loading the product.
+ */
+@Service
+public class StockProjectionService {
+
+    private static final Logger log = LoggerFactory.getLogger(StockProjectionService.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public StockProjectionService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @PostConstruct
+    public void ensureIndexes() {
+        mongoTemplate.indexOps(StockProjection.class).ensureIndex(new Index().on("productId", Sort.Direction.ASC));
+    }
+
+    /**
+     * Replaces the availability of a variant with {@code availableBySize}, which holds every size of the
+     * variant as the inventory service reports it. Sizes are written as one map rather than per-size paths
+     * because size names such as "9.5" are not valid field names.
+     */
+    public void update(String productId, String variantSku, Map<String, Integer> availableBySize) {
+        Query query = Query.query(Criteria.where("_id").is(StockProjection.idOf(productId, variantSku)));
+        Update update = new Update()
+                .set("productId", productId)
+                .set("variantSku", variantSku)
+                .set("availableBySize", availableBySize)
+                .set("updatedAt", LocalDateTime.now());
+        mongoTemplate.upsert(query, update, StockProjection.class);
+        log.debug("Updated stock projection for product ID: {}, variant SKU: {}", productId, variantSku);
+    }
+
+    /**
+     * @return the projection of a variant, or null if no update for it was received yet
+     */
+    public StockProjection get(String productId, String variantSku) {
+        return mongoTemplate.findById(StockProjection.idOf(productId, variantSku), StockProjection.class);
+    }
+
+    public List<StockProjection> getStock(String productId) {
+        return mongoTemplate.find(Query.query(Criteria.where("productId").is(productId)), StockProjection.class);
+    }
+
+    public void deleteStock(String productId) {
+        mongoTemplate.remove(Query.query(Criteria.where("productId").is(productId)), StockProjection.class);
+    }
+}
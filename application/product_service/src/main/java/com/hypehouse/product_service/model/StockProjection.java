@@ -0,0 +1,101 @@
+package com.hypehouse.product_service.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Available stock per size of one product variant, as last reported by the inventory service. Stock updates
+ * land here with a single-field write; the product document only follows when a size goes in or out of stock.
+ */
+@Document(collection = "stock_projection")
+public class StockProjection implements Serializable {
+
+    @Id
+    private String id;
+
+    private String productId;
+
+    private String variantSku;
+
+    private Map<String, Integer> availableBySize = new HashMap<>();
+
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime updatedAt;
+
+    // Constructors
+    public StockProjection() {
+    }
+
+    public StockProjection(String productId, String variantSku, Map<String, Integer> availableBySize) {
+        this.id = idOf(productId, variantSku);
+        this.productId = productId;
+        this.variantSku = variantSku;
+        this.availableBySize = availableBySize;
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    public static String idOf(String productId, String variantSku) {
+        return productId + ":" + variantSku;
+    }
+
+    /**
+     * Whether any size in {@code update} is in stock where it was not before, or the other way round.
+     * A size missing from {@code previous} counts as a change; sizes missing from {@code update} are left alone.
+     */
+    public static boolean inStockChanged(Map<String, Integer> previous, Map<String, Integer> update) {
+        for (Map.Entry<String, Integer> entry : update.entrySet()) {
+            Integer before = previous.get(entry.getKey());
+            if (before == null || (before > 0) != (entry.getValue() > 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Getters and Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public void setProductId(String productId) {
+        this.productId = productId;
+    }
+
+    public String getVariantSku() {
+        return variantSku;
+    }
+
+    public void setVariantSku(String variantSku) {
+        this.variantSku = variantSku;
+    }
+
+    public Map<String, Integer> getAvailableBySize() {
+        return availableBySize;
+    }
+
+    public void setAvailableBySize(Map<String, Integer> availableBySize) {
+        this.availableBySize = availableBySize;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(LocalDateTime updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,94 @@
+package com.hypehouse.product_service;
+
+import com.algolia.search.SearchClient;
+import com.algolia.search.SearchIndex;
+import com.algolia.search.models.indexing.BatchIndexingResponse;
+import com.hypehouse.product_service.model.IndexableProduct;
+import com.hypehouse.product_service.model.Product;
+import com.hypehouse.product_service.model.StockProjection;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProductServiceInventoryTest {
+
+    private ProductRepository productRepository;
+    private SearchIndex<IndexableProduct> productIndex;
+    private StockProjectionService stockProjectionService;
+    private ProductService productService;
+    private Product product;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        productRepository = mock(ProductRepository.class);
+        productIndex = mock(SearchIndex.class);
+        SearchClient searchClient = mock(SearchClient.class);
+        when(searchClient.initIndex(anyString(), eq(IndexableProduct.class))).thenReturn(productIndex);
+        stockProjectionService = mock(StockProjectionService.class);
+        productService = new ProductService(productRepository, searchClient, mock(RabbitTemplate.class), stockProjectionService);
+
+        Product.Variant variant = new Product.Variant();
+        variant.setSku("FV2305-900-100");
+        variant.setSizes(new ArrayList<>(List.of(new Product.SizeVariant("9", 5), new Product.SizeVariant("10", 0))));
+        product = new Product();
+        product.setId("FV2305-900");
+        product.setRating(4.5);
+        product.setVariantList(List.of(variant));
+        when(productRepository.findById("FV2305-900")).thenReturn(Optional.of(product));
+    }
+
+    @Test
+    void onlyUpdatesTheProjectionWhileInStockStatusHolds() {
+        when(stockProjectionService.get("FV2305-900", "FV2305-900-100"))
+                .thenReturn(new StockProjection("FV2305-900", "FV2305-900-100", Map.of("9", 5, "10", 0)));
+
+        productService.updateInventory("FV2305-900", "FV2305-900-100", Map.of("9", 3, "10", 0));
+
+        verify(stockProjectionService).update("FV2305-900", "FV2305-900-100", Map.of("9", 3, "10", 0));
+        verify(productRepository, never()).findById(anyString());
+        verify(productIndex, never()).saveObject(any());
+    }
+
+    @Test
+    void updatesTheProjectionAfterTheProductAndItsSearchRecord() {
+        when(stockProjectionService.get("FV2305-900", "FV2305-900-100"))
+                .thenReturn(new StockProjection("FV2305-900", "FV2305-900-100", Map.of("9", 5, "10", 0)));
+        when(productIndex.saveObject(any())).thenReturn(mock(BatchIndexingResponse.class));
+
+        productService.updateInventory("FV2305-900", "FV2305-900-100", Map.of("9", 0, "10", 0));
+
+        InOrder inOrder = inOrder(productRepository, productIndex, stockProjectionService);
+        inOrder.verify(productRepository).save(product);
+        inOrder.verify(productIndex).saveObject(any());
+        inOrder.verify(stockProjectionService).update("FV2305-900", "FV2305-900-100", Map.of("9", 0, "10", 0));
+        assertEquals(0, product.getVariantList().get(0).getStockQuantity());
+    }
+
+    @Test
+    void leavesTheProjectionAsItWasWhenIndexingFails() {
+        when(productIndex.saveObject(any())).thenThrow(new RuntimeException("Algolia is down"));
+
+        productService.updateInventory("FV2305-900", "FV2305-900-100", Map.of("9", 0));
+
+        // The next update of the variant still sees the status flip and retries the product
+        verify(productRepository).save(product);
+        verify(stockProjectionService, never()).update(anyString(), anyString(), any());
+    }
+}
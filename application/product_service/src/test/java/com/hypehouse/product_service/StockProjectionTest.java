@@ -0,0 +1,29 @@
+package com.hypehouse.product_service;
+
+import com.hypehouse.product_service.model.StockProjection;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StockProjectionTest {
+
+    @Test
+    void countsThatStayInOrOutOfStockAreNoChange() {
+        assertFalse(StockProjection.inStockChanged(Map.of("9", 5, "10", 0), Map.of("9", 2, "10", 0)));
+    }
+
+    @Test
+    void sizesGoingInOrOutOfStockAreAChange() {
+        assertTrue(StockProjection.inStockChanged(Map.of("9", 5), Map.of("9", 0)));
+        assertTrue(StockProjection.inStockChanged(Map.of("9", 0), Map.of("9", 1)));
+    }
+
+    @Test
+    void newSizesAreAChangeAndMissingSizesAreLeftAlone() {
+        assertTrue(StockProjection.inStockChanged(Map.of("9", 5), Map.of("9.5", 0)));
+        assertFalse(StockProjection.inStockChanged(Map.of("9", 5, "10", 0), Map.of("9", 3)));
+    }
+}